@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.Before;
+import org.junit.Test;
+
+public class BlobExportTest extends ScriptTestCase {
+
+	private Git remote;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		commit(remote, "f/feature.xml", "f1");
+		commit(remote, "f/build.properties", "b1");
+		commit(remote, "lib/p.jar", "jar1");
+		tag(remote, "v1");
+		final String repo = location(remote);
+		retrieveFiles("f", "tag=v1,repo=" + repo + ",path=f",
+				"feature.xml,build.properties");
+		retrieve("plugin", "p", "tag=v1,repo=" + repo
+				+ ",path=lib/p.jar,prebuilt=true");
+	}
+
+	@Test
+	public void testNativeBackendCopiesFromCheckout() throws Exception {
+		assertFalse(generate().contains("<egit.export"));
+	}
+
+	@Test
+	public void testNativeBlobExportIsOptIn() throws Exception {
+		setOption(FetchOptions.PROP_BLOB_EXPORT, "true");
+		assertTrue(generate().contains("<egit.export"));
+	}
+
+	@Test
+	public void testNoBlobExportFromPartialClone() throws Exception {
+		setOption(FetchOptions.PROP_BLOB_EXPORT, "true");
+		setOption(FetchOptions.PROP_SPARSE, "true");
+		assertFalse(generate().contains("<egit.export"));
+	}
+
+	@Test
+	public void testFilesAreReadWithoutCheckout() throws Exception {
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		generate();
+		run("fetch");
+		assertEquals("f1", read(new File(buildDirectory, "files/f/feature.xml")));
+		assertEquals("b1", read(new File(buildDirectory,
+				"files/f/build.properties")));
+		assertEquals("jar1", read(new File(buildDirectory, "plugins/p.jar")));
+		final File[] children = fetchCache.listFiles();
+		int clones = 0;
+		for (int i = 0; i < children.length; i++) {
+			if (!new File(children[i], Constants.DOT_GIT).isDirectory())
+				continue;
+			clones++;
+			assertFalse(new File(children[i], "f").exists());
+			assertFalse(new File(children[i], "lib").exists());
+		}
+		assertEquals(1, clones);
+	}
+}
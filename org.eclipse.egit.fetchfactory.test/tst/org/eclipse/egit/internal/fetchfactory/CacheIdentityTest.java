@@ -0,0 +1,84 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheIdentityTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private Git remote;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a");
+		commit(remote, "b/" + MANIFEST, "b");
+		tag(remote, "v1");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+	}
+
+	@Test
+	public void testEquivalentLocationsShareOneClone() throws Exception {
+		retrieve("plugin", "a", "tag=v1,repo=" + location(remote) + ",path=a");
+		retrieve("plugin", "b", "tag=v1,repo=" + location(remote)
+				+ ".git/,path=b");
+		generate();
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals("b", read(retrieved("plugin", "b", MANIFEST)));
+		assertEquals(1, clones().size());
+	}
+
+	@Test
+	public void testCloneOfEarlierBuildIsMoved() throws Exception {
+		final String repo = location(remote) + "/";
+		// where builds kept the clone before locations were normalized
+		final File former = new File(fetchCache, repo.replaceAll(
+				"[^\\p{L}\\p{N}]", "_"));
+		Git.cloneRepository().setURI(repo).setDirectory(former).call()
+				.getRepository().close();
+		write(new File(former, Constants.DOT_GIT + "/marker"), "warm");
+		retrieve("plugin", "a", "tag=v1,repo=" + repo + ",path=a");
+		generate();
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertFalse(former.exists());
+		final List<File> clones = clones();
+		assertEquals(1, clones.size());
+		assertTrue(new File(clones.get(0), Constants.DOT_GIT + "/marker")
+				.isFile());
+	}
+
+	private List<File> clones() {
+		final List<File> clones = new ArrayList<File>();
+		final File[] children = fetchCache.listFiles();
+		for (int i = 0; i < children.length; i++) {
+			if (new File(children[i], Constants.DOT_GIT).isDirectory())
+				clones.add(children[i]);
+		}
+		return clones;
+	}
+}
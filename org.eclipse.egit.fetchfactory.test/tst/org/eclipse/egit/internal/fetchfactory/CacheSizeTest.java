@@ -0,0 +1,122 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CacheSizeTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		final Git remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a");
+		tag(remote, "v1");
+		retrieve("plugin", "a", "tag=v1,repo=" + location(remote) + ",path=a");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+	}
+
+	@Test
+	public void testUnusedClonesAreEvicted() throws Exception {
+		final File stale = createClone("stale");
+		setOption(FetchOptions.PROP_CACHE_SIZE, "1k");
+		generate();
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertFalse(stale.exists());
+	}
+
+	@Test
+	public void testClonesWithinBudgetAreKept() throws Exception {
+		final File stale = createClone("stale");
+		setOption(FetchOptions.PROP_CACHE_SIZE, "10M");
+		generate();
+		run("fetch");
+		assertTrue(stale.isDirectory());
+	}
+
+	@Test
+	public void testLinksAreNotFollowed() throws Exception {
+		assumeTrue(File.separatorChar == '/');
+		final File victim = createTempDirectory("victim");
+		write(new File(victim, "keep.txt"), "keep");
+		final File stale = createClone("stale");
+		final Process ln = Runtime.getRuntime().exec(
+				new String[] { "ln", "-s", victim.getAbsolutePath(),
+						new File(stale, "link").getAbsolutePath() });
+		assertEquals(0, ln.waitFor());
+		setOption(FetchOptions.PROP_CACHE_SIZE, "1k");
+		generate();
+		run("fetch");
+		assertFalse(stale.exists());
+		assertEquals("keep", read(new File(victim, "keep.txt")));
+	}
+
+	@Test
+	public void testUnusedExportCacheEntriesAreEvicted() throws Exception {
+		final File stale = new File(fetchCache, "exportCache/trees/"
+				+ "0123456789012345678901234567890123456789");
+		write(new File(stale, "content.txt"), "content");
+		stale.setLastModified(1000000L);
+		setOption(FetchOptions.PROP_EXPORT_CACHE, "true");
+		setOption(FetchOptions.PROP_CACHE_SIZE, "1");
+		generate();
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertFalse(stale.exists());
+		assertEquals(1, new File(fetchCache, "exportCache/trees").list().length);
+	}
+
+	@Test
+	public void testInvalidBudgetFails() throws Exception {
+		setOption(FetchOptions.PROP_CACHE_SIZE, "lots");
+		generate();
+		try {
+			run("fetch");
+			fail("invalid cache size accepted");
+		} catch (final CoreException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Creates a clone in the fetch cache which was last used long ago.
+	 */
+	private File createClone(String name) throws Exception {
+		final File clone = new File(fetchCache, name);
+		final File gitDir = new File(clone, Constants.DOT_GIT);
+		final FileRepository repository = new FileRepository(gitDir);
+		repository.create();
+		repository.close();
+		final StringBuffer content = new StringBuffer();
+		for (int i = 0; i < 512; i++)
+			content.append("content ");
+		write(new File(clone, "content.txt"), content.toString());
+		gitDir.setLastModified(1000000L);
+		return clone;
+	}
+}
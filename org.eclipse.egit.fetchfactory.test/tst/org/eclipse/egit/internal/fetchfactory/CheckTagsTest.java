@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CheckTagsTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private Git remote;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a1");
+		tag(remote, "v1");
+	}
+
+	@Test
+	public void testNativeBackendChecksTagsWithGit() throws Exception {
+		retrieve("plugin", "a", entry("v1"));
+		final String text = generate();
+		assertFalse(text.contains("<egit.checktags"));
+		assertTrue(text.contains("rev-parse"));
+	}
+
+	@Test
+	public void testNativeCloneWithAllTagsIsNotUpdated() throws Exception {
+		retrieveOffline("v1");
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+	}
+
+	@Test
+	public void testNativeCloneWithoutTagIsUpdated() throws Exception {
+		try {
+			retrieveOffline("v2");
+			fail("clone not updated");
+		} catch (final CoreException e) {
+			// expected, the remote is gone
+		}
+	}
+
+	@Test
+	public void testJGitCloneWithAllTagsIsNotUpdated() throws Exception {
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		assertTrue(generateWith("v1").contains("<egit.checktags"));
+		retrieveOffline("v1");
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+	}
+
+	private String entry(String tag) {
+		return "tag=" + tag + ",repo=" + location(remote) + ",path=a";
+	}
+
+	private String generateWith(String tag) throws Exception {
+		clear();
+		retrieve("plugin", "a", entry(tag));
+		return generate();
+	}
+
+	/**
+	 * Retrieves the element from v1 and then again from the given tag in a
+	 * new build, after the remote repository got tag v2 and has gone.
+	 */
+	private void retrieveOffline(String tag) throws Exception {
+		generateWith("v1");
+		run("fetch");
+		commit(remote, "a/" + MANIFEST, "a2");
+		tag(remote, "v2");
+		final File workTree = remote.getRepository().getWorkTree();
+		assertTrue(workTree.renameTo(new File(workTree.getParentFile(),
+				"gone")));
+		FileUtils.delete(buildDirectory, FileUtils.RECURSIVE);
+		buildDirectory.mkdirs();
+		generateWith(tag);
+		run("fetch");
+	}
+}
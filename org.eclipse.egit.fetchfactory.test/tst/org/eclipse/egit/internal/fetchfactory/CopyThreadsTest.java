@@ -0,0 +1,85 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class CopyThreadsTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		final Git remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a");
+		for (int i = 0; i < 40; i++)
+			commit(remote, "a/src/p" + i % 4 + "/C" + i + ".java", "class C"
+					+ i + " {}");
+		commit(remote, "a/.gitignore", "bin");
+		tag(remote, "v1");
+		retrieve("plugin", "a", "tag=v1,repo=" + location(remote) + ",path=a");
+	}
+
+	@Test
+	public void testThreadsAreOptIn() throws Exception {
+		assertFalse(generate().contains("<egit.copy"));
+		setOption(FetchOptions.PROP_COPY_THREADS, "4");
+		assertTrue(generate().contains("<egit.copy"));
+	}
+
+	@Test
+	public void testSameFilesAsAntCopy() throws Exception {
+		generate();
+		run("fetch");
+		final Map<String, String> expected = contents(retrieved("plugin",
+				"a", ""));
+		FileUtils.delete(buildDirectory, FileUtils.RECURSIVE);
+		buildDirectory.mkdirs();
+		setOption(FetchOptions.PROP_COPY_THREADS, "4");
+		generate();
+		run("fetch");
+		assertEquals(expected, contents(retrieved("plugin", "a", "")));
+	}
+
+	/**
+	 * @return the content of all files below a directory by relative path
+	 */
+	private static Map<String, String> contents(File dir) throws Exception {
+		final Map<String, String> contents = new TreeMap<String, String>();
+		addContents(dir, "", contents);
+		return contents;
+	}
+
+	private static void addContents(File dir, String prefix,
+			Map<String, String> contents) throws Exception {
+		final File[] children = dir.listFiles();
+		for (int i = 0; i < children.length; i++) {
+			final String path = prefix + children[i].getName();
+			if (children[i].isDirectory())
+				addContents(children[i], path + "/", contents);
+			else
+				contents.put(path, read(children[i]));
+		}
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.InputStreamReader;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ExportCacheTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private File trees;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		final Git remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a");
+		commit(remote, "a/src/A.java", "class A {}");
+		tag(remote, "v1");
+		// the tree of a stays the same
+		commit(remote, "b/" + MANIFEST, "b");
+		tag(remote, "v2");
+		final String repo = location(remote);
+		retrieve("plugin", "a", "tag=v1,repo=" + repo + ",path=a");
+		retrieve("plugin", "a.v2", "tag=v2,repo=" + repo + ",path=a");
+		trees = new File(fetchCache, "exportCache/trees");
+		setOption(FetchOptions.PROP_EXPORT_CACHE, "true");
+	}
+
+	@Test
+	public void testEqualTreesAreCachedOnce() throws Exception {
+		generate();
+		run("fetch");
+		assertEquals("class A {}", read(retrieved("plugin", "a", "src/A.java")));
+		assertEquals("class A {}", read(retrieved("plugin", "a.v2",
+				"src/A.java")));
+		assertEquals(1, trees.list().length);
+	}
+
+	@Test
+	public void testFilesAreCopiedByDefault() throws Exception {
+		assumeTrue(File.separatorChar == '/');
+		generate();
+		run("fetch");
+		assertEquals(1, links(cached("src/A.java")));
+	}
+
+	@Test
+	public void testLinksAreOptIn() throws Exception {
+		assumeTrue(File.separatorChar == '/');
+		setOption(FetchOptions.PROP_EXPORT_CACHE_LINKS, "true");
+		generate();
+		run("fetch");
+		assertEquals("class A {}", read(retrieved("plugin", "a", "src/A.java")));
+		final File cached = cached("src/A.java");
+		// users who may write read-only files, e.g. root, get copies
+		assertEquals(cached.canWrite() ? 1 : 3, links(cached));
+		// rewritten by PDE Build
+		assertEquals(1, links(cached(MANIFEST)));
+	}
+
+	private File cached(String path) {
+		return new File(trees.listFiles()[0], path);
+	}
+
+	/**
+	 * @return the number of hard links to a file
+	 */
+	private static int links(File file) throws Exception {
+		final Process stat = Runtime.getRuntime().exec(
+				new String[] { "stat", "-c", "%h", file.getAbsolutePath() });
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				stat.getInputStream()));
+		try {
+			final String line = reader.readLine();
+			assertEquals(0, stat.waitFor());
+			return Integer.parseInt(line.trim());
+		} finally {
+			reader.close();
+		}
+	}
+}
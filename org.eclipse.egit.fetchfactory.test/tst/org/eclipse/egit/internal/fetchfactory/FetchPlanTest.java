@@ -0,0 +1,147 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.pde.build.IAntScript;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FetchPlanTest {
+
+	private static final String REPO_A = "git://git.eclipse.org/gitroot/a.git";
+
+	private static final String REPO_B = "git://git.eclipse.org/gitroot/b.git";
+
+	private IAntScript script;
+
+	private FetchPlan plan;
+
+	@Before
+	public void setUp() {
+		// the plan only uses the script as a key
+		script = (IAntScript) Proxy.newProxyInstance(getClass()
+				.getClassLoader(), new Class[] { IAntScript.class },
+				new InvocationHandler() {
+					public Object invoke(Object proxy, Method method,
+							Object[] args) {
+						if (method.getName().equals("equals"))
+							return Boolean.valueOf(proxy == args[0]);
+						if (method.getName().equals("hashCode"))
+							return Integer.valueOf(System
+									.identityHashCode(proxy));
+						return null;
+					}
+				});
+		plan = FetchPlan.get(script);
+	}
+
+	@After
+	public void tearDown() {
+		FetchPlan.remove(script);
+	}
+
+	@Test
+	public void testPlanIsSharedPerScript() {
+		assertSame(plan, FetchPlan.get(script));
+		assertSame(plan, FetchPlan.remove(script));
+		assertNull(FetchPlan.remove(script));
+		assertNotSame(plan, FetchPlan.get(script));
+	}
+
+	@Test
+	public void testElementsAreGroupedByRepositoryAndTag() {
+		final FetchPlan.Element a1 = add(REPO_A, "/clones/a", "v1", "bundles/a1");
+		final FetchPlan.Element a2 = add(REPO_A, "/clones/a", "v1", "bundles/a2");
+		final FetchPlan.Element a3 = add(REPO_A, "/clones/a", "v2", "bundles/a1");
+		final FetchPlan.Element b1 = add(REPO_B, "/clones/b", "v1", "bundles/b1");
+
+		assertEquals(2, plan.getRepositories().size());
+		final Iterator<FetchPlan.Repository> repositories = plan
+				.getRepositories().iterator();
+		final FetchPlan.Repository a = repositories.next();
+		final FetchPlan.Repository b = repositories.next();
+		assertEquals("/clones/a", a.getLocalGitRepo());
+		assertEquals(REPO_A, a.getGitRepo());
+		assertEquals(Arrays.asList("v1", "v2"), a.getTags());
+		assertEquals(2, a.getGroups().size());
+		assertEquals(Arrays.asList("bundles/a1", "bundles/a2"),
+				new ArrayList<String>(a.getPaths()));
+		assertEquals(Arrays.asList(a1, a2, a3), a.getElements());
+		assertEquals(Collections.singletonList("v1"), b.getTags());
+		assertEquals(Collections.singletonList(b1), b.getElements());
+
+		// same repository and tag share the group, anything else does not
+		assertSame(a1.getGroup(), a2.getGroup());
+		assertNotSame(a1.getGroup(), a3.getGroup());
+		assertNotSame(a1.getGroup(), b1.getGroup());
+		assertSame(a, a1.getGroup().getRepository());
+		assertEquals("v2", a3.getGroup().getTag());
+		assertEquals(Arrays.asList(a1, a2), a1.getGroup().getElements());
+	}
+
+	@Test
+	public void testNamesAreUnique() {
+		final List<FetchPlan.Element> elements = Arrays.asList(add(REPO_A,
+				"/clones/a", "v1", "a1"), add(REPO_A, "/clones/a", "v1", "a2"),
+				add(REPO_A, "/clones/a", "v2", "a1"), add(REPO_B, "/clones/b",
+						"v1", "b1"));
+		final List<String> guards = new ArrayList<String>();
+		for (final FetchPlan.Element element : elements) {
+			assertFalse(guards.contains(element.getGuardProperty()));
+			guards.add(element.getGuardProperty());
+		}
+		final Iterator<FetchPlan.Repository> repositories = plan
+				.getRepositories().iterator();
+		final FetchPlan.Repository a = repositories.next();
+		final FetchPlan.Repository b = repositories.next();
+		assertFalse(a.getTargetName().equals(b.getTargetName()));
+		final Iterator<FetchPlan.Group> groups = a.getGroups().iterator();
+		final FetchPlan.Group v1 = groups.next();
+		final FetchPlan.Group v2 = groups.next();
+		assertFalse(v1.getTargetName().equals(v2.getTargetName()));
+		assertFalse(v1.getTargetName().equals(
+				b.getGroups().iterator().next().getTargetName()));
+
+		// another script gets its own names
+		final IAntScript otherScript = (IAntScript) Proxy.newProxyInstance(
+				getClass().getClassLoader(), new Class[] { IAntScript.class },
+				Proxy.getInvocationHandler(script));
+		try {
+			assertFalse(FetchPlan.get(otherScript).getUpdateTargetName()
+					.equals(plan.getUpdateTargetName()));
+		} finally {
+			FetchPlan.remove(otherScript);
+		}
+	}
+
+	private FetchPlan.Element add(String gitRepo, String localGitRepo,
+			String tag, String path) {
+		return plan.addElement(gitRepo, localGitRepo, tag, path, "copy",
+				Collections.<String, String> emptyMap(), null, Collections
+						.<String> emptyList());
+	}
+}
@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.Test;
+
+public class FetchScriptTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	@Test
+	public void testTargetsPerRepositoryAndTag() throws Exception {
+		final Git a = createRemote();
+		final Git b = createRemote();
+		retrieve("plugin", "a1", "tag=v1,repo=" + location(a) + ",path=a1");
+		retrieve("plugin", "a2", "tag=v1,repo=" + location(a) + ",path=a2");
+		retrieve("plugin", "a1v2", "tag=v2,repo=" + location(a) + ",path=a1");
+		retrieve("plugin", "b1", "tag=v1,repo=" + location(b) + ",path=b1");
+		final String text = generate();
+		assertEquals(2, count(text,
+				"<target name=\"GitPlan\\d+UpdateRepo\\d+\""));
+		assertEquals(3, count(text,
+				"<target name=\"GitPlan\\d+RetrieveTag\\d+\""));
+	}
+
+	@Test
+	public void testElementsAreRetrievedFromTheirTag() throws Exception {
+		final Git remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a1");
+		commit(remote, "b/" + MANIFEST, "b1");
+		tag(remote, "v1");
+		commit(remote, "a/" + MANIFEST, "a2");
+		tag(remote, "v2");
+		final String repo = location(remote);
+		retrieve("plugin", "a", "tag=v1,repo=" + repo + ",path=a");
+		retrieve("plugin", "b", "tag=v1,repo=" + repo + ",path=b");
+		retrieve("plugin", "a.v2", "tag=v2,repo=" + repo + ",path=a");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		generate();
+		run("fetch");
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals("b1", read(retrieved("plugin", "b", MANIFEST)));
+		assertEquals("a2", read(retrieved("plugin", "a.v2", MANIFEST)));
+	}
+
+	@Test
+	public void testOnlyCalledElementsAreRetrieved() throws Exception {
+		final Git remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a");
+		commit(remote, "b/" + MANIFEST, "b");
+		tag(remote, "v1");
+		final String repo = location(remote);
+		retrieve("plugin", "a", "tag=v1,repo=" + repo + ",path=a");
+		retrieve("plugin", "b", "tag=v1,repo=" + repo + ",path=b");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		generate();
+		run("fetch.a");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertFalse(retrieved("plugin", "b", MANIFEST).exists());
+	}
+
+	@Test
+	public void testExistingElementIsKept() throws Exception {
+		final Git remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a");
+		tag(remote, "v1");
+		retrieve("plugin", "a", "tag=v1,repo=" + location(remote)
+				+ ",path=a");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		generate();
+		write(retrieved("plugin", "a", MANIFEST), "local");
+		run("fetch");
+		assertEquals("local", read(retrieved("plugin", "a", MANIFEST)));
+	}
+
+	@Test
+	public void testTagIsCheckedOutOncePerScript() throws Exception {
+		final Git remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a1");
+		commit(remote, "b/" + MANIFEST, "b1");
+		tag(remote, "v1");
+		commit(remote, "a/" + MANIFEST, "a2");
+		tag(remote, "v2");
+		final String repo = location(remote);
+		retrieve("plugin", "a", "tag=v1,repo=" + repo + ",path=a");
+		retrieve("plugin", "a.v2", "tag=v2,repo=" + repo + ",path=a");
+		retrieve("plugin", "b", "tag=v1,repo=" + repo + ",path=b");
+		final File report = new File(buildDirectory, "timing.json");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		setOption(FetchOptions.PROP_TIMING_REPORT, report.getAbsolutePath());
+		generate();
+		run("fetch.a", "fetch.b");
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals("b1", read(retrieved("plugin", "b", MANIFEST)));
+		assertEquals(1, count(read(report),
+				"\"step\": \"checkout\"[^}]*\"cache\": \"miss\""));
+	}
+
+	@Test
+	public void testOtherTagIsCheckedOutAgain() throws Exception {
+		final Git remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a1");
+		commit(remote, "b/" + MANIFEST, "b1");
+		tag(remote, "v1");
+		commit(remote, "a/" + MANIFEST, "a2");
+		commit(remote, "b/" + MANIFEST, "b2");
+		tag(remote, "v2");
+		final String repo = location(remote);
+		retrieve("plugin", "a", "tag=v1,repo=" + repo + ",path=a");
+		retrieve("plugin", "a.v2", "tag=v2,repo=" + repo + ",path=a");
+		retrieve("plugin", "b", "tag=v1,repo=" + repo + ",path=b");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		generate();
+		run("fetch.a", "fetch.a.v2", "fetch.b");
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals("a2", read(retrieved("plugin", "a.v2", MANIFEST)));
+		assertEquals("b1", read(retrieved("plugin", "b", MANIFEST)));
+	}
+}
@@ -0,0 +1,110 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class LockFileTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private Git remote;
+
+	private RevCommit locked;
+
+	private File lock;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		locked = commit(remote, "a/" + MANIFEST, "a1");
+		tag(remote, "v1");
+		lock = new File(createTempDirectory("lock"), "fetch.lock");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+	}
+
+	@Test
+	public void testResolvedRevisionIsRecorded() throws Exception {
+		setOption(FetchOptions.PROP_LOCK_OUTPUT, lock.getAbsolutePath());
+		retrieve();
+		final String[] lines = read(lock).trim().split("\n");
+		// a header followed by the entry
+		assertEquals(2, lines.length);
+		final String[] line = lines[1].split("\t");
+		assertEquals(5, line.length);
+		assertEquals(location(remote), line[0]);
+		assertEquals("v1", line[1]);
+		assertEquals("a", line[2]);
+		assertEquals(locked.name(), line[3]);
+	}
+
+	@Test
+	public void testLockedCommitIsRetrievedAfterTagMoved() throws Exception {
+		setOption(FetchOptions.PROP_LOCK_OUTPUT, lock.getAbsolutePath());
+		retrieve();
+		final RevCommit moved = commit(remote, "a/" + MANIFEST, "a2");
+		final RefUpdate update = remote.getRepository().updateRef(
+				Constants.R_TAGS + "v1");
+		update.setNewObjectId(moved);
+		update.setForceUpdate(true);
+		update.forceUpdate();
+
+		final File relocked = new File(lock.getParentFile(), "again.lock");
+		setOption(FetchOptions.PROP_LOCK_OUTPUT, relocked.getAbsolutePath());
+		setOption(FetchOptions.PROP_LOCK_INPUT, lock.getAbsolutePath());
+		retrieve();
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+		// the clone already contained the locked commit
+		final FileRepository repository = new FileRepository(new File(
+				localClone(), Constants.DOT_GIT));
+		try {
+			assertFalse(repository.hasObject(moved));
+		} finally {
+			repository.close();
+		}
+		assertEquals(read(lock), read(relocked));
+	}
+
+	/**
+	 * Retrieves the element in a new build.
+	 */
+	private void retrieve() throws Exception {
+		FileUtils.delete(buildDirectory, FileUtils.RECURSIVE);
+		buildDirectory.mkdirs();
+		clear();
+		retrieve("plugin", "a", "tag=v1,repo=" + location(remote) + ",path=a");
+		generate();
+		run("fetch");
+	}
+
+	private File localClone() {
+		final File[] children = fetchCache.listFiles();
+		for (int i = 0; i < children.length; i++) {
+			if (new File(children[i], Constants.DOT_GIT).isDirectory())
+				return children[i];
+		}
+		throw new IllegalStateException("no clone in " + fetchCache);
+	}
+}
@@ -0,0 +1,69 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MacrosTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		final Git remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a1");
+		commit(remote, "b/" + MANIFEST, "b1");
+		tag(remote, "v1");
+		commit(remote, "a/" + MANIFEST, "a2");
+		tag(remote, "v2");
+		final String repo = location(remote);
+		retrieve("plugin", "a", "tag=v1,repo=" + repo + ",path=a");
+		retrieve("plugin", "a.v2", "tag=v2,repo=" + repo + ",path=a");
+		retrieve("plugin", "b", "tag=v1,repo=" + repo + ",path=b");
+		setOption(FetchOptions.PROP_MACROS, "true");
+	}
+
+	@Test
+	public void testOperationsAreMacros() throws Exception {
+		final String text = generate();
+		assertTrue(text.contains("<macrodef"));
+		assertFalse(text.contains("<target name=\"GitCloneRepoToLocalRepo\""));
+	}
+
+	@Test
+	public void testElementsAreRetrieved() throws Exception {
+		generate();
+		run("fetch");
+		assertRetrieved();
+	}
+
+	@Test
+	public void testJGitBackendRetrievesElements() throws Exception {
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		generate();
+		run("fetch");
+		assertRetrieved();
+	}
+
+	private void assertRetrieved() throws Exception {
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals("a2", read(retrieved("plugin", "a.v2", MANIFEST)));
+		assertEquals("b1", read(retrieved("plugin", "b", MANIFEST)));
+	}
+}
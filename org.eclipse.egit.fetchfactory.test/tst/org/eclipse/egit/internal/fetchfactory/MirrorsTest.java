@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jgit.api.Git;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MirrorsTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private Git mirror;
+
+	private File table;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		mirror = createRemote();
+		commit(mirror, "a/" + MANIFEST, "a");
+		tag(mirror, "v1");
+		table = new File(createTempDirectory("mirrors"), "mirrors.txt");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		setOption(FetchOptions.PROP_MIRRORS, table.getAbsolutePath());
+	}
+
+	@Test
+	public void testUnreachableRepositoryIsFetchedFromMirror()
+			throws Exception {
+		final String gone = location(mirror) + ".gone";
+		write(table, gone + " = " + location(mirror) + "\n");
+		retrieve("plugin", "a", "tag=v1,repo=" + gone + ",path=a");
+		generate();
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+	}
+
+	@Test
+	public void testInvalidTableFailsWhenEntryIsParsed() throws Exception {
+		write(table, location(mirror) + " =\n");
+		retrieve("plugin", "a", "tag=v1,repo=" + location(mirror) + ",path=a");
+		try {
+			generate();
+			fail("invalid mirror table accepted");
+		} catch (final CoreException e) {
+			// expected
+		}
+	}
+}
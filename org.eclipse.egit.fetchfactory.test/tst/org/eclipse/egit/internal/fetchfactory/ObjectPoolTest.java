@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ObjectPoolTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private File pool;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		final Git a = createRemote();
+		commit(a, "a/" + MANIFEST, "a");
+		tag(a, "v1");
+		// a fork sharing the history of the first repository
+		final Git b = Git.cloneRepository().setURI(location(a)).setDirectory(
+				createTempDirectory("fork")).call();
+		commit(b, "b/" + MANIFEST, "b");
+		tag(b, "v2");
+		retrieve("plugin", "a", "tag=v1,repo=" + location(a) + ",path=a");
+		retrieve("plugin", "b", "tag=v2,repo=" + location(b) + ",path=b");
+		pool = new File(fetchCache, "objectPool.git");
+		setOption(FetchOptions.PROP_OBJECT_POOL, "true");
+	}
+
+	@Test
+	public void testClonesBorrowObjectsFromPool() throws Exception {
+		generate();
+		run("fetch");
+		assertShared();
+	}
+
+	@Test
+	public void testJGitBackendSharesPool() throws Exception {
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		generate();
+		run("fetch");
+		assertShared();
+	}
+
+	private void assertShared() throws Exception {
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals("b", read(retrieved("plugin", "b", MANIFEST)));
+		assertTrue(new File(pool, "objects").isDirectory());
+		assertFalse(new File(pool, Constants.DOT_GIT).exists());
+		final List<File> clones = clones();
+		assertEquals(2, clones.size());
+		for (final File clone : clones) {
+			final File alternates = new File(clone, Constants.DOT_GIT
+					+ "/objects/info/alternates");
+			assertTrue(clone.getName(), alternates.isFile());
+			assertEquals(new File(pool, "objects").getCanonicalPath(),
+					new File(read(alternates).trim()).getCanonicalPath());
+		}
+		final FileRepository repository = new FileRepository(pool);
+		try {
+			assertEquals(2, depositedClones(repository).size());
+		} finally {
+			repository.close();
+		}
+	}
+
+	/**
+	 * @return the names of the clones whose refs are kept in the pool
+	 */
+	private static Set<String> depositedClones(FileRepository repository) {
+		final Set<String> names = new HashSet<String>();
+		for (final String ref : repository.getAllRefs().keySet()) {
+			if (ref.startsWith("refs/pool/"))
+				names.add(ref.split("/")[2]);
+		}
+		return names;
+	}
+
+	private List<File> clones() {
+		final List<File> clones = new ArrayList<File>();
+		final File[] children = fetchCache.listFiles();
+		for (int i = 0; i < children.length; i++) {
+			if (new File(children[i], Constants.DOT_GIT).isDirectory())
+				clones.add(children[i]);
+		}
+		return clones;
+	}
+}
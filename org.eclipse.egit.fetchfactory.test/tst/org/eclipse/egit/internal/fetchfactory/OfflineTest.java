@@ -0,0 +1,107 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class OfflineTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private Git remote;
+
+	private File bundles;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a1");
+		tag(remote, "v1");
+		commit(remote, "a/" + MANIFEST, "a2");
+		tag(remote, "v2");
+		bundles = createTempDirectory("bundles");
+	}
+
+	@Test
+	public void testBundleIsWrittenPerRepository() throws Exception {
+		writeBundles();
+		final String[] names = bundles.list();
+		assertEquals(1, names.length);
+		assertTrue(names[0], names[0].endsWith(".bundle"));
+	}
+
+	@Test
+	public void testOfflineBuildRetrievesFromBundle() throws Exception {
+		writeBundles();
+		setOption(FetchOptions.PROP_BUNDLE_OUTPUT, "");
+		setOption(FetchOptions.PROP_BUNDLES, bundles.getAbsolutePath());
+		setOption(FetchOptions.PROP_OFFLINE, "true");
+		retrieveOffline("v1");
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+	}
+
+	@Test
+	public void testRevisionMissingFromBundleFails() throws Exception {
+		writeBundles();
+		setOption(FetchOptions.PROP_BUNDLE_OUTPUT, "");
+		setOption(FetchOptions.PROP_BUNDLES, bundles.getAbsolutePath());
+		setOption(FetchOptions.PROP_OFFLINE, "true");
+		try {
+			retrieveOffline("v2");
+			fail("revision retrieved offline although it is not in the bundle");
+		} catch (final CoreException e) {
+			// expected
+		}
+	}
+
+	/**
+	 * Retrieves the element from v1 and writes the bundles of that build.
+	 */
+	private void writeBundles() throws Exception {
+		setOption(FetchOptions.PROP_BUNDLE_OUTPUT, bundles.getAbsolutePath());
+		retrieve("plugin", "a", entry("v1"));
+		generate();
+		run("fetch");
+	}
+
+	/**
+	 * Retrieves the element with an empty fetch cache after the remote
+	 * repository is gone.
+	 */
+	private void retrieveOffline(String tag) throws Exception {
+		FileUtils.delete(remote.getRepository().getWorkTree(),
+				FileUtils.RECURSIVE);
+		FileUtils.delete(buildDirectory, FileUtils.RECURSIVE);
+		buildDirectory.mkdirs();
+		setProperty("fetchCacheLocation", createTempDirectory("offline")
+				.getAbsolutePath());
+		clear();
+		retrieve("plugin", "a", entry(tag));
+		generate();
+		run("fetch");
+	}
+
+	private String entry(String tag) {
+		return "tag=" + tag + ",repo=" + location(remote) + ",path=a";
+	}
+}
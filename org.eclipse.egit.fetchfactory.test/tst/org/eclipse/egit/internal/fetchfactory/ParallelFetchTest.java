@@ -0,0 +1,64 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ParallelFetchTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		final Git a = createRemote();
+		commit(a, "a/" + MANIFEST, "a");
+		tag(a, "v1");
+		final Git b = createRemote();
+		commit(b, "b/" + MANIFEST, "b");
+		tag(b, "v1");
+		retrieve("plugin", "a", "tag=v1,repo=" + location(a) + ",path=a");
+		retrieve("plugin", "b", "tag=v1,repo=" + location(b) + ",path=b");
+		setOption(FetchOptions.PROP_SCHEDULE, "false");
+	}
+
+	@Test
+	public void testRepositoriesAreUpdatedSequentiallyByDefault()
+			throws Exception {
+		assertFalse(generate().contains("<parallel"));
+	}
+
+	@Test
+	public void testRepositoriesAreUpdatedConcurrently() throws Exception {
+		setOption(FetchOptions.PROP_THREADS, "2");
+		final String text = generate();
+		assertEquals(1, count(text, "<parallel[^>]*threadCount=\"2\""));
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals("b", read(retrieved("plugin", "b", MANIFEST)));
+	}
+
+	@Test
+	public void testNativeUpdateFetchesAllRemotes() throws Exception {
+		setOption(FetchOptions.PROP_THREADS, "2");
+		assertTrue(generate().contains("git fetch --all"));
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals("b", read(retrieved("plugin", "b", MANIFEST)));
+	}
+}
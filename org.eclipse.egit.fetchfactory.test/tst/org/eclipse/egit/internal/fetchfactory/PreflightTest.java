@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PreflightTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private static final String FETCH_HIT = "\"step\": \"fetch\"[^}]*\"cache\": \"hit\"";
+
+	private Git remote;
+
+	private File report;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a1");
+		report = new File(createTempDirectory("report"), "timing.json");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		setOption(FetchOptions.PROP_TIMING_REPORT, report.getAbsolutePath());
+	}
+
+	@Test
+	public void testPreflightIsOptIn() throws Exception {
+		retrieve();
+		assertFalse(generate().contains("<egit.checkremote"));
+	}
+
+	@Test
+	public void testUnchangedBranchIsNotFetched() throws Exception {
+		setOption(FetchOptions.PROP_PREFLIGHT, "true");
+		retrieve();
+		retrieve();
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals(1, count(read(report), FETCH_HIT));
+	}
+
+	@Test
+	public void testChangedBranchIsFetched() throws Exception {
+		setOption(FetchOptions.PROP_PREFLIGHT, "true");
+		retrieve();
+		commit(remote, "a/" + MANIFEST, "a2");
+		retrieve();
+		assertEquals("a2", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals(0, count(read(report), FETCH_HIT));
+	}
+
+	/**
+	 * Retrieves the element from the branch in a new build.
+	 */
+	private void retrieve() throws Exception {
+		FileUtils.delete(buildDirectory, FileUtils.RECURSIVE);
+		buildDirectory.mkdirs();
+		clear();
+		retrieve("plugin", "a", "tag=master,repo=" + location(remote)
+				+ ",path=a");
+		generate();
+		run("fetch");
+	}
+}
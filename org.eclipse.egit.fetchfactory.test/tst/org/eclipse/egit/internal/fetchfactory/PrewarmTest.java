@@ -0,0 +1,113 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Collections;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.junit.Before;
+import org.junit.Test;
+
+public class PrewarmTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private Git remote;
+
+	private File maps;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a");
+		tag(remote, "v1");
+		maps = createTempDirectory("maps");
+		write(new File(maps, "sub/a.map"), "plugin@a=GIT,tag=v1,repo="
+				+ location(remote) + ",path=a\n"
+				+ "plugin@b=CVS,v1,:pserver:anonymous@example.org:/cvs,\n");
+	}
+
+	@Test
+	public void testCacheIsFilledFromMapFiles() throws Exception {
+		assertEquals(IApplication.EXIT_OK, prewarm("-maps", maps
+				.getAbsolutePath(), "-fetchCacheLocation", fetchCache
+				.getAbsolutePath(), "-threads", "2"));
+		final File[] children = fetchCache.listFiles();
+		File gitDir = null;
+		for (int i = 0; i < children.length; i++) {
+			if (new File(children[i], Constants.DOT_GIT).isDirectory())
+				gitDir = new File(children[i], Constants.DOT_GIT);
+		}
+		assertNotNull(gitDir);
+		final FileRepository repository = new FileRepository(gitDir);
+		try {
+			assertNotNull(repository.resolve("refs/tags/v1"));
+		} finally {
+			repository.close();
+		}
+	}
+
+	@Test
+	public void testBuildUsesPrewarmedClone() throws Exception {
+		prewarm("-maps", maps.getAbsolutePath(), "-fetchCacheLocation",
+				fetchCache.getAbsolutePath());
+		final File report = new File(buildDirectory, "timing.json");
+		setOption(FetchOptions.PROP_TIMING_REPORT, report.getAbsolutePath());
+		retrieve("plugin", "a", "tag=v1,repo=" + location(remote) + ",path=a");
+		generate();
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals(0, count(read(report),
+				"\"step\": \"clone\"[^}]*\"cache\": \"miss\""));
+	}
+
+	@Test
+	public void testMissingMapsFail() throws Exception {
+		try {
+			prewarm("-fetchCacheLocation", fetchCache.getAbsolutePath());
+			fail("started without map files");
+		} catch (final CoreException e) {
+			// expected
+		}
+	}
+
+	private static Object prewarm(final String... args) throws Exception {
+		final IApplicationContext context = (IApplicationContext) Proxy
+				.newProxyInstance(PrewarmTest.class.getClassLoader(),
+						new Class[] { IApplicationContext.class },
+						new InvocationHandler() {
+							public Object invoke(Object proxy, Method method,
+									Object[] methodArgs) {
+								if (method.getName().equals("getArguments"))
+									return Collections.singletonMap(
+											IApplicationContext.APPLICATION_ARGS,
+											args);
+								return null;
+							}
+						});
+		return new PrewarmApplication().start(context);
+	}
+}
@@ -0,0 +1,176 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Properties;
+import java.util.TimeZone;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.PersonIdent;
+import org.eclipse.jgit.lib.Repository;
+import org.junit.Before;
+import org.junit.Test;
+
+public class QualifierTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private Git remote;
+
+	private File versions;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		versions = new File(buildDirectory, "pluginVersions.properties");
+		remote = createRemote();
+
+		// a - c1 ----- c3 (side)
+		// b - c1 - c2
+		// c - c1 ------------- c4 - merge of side
+		final Repository db = remote.getRepository();
+		write(db, "a/" + MANIFEST, "a");
+		write(db, "b/" + MANIFEST, "b");
+		write(db, "c/" + MANIFEST, "c");
+		commitAt("2010-01-01 10:00");
+		write(db, "b/" + MANIFEST, "b2");
+		commitAt("2010-02-02 11:30");
+		tag(remote, "v0");
+		remote.branchCreate().setName("side").call();
+		write(db, "c/" + MANIFEST, "c2");
+		commitAt("2010-04-04 08:15");
+		remote.checkout().setName("side").call();
+		write(db, "a/" + MANIFEST, "a2");
+		commitAt("2010-03-03 12:00");
+		remote.checkout().setName("master").call();
+		remote.merge().include(db.getRef("side")).call();
+		tag(remote, "v1");
+
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		setOption(FetchOptions.PROP_QUALIFIERS, "true");
+	}
+
+	@Test
+	public void testQualifiersOfTag() throws Exception {
+		retrieveAll("v1");
+		generate();
+		run("fetch");
+		final Properties properties = load();
+		// the merge is attributed to the commit on the merged branch
+		assertEquals("v20100303-1200", properties.getProperty("a"));
+		assertEquals("v20100202-1130", properties.getProperty("b"));
+		assertEquals("v20100404-0815", properties.getProperty("c"));
+	}
+
+	@Test
+	public void testQualifiersOfOlderTag() throws Exception {
+		retrieveAll("v0");
+		generate();
+		run("fetch");
+		final Properties properties = load();
+		assertEquals("v20100101-1000", properties.getProperty("a"));
+		assertEquals("v20100202-1130", properties.getProperty("b"));
+		assertEquals("v20100101-1000", properties.getProperty("c"));
+	}
+
+	@Test
+	public void testSingleElementOfTag() throws Exception {
+		retrieveAll("v1");
+		generate();
+		run("fetch.b");
+		final Properties properties = load();
+		assertEquals("v20100202-1130", properties.getProperty("b"));
+		assertNull(properties.getProperty("a"));
+	}
+
+	@Test
+	public void testExistingEntriesAreReplaced() throws Exception {
+		final Properties existing = new Properties();
+		existing.setProperty("a,1.0.0", "v20000101");
+		existing.setProperty("b", "v20000101");
+		existing.setProperty("other", "v20000101");
+		final OutputStream out = new FileOutputStream(versions);
+		try {
+			existing.store(out, null);
+		} finally {
+			out.close();
+		}
+
+		retrieveAll("v1");
+		generate();
+		run("fetch");
+		final Properties properties = load();
+		assertEquals("v20100303-1200", properties.getProperty("a,1.0.0"));
+		assertNull(properties.getProperty("a"));
+		assertEquals("v20100202-1130", properties.getProperty("b"));
+		assertEquals("v20000101", properties.getProperty("other"));
+	}
+
+	@Test
+	public void testGroupIsLookedUpTogether() throws Exception {
+		retrieveAll("v1");
+		final Matcher matcher = Pattern.compile(
+				"<egit.qualifiers [^>]*elements=\"a=a\"[^>]*>").matcher(
+				generate());
+		assertTrue(matcher.find());
+		assertTrue(matcher.group(), matcher.group().contains("paths=\"b,c\""));
+	}
+
+	private void retrieveAll(String tag) {
+		final String repo = location(remote);
+		retrieve("plugin", "a", "tag=" + tag + ",repo=" + repo + ",path=a");
+		retrieve("plugin", "b", "tag=" + tag + ",repo=" + repo + ",path=b");
+		retrieve("plugin", "c", "tag=" + tag + ",repo=" + repo + ",path=c");
+	}
+
+	private Properties load() throws IOException {
+		final Properties properties = new Properties();
+		final InputStream in = new FileInputStream(versions);
+		try {
+			properties.load(in);
+		} finally {
+			in.close();
+		}
+		return properties;
+	}
+
+	private static void write(Repository db, String path, String content)
+			throws IOException {
+		final File file = new File(db.getWorkTree(), path);
+		file.getParentFile().mkdirs();
+		write(file, content);
+	}
+
+	private void commitAt(String time) throws Exception {
+		final SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+		format.setTimeZone(TimeZone.getTimeZone("UTC"));
+		final PersonIdent ident = new PersonIdent("A U Thor",
+				"author@example.com", format.parse(time), TimeZone
+						.getTimeZone("UTC"));
+		remote.add().addFilepattern(".").call();
+		remote.commit().setMessage(time).setAuthor(ident).setCommitter(ident)
+				.call();
+	}
+}
@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RepairTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private static final String MISSING = "0123456789012345678901234567890123456789";
+
+	private Git remote;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a1");
+		tag(remote, "v1");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+	}
+
+	@Test
+	public void testRepairIsOptIn() throws Exception {
+		retrieve("plugin", "a", entry("v1"));
+		assertFalse(generate().contains("<egit.repair"));
+		clear();
+		retrieve("plugin", "a", entry("v1"));
+		setOption(FetchOptions.PROP_REPAIR, "true");
+		assertTrue(generate().contains("<egit.repair"));
+	}
+
+	@Test
+	public void testInterruptedCloneIsRepaired() throws Exception {
+		final File gitDir = new File(cloneOf("v1"), Constants.DOT_GIT);
+		final File packDir = new File(gitDir, "objects/pack");
+		final String[] packs = packDir.list();
+		Arrays.sort(packs);
+
+		// what a killed clone, fetch and checkout leave behind
+		write(new File(gitDir, "index.lock"), "");
+		write(new File(gitDir, "refs/heads/master.lock"), "");
+		write(new File(packDir, "tmp_incoming_123.pack"), "PACK");
+		write(new File(packDir, "pack-" + MISSING + ".pack"), "PACK");
+		truncate(new File(gitDir, "index"), 10);
+		write(new File(gitDir, "refs/remotes/origin/broken"), MISSING + "\n");
+		write(new File(gitDir, Constants.HEAD), "garb");
+		final FileRepository repository = new FileRepository(gitDir);
+		try {
+			repository.getConfig().unsetSection("remote", "origin");
+			repository.getConfig().save();
+		} finally {
+			repository.close();
+		}
+
+		commit(remote, "a/" + MANIFEST, "a2");
+		tag(remote, "v2");
+		retrieveAgain("v2");
+
+		assertEquals("a2", read(retrieved("plugin", "a", MANIFEST)));
+		assertFalse(new File(gitDir, "index.lock").exists());
+		assertFalse(new File(gitDir, "refs/heads/master.lock").exists());
+		assertFalse(new File(gitDir, "refs/remotes/origin/broken").exists());
+		for (final String pack : packs) {
+			assertTrue(pack, new File(packDir, pack).isFile());
+		}
+		final FileRepository repaired = new FileRepository(gitDir);
+		try {
+			assertEquals(location(remote), repaired.getConfig().getString(
+					"remote", "origin", "url"));
+			assertNotNull(repaired.resolve("refs/tags/v2"));
+		} finally {
+			repaired.close();
+		}
+	}
+
+	@Test
+	public void testCloneWithoutMetadataIsStartedAgain() throws Exception {
+		final File clone = cloneOf("v1");
+		FileUtils.delete(new File(clone, Constants.DOT_GIT),
+				FileUtils.RECURSIVE);
+		retrieveAgain("v1");
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+		assertTrue(new File(clone, Constants.DOT_GIT).isDirectory());
+	}
+
+	@Test
+	public void testCorruptIndexIsRemoved() throws Exception {
+		final File index = new File(new File(cloneOf("v1"), Constants.DOT_GIT),
+				"index");
+		// no checkout rewrites the index
+		setOption(FetchOptions.PROP_EXPORT, FetchOptions.EXPORT_TREE);
+		write(index, "DIRC and some garbage which is not an index");
+		commit(remote, "a/" + MANIFEST, "a2");
+		tag(remote, "v2");
+		retrieveAgain("v2");
+		assertFalse(index.exists());
+	}
+
+	@Test
+	public void testIndexWithoutChecksumIsKept() throws Exception {
+		final File index = new File(new File(cloneOf("v1"), Constants.DOT_GIT),
+				"index");
+		// no checkout rewrites the index
+		setOption(FetchOptions.PROP_EXPORT, FetchOptions.EXPORT_TREE);
+		// what Git writes with index.skipHash
+		final byte[] content = readBytes(index);
+		Arrays.fill(content, content.length - 20, content.length, (byte) 0);
+		writeBytes(index, content);
+		commit(remote, "a/" + MANIFEST, "a2");
+		tag(remote, "v2");
+		retrieveAgain("v2");
+		assertArrayEquals(content, readBytes(index));
+	}
+
+	private String entry(String tag) {
+		return "tag=" + tag + ",repo=" + location(remote) + ",path=a";
+	}
+
+	/**
+	 * Retrieves the element from a tag and returns the local clone.
+	 */
+	private File cloneOf(String tag) throws Exception {
+		retrieve("plugin", "a", entry(tag));
+		generate();
+		run("fetch");
+		final File[] children = fetchCache.listFiles();
+		for (int i = 0; i < children.length; i++) {
+			if (new File(children[i], Constants.DOT_GIT).isDirectory())
+				return children[i];
+		}
+		throw new IllegalStateException("no clone in " + fetchCache);
+	}
+
+	/**
+	 * Retrieves the element again from a tag in a new build which repairs
+	 * the clone.
+	 */
+	private void retrieveAgain(String tag) throws Exception {
+		FileUtils.delete(buildDirectory, FileUtils.RECURSIVE);
+		buildDirectory.mkdirs();
+		setOption(FetchOptions.PROP_REPAIR, "true");
+		clear();
+		retrieve("plugin", "a", entry(tag));
+		generate();
+		run("fetch");
+	}
+
+	private static void truncate(File file, int length) throws IOException {
+		final byte[] content = readBytes(file);
+		final byte[] truncated = new byte[length];
+		System.arraycopy(content, 0, truncated, 0, length);
+		writeBytes(file, truncated);
+	}
+
+	private static byte[] readBytes(File file) throws IOException {
+		final byte[] content = new byte[(int) file.length()];
+		final InputStream in = new FileInputStream(file);
+		try {
+			int offset = 0;
+			int read;
+			while (offset < content.length
+					&& (read = in.read(content, offset, content.length
+							- offset)) > 0)
+				offset += read;
+		} finally {
+			in.close();
+		}
+		return content;
+	}
+
+	private static void writeBytes(File file, byte[] content)
+			throws IOException {
+		final OutputStream out = new FileOutputStream(file);
+		try {
+			out.write(content);
+		} finally {
+			out.close();
+		}
+	}
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.jgit.api.Git;
+import org.junit.Before;
+import org.junit.Test;
+
+public class RepositoriesTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private Git remote;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a1");
+		commit(remote, "b/" + MANIFEST, "b1");
+		tag(remote, "v1");
+		commit(remote, "a/" + MANIFEST, "a2");
+		tag(remote, "v2");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+	}
+
+	@Test
+	public void testRepositoriesAreKeptBeforeTheCalls() throws Exception {
+		retrieve("plugin", "a", entry("v1", "a"));
+		final Matcher matcher = Pattern.compile(
+				"<target name=\"fetch.a\"(.*?)</target>", Pattern.DOTALL)
+				.matcher(generate());
+		assertTrue(matcher.find());
+		final String calls = matcher.group(1);
+		assertTrue(calls.contains("<egit.repositories"));
+		assertTrue(calls.indexOf("<egit.repositories") < calls
+				.indexOf("<antcall"));
+	}
+
+	@Test
+	public void testCallsShareTheRepositories() throws Exception {
+		retrieve("plugin", "a", entry("v1", "a"));
+		retrieve("plugin", "b", entry("v1", "b"));
+		retrieve("plugin", "a.v2", entry("v2", "a"));
+		generate();
+		run("fetch.a", "fetch.b", "fetch.a.v2");
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals("b1", read(retrieved("plugin", "b", MANIFEST)));
+		assertEquals("a2", read(retrieved("plugin", "a.v2", MANIFEST)));
+	}
+
+	@Test
+	public void testNextBuildOpensTheRepositoriesAgain() throws Exception {
+		retrieve("plugin", "a", entry("v1", "a"));
+		retrieve("plugin", "a.v2", entry("v2", "a"));
+		generate();
+		run("fetch.a");
+		commit(remote, "a/" + MANIFEST, "a3");
+		tag(remote, "v3");
+		clear();
+		retrieve("plugin", "a.v2", entry("v2", "a"));
+		retrieve("plugin", "a.v3", entry("v3", "a"));
+		generate();
+		run("fetch");
+		assertEquals("a2", read(retrieved("plugin", "a.v2", MANIFEST)));
+		assertEquals("a3", read(retrieved("plugin", "a.v3", MANIFEST)));
+	}
+
+	private String entry(String tag, String path) {
+		return "tag=" + tag + ",repo=" + location(remote) + ",path=" + path;
+	}
+}
@@ -0,0 +1,87 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+
+public class RepositoryIdentityTest {
+
+	private static final String EGIT = "git.eclipse.org/gitroot/egit/egit";
+
+	@Test
+	public void testSchemeAndHostAreCaseInsensitive() {
+		assertEquals(EGIT, RepositoryIdentity
+				.normalize("GIT://Git.Eclipse.ORG/gitroot/egit/egit.git"));
+	}
+
+	@Test
+	public void testDefaultPortIsRemoved() {
+		assertEquals(EGIT, RepositoryIdentity
+				.normalize("git://git.eclipse.org:9418/gitroot/egit/egit.git"));
+		assertEquals(EGIT, RepositoryIdentity
+				.normalize("ssh://git.eclipse.org:22/gitroot/egit/egit.git"));
+		assertEquals("git.eclipse.org/r/egit/egit", RepositoryIdentity
+				.normalize("https://git.eclipse.org:443/r/egit/egit.git"));
+	}
+
+	@Test
+	public void testOtherPortIsKept() {
+		assertEquals("git.eclipse.org:8080/r/egit/egit", RepositoryIdentity
+				.normalize("http://git.eclipse.org:8080/r/egit/egit"));
+	}
+
+	@Test
+	public void testUserIsRemoved() {
+		assertEquals(EGIT, RepositoryIdentity
+				.normalize("ssh://committer@git.eclipse.org/gitroot/egit/egit"));
+	}
+
+	@Test
+	public void testScpLikeSyntax() {
+		assertEquals(EGIT, RepositoryIdentity
+				.normalize("committer@git.eclipse.org:/gitroot/egit/egit.git"));
+		assertEquals(EGIT, RepositoryIdentity
+				.normalize("git.eclipse.org:gitroot/egit/egit"));
+	}
+
+	@Test
+	public void testSuffixAndSlashesAreRemoved() {
+		assertEquals(EGIT, RepositoryIdentity
+				.normalize(" git://git.eclipse.org//gitroot/egit/egit.git/ "));
+		assertEquals(EGIT, RepositoryIdentity
+				.normalize("git://git.eclipse.org/gitroot/egit/egit/"));
+	}
+
+	@Test
+	public void testLocalPaths() {
+		assertEquals("srv/git/egit", RepositoryIdentity
+				.normalize("file:///srv/git/egit.git"));
+		assertEquals("srv/git/egit", RepositoryIdentity
+				.normalize("/srv/git/egit/"));
+		assertEquals("C:/git/egit", RepositoryIdentity
+				.normalize("C:\\git\\egit.git"));
+	}
+
+	@Test
+	public void testDifferentRepositoriesDiffer() {
+		assertFalse(RepositoryIdentity.normalize(
+				"git://git.eclipse.org/gitroot/egit/egit.git").equals(
+				RepositoryIdentity
+						.normalize("git://git.eclipse.org/gitroot/egit/egit-pde.git")));
+		assertFalse(RepositoryIdentity.normalize(
+				"git://git.eclipse.org/gitroot/egit/egit.git").equals(
+				RepositoryIdentity
+						.normalize("git://mirror.example.org/gitroot/egit/egit.git")));
+	}
+}
@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ScheduleTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private File history;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		history = new File(fetchCache, "fetchHistory.properties");
+		final Git a = createRemote();
+		commit(a, "a/" + MANIFEST, "a");
+		tag(a, "v1");
+		final Git b = createRemote();
+		commit(b, "b/" + MANIFEST, "b");
+		tag(b, "v1");
+		retrieve("plugin", "a", "tag=v1,repo=" + location(a) + ",path=a");
+		retrieve("plugin", "b", "tag=v1,repo=" + location(b) + ",path=b");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		setOption(FetchOptions.PROP_THREADS, "2");
+	}
+
+	@Test
+	public void testUpdatesAreRecorded() throws Exception {
+		assertTrue(generate().contains("<egit.schedule"));
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals("b", read(retrieved("plugin", "b", MANIFEST)));
+		final Properties durations = new Properties();
+		final InputStream in = new FileInputStream(history);
+		try {
+			durations.load(in);
+		} finally {
+			in.close();
+		}
+		// one key per clone, exports are not recorded
+		assertEquals(2, durations.size());
+		final File[] children = fetchCache.listFiles();
+		for (int i = 0; i < children.length; i++) {
+			if (new File(children[i], Constants.DOT_GIT).isDirectory())
+				assertNotNull(durations.getProperty(children[i].getName()));
+		}
+	}
+
+	@Test
+	public void testNoHistoryIfNotScheduled() throws Exception {
+		setOption(FetchOptions.PROP_SCHEDULE, "false");
+		assertFalse(generate().contains("<egit.schedule"));
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertFalse(history.exists());
+	}
+}
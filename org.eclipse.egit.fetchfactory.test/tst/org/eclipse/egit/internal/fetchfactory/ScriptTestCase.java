@@ -0,0 +1,231 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.eclipse.ant.core.AntRunner;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.junit.LocalDiskRepositoryTestCase;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.pde.build.IFetchFactory;
+import org.eclipse.pde.internal.build.AbstractScriptGenerator;
+import org.eclipse.pde.internal.build.ant.AntScript;
+import org.junit.After;
+import org.junit.Before;
+
+/**
+ * Base class of tests which generate a fetch script for some map file entries
+ * and run it.
+ * <p>
+ * Each retrieve call is generated into its own target
+ * <code>fetch.&lt;id&gt;</code>, so that a test can retrieve some of the
+ * elements only, the way PDE Build skips the calls of elements it does not
+ * need. The target <code>fetch</code> runs all of them.
+ * </p>
+ */
+@SuppressWarnings("restriction")
+public abstract class ScriptTestCase extends LocalDiskRepositoryTestCase {
+
+	private final Properties options = new Properties();
+
+	private final List<String[]> entries = new ArrayList<String[]>();
+
+	private final Map<String, String> properties = new HashMap<String, String>();
+
+	/** the directory elements are retrieved to */
+	protected File buildDirectory;
+
+	/** the fetch cache holding the local clones */
+	protected File fetchCache;
+
+	/** the generated script */
+	protected File script;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		buildDirectory = createTempDirectory("build");
+		fetchCache = createTempDirectory("scmCache");
+		script = new File(buildDirectory, "fetch.xml");
+		setProperty("buildDirectory", buildDirectory.getAbsolutePath());
+		setProperty("fetchCacheLocation", fetchCache.getAbsolutePath());
+	}
+
+	@Override
+	@After
+	public void tearDown() throws Exception {
+		AbstractScriptGenerator.setStaticAntProperties(new Properties());
+		super.tearDown();
+	}
+
+	/**
+	 * Sets a build property read when the script is generated, e.g. one of
+	 * the options of {@link FetchOptions}.
+	 */
+	protected void setOption(String key, String value) {
+		options.setProperty(key, value);
+	}
+
+	/**
+	 * Sets a property passed to the script when it runs.
+	 */
+	protected void setProperty(String key, String value) {
+		properties.put(key, value);
+	}
+
+	/**
+	 * Adds the retrieve call of an element, e.g.
+	 * <code>retrieve("plugin", "a", "tag=v1,repo=...,path=a")</code>.
+	 */
+	protected void retrieve(String type, String id, String entry) {
+		entries.add(new String[] { type, id, entry, null });
+	}
+
+	/**
+	 * Adds a call retrieving single files of an element to
+	 * <code>files/&lt;id&gt;</code>.
+	 */
+	protected void retrieveFiles(String id, String entry, String files) {
+		entries.add(new String[] { IFetchFactory.ELEMENT_TYPE_FEATURE, id,
+				entry, files });
+	}
+
+	/**
+	 * Removes the entries added so far, e.g. to generate the script of a later
+	 * build.
+	 */
+	protected void clear() {
+		entries.clear();
+	}
+
+	/**
+	 * Generates the script from the entries added so far.
+	 *
+	 * @return the content of the script
+	 */
+	protected String generate() throws Exception {
+		AbstractScriptGenerator.setStaticAntProperties(options);
+		final GITFetchTaskFactory factory = new GITFetchTaskFactory();
+		final AntScript out = new AntScript(new FileOutputStream(script));
+		try {
+			out.printProjectDeclaration("fetch", "fetch", ".");
+			final StringBuffer all = new StringBuffer();
+			for (final String[] entry : entries) {
+				final String target = "fetch." + entry[1];
+				all.append(all.length() > 0 ? "," : "").append(target);
+				out.printTargetDeclaration(target, null, null, null, null);
+				final Map<String, String> infos = new HashMap<String, String>();
+				infos.put(IFetchFactory.KEY_ELEMENT_TYPE, entry[0]);
+				infos.put(IFetchFactory.KEY_ELEMENT_NAME, entry[1]);
+				factory.parseMapFileEntry(entry[2], null, infos);
+				if (entry[3] != null)
+					factory.generateRetrieveFilesCall(infos, new Path(
+							buildDirectory.getAbsolutePath()).append("files")
+							.append(entry[1]), entry[3].split(","), out);
+				else
+					factory.generateRetrieveElementCall(infos, new Path(
+							buildDirectory.getAbsolutePath()).append(
+							entry[0] + "s").append(entry[1]), out);
+				out.printTargetEnd();
+			}
+			out.printTargetDeclaration("fetch", all.toString(), null, null,
+					null);
+			out.printTargetEnd();
+			factory.addTargets(out);
+			out.printProjectEnd();
+		} finally {
+			out.close();
+		}
+		return read(script);
+	}
+
+	/**
+	 * Runs targets of the generated script.
+	 *
+	 * @throws CoreException
+	 *             if the build fails
+	 */
+	protected void run(String... targets) throws CoreException {
+		final AntRunner runner = new AntRunner();
+		runner.setBuildFileLocation(script.getAbsolutePath());
+		runner.setExecutionTargets(targets);
+		runner.addUserProperties(properties);
+		runner.run();
+	}
+
+	/**
+	 * @return the retrieved file of an element
+	 */
+	protected File retrieved(String type, String id, String path) {
+		return new File(buildDirectory, type + "s/" + id + "/" + path);
+	}
+
+	/**
+	 * Creates a repository to retrieve elements from.
+	 */
+	protected Git createRemote() throws IOException {
+		return new Git(createWorkRepository());
+	}
+
+	/**
+	 * @return the location of a repository for map file entries
+	 */
+	protected static String location(Git git) {
+		return "file://"
+				+ git.getRepository().getWorkTree().getAbsolutePath()
+						.replace(File.separatorChar, '/');
+	}
+
+	/**
+	 * Writes a file into the work tree of a repository and commits it.
+	 */
+	protected static RevCommit commit(Git git, String path, String content)
+			throws Exception {
+		final Repository repository = git.getRepository();
+		final File file = new File(repository.getWorkTree(), path);
+		file.getParentFile().mkdirs();
+		write(file, content);
+		git.add().addFilepattern(path).call();
+		return git.commit().setMessage("update " + path).call();
+	}
+
+	/**
+	 * Tags the current commit of a repository.
+	 */
+	protected static void tag(Git git, String name) throws Exception {
+		git.tag().setName(name).setMessage(name).call();
+	}
+
+	/**
+	 * @return the number of matches of a regular expression in a text
+	 */
+	protected static int count(String text, String regex) {
+		final Matcher matcher = Pattern.compile(regex).matcher(text);
+		int count = 0;
+		while (matcher.find())
+			count++;
+		return count;
+	}
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShallowFetchTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private Git remote;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a1");
+		tag(remote, "v1");
+		commit(remote, "a/" + MANIFEST, "a2");
+		tag(remote, "v2");
+		commit(remote, "a/" + MANIFEST, "a3");
+		tag(remote, "v3");
+		setOption(FetchOptions.PROP_SHALLOW, "true");
+	}
+
+	@Test
+	public void testOnlyReferencedTagIsFetched() throws Exception {
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		retrieve("v2");
+		final File gitDir = new File(localClone(), Constants.DOT_GIT);
+		assertEquals("a2", read(retrieved("plugin", "a", MANIFEST)));
+		final FileRepository repository = new FileRepository(gitDir);
+		try {
+			assertNotNull(repository.resolve("refs/tags/v2"));
+			assertNull(repository.resolve("refs/tags/v1"));
+			assertNull(repository.resolve("refs/tags/v3"));
+		} finally {
+			repository.close();
+		}
+	}
+
+	@Test
+	public void testNativeBackendFetchesOneCommit() throws Exception {
+		retrieve("v2");
+		final File gitDir = new File(localClone(), Constants.DOT_GIT);
+		assertEquals("a2", read(retrieved("plugin", "a", MANIFEST)));
+		assertTrue(new File(gitDir, "shallow").isFile());
+		final FileRepository repository = new FileRepository(gitDir);
+		try {
+			assertNotNull(repository.resolve("refs/tags/v2"));
+			assertNull(repository.resolve("refs/tags/v3"));
+		} finally {
+			repository.close();
+		}
+	}
+
+	@Test
+	public void testOtherTagIsFetchedLater() throws Exception {
+		retrieve("v1");
+		FileUtils.delete(buildDirectory, FileUtils.RECURSIVE);
+		buildDirectory.mkdirs();
+		retrieve("v3");
+		assertEquals("a3", read(retrieved("plugin", "a", MANIFEST)));
+	}
+
+	/**
+	 * Retrieves the element from a tag in a new build.
+	 */
+	private void retrieve(String tag) throws Exception {
+		clear();
+		retrieve("plugin", "a", "tag=" + tag + ",repo=" + location(remote)
+				+ ",path=a");
+		generate();
+		run("fetch");
+	}
+
+	private File localClone() {
+		final File[] children = fetchCache.listFiles();
+		for (int i = 0; i < children.length; i++) {
+			if (new File(children[i], Constants.DOT_GIT).isDirectory())
+				return children[i];
+		}
+		throw new IllegalStateException("no clone in " + fetchCache);
+	}
+}
@@ -0,0 +1,70 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SharedCacheTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		final Git remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a");
+		tag(remote, "v1");
+		retrieve("plugin", "a", "tag=v1,repo=" + location(remote) + ",path=a");
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+	}
+
+	@Test
+	public void testClonesAreNotLockedByDefault() throws Exception {
+		assertFalse(generate().contains("<egit.repolock"));
+	}
+
+	@Test
+	public void testExportsShareTheLock() throws Exception {
+		setOption(FetchOptions.PROP_SHARED_CACHE, "true");
+		setOption(FetchOptions.PROP_EXPORT, FetchOptions.EXPORT_TREE);
+		final String text = generate();
+		assertEquals(2, count(text, "<egit.repolock "));
+		assertEquals(1, count(text, "<egit.repolock [^>]*shared=\"true\""));
+	}
+
+	@Test
+	public void testSharedCacheLocksClones() throws Exception {
+		setOption(FetchOptions.PROP_SHARED_CACHE, "true");
+		generate();
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		final File[] children = fetchCache.listFiles();
+		int clones = 0;
+		for (int i = 0; i < children.length; i++) {
+			if (!new File(children[i], Constants.DOT_GIT).isDirectory())
+				continue;
+			clones++;
+			assertTrue(new File(fetchCache, children[i].getName() + ".lock")
+					.isFile());
+		}
+		assertEquals(1, clones);
+	}
+}
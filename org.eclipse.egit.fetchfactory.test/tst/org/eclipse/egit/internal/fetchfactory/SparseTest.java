@@ -0,0 +1,76 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.junit.Before;
+import org.junit.Test;
+
+public class SparseTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		final Git remote = createRemote();
+		final StoredConfig config = remote.getRepository().getConfig();
+		config.setBoolean("uploadpack", null, "allowFilter", true);
+		config.save();
+		commit(remote, "a/" + MANIFEST, "a");
+		commit(remote, "b/" + MANIFEST, "b");
+		tag(remote, "v1");
+		retrieve("plugin", "a", "tag=v1,repo=" + location(remote) + ",path=a");
+		setOption(FetchOptions.PROP_SPARSE, "true");
+	}
+
+	@Test
+	public void testOnlyReferencedPathsAreCheckedOut() throws Exception {
+		generate();
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		final File clone = localClone();
+		assertTrue(new File(clone, "a/" + MANIFEST).isFile());
+		assertFalse(new File(clone, "b").exists());
+		// a partial clone, which JGit cannot open
+		assertTrue(read(new File(clone, Constants.DOT_GIT + "/config"))
+				.contains("partialclonefilter = blob:none"));
+	}
+
+	@Test
+	public void testJGitBackendExportsWithoutCheckout() throws Exception {
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		generate();
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		final File clone = localClone();
+		assertFalse(new File(clone, "a").exists());
+		assertFalse(new File(clone, "b").exists());
+	}
+
+	private File localClone() {
+		final File[] children = fetchCache.listFiles();
+		for (int i = 0; i < children.length; i++) {
+			if (new File(children[i], Constants.DOT_GIT).isDirectory())
+				return children[i];
+		}
+		throw new IllegalStateException("no clone in " + fetchCache);
+	}
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jgit.api.Git;
+import org.junit.Before;
+import org.junit.Test;
+
+public class StampTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private Git remote;
+
+	private File stamp;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a1");
+		commit(remote, "a/old.txt", "old");
+		tag(remote, "v1");
+		remote.rm().addFilepattern("a/old.txt").call();
+		commit(remote, "a/" + MANIFEST, "a2");
+		tag(remote, "v2");
+		stamp = new File(buildDirectory, "plugins/a.gitstamp");
+		setOption(FetchOptions.PROP_STAMPS, "true");
+	}
+
+	@Test
+	public void testStampIsWrittenNextToElement() throws Exception {
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		retrieve("v1", "a");
+		assertEquals("a1", read(retrieved("plugin", "a", MANIFEST)));
+		assertTrue(stamp.isFile());
+	}
+
+	@Test
+	public void testUpToDateElementIsSkipped() throws Exception {
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		retrieve("v1", "a");
+		write(retrieved("plugin", "a", "local.txt"), "local");
+		retrieve("v1", "a");
+		assertTrue(retrieved("plugin", "a", "local.txt").isFile());
+	}
+
+	@Test
+	public void testStaleElementIsReplaced() throws Exception {
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		retrieve("v1", "a");
+		retrieve("v2", "a");
+		assertEquals("a2", read(retrieved("plugin", "a", MANIFEST)));
+		assertFalse(retrieved("plugin", "a", "old.txt").exists());
+	}
+
+	@Test
+	public void testNativeBackendReplacesStaleElement() throws Exception {
+		retrieve("v1", "a");
+		assertTrue(retrieved("plugin", "a", "old.txt").isFile());
+		retrieve("v2", "a");
+		assertEquals("a2", read(retrieved("plugin", "a", MANIFEST)));
+		assertFalse(retrieved("plugin", "a", "old.txt").exists());
+	}
+
+	@Test
+	public void testFailedRetrievalIsNotStamped() throws Exception {
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		setOption(FetchOptions.PROP_EXPORT, FetchOptions.EXPORT_TREE);
+		try {
+			retrieve("v1", "typo");
+			fail("missing path retrieved");
+		} catch (final CoreException e) {
+			// expected
+		}
+		assertFalse(stamp.exists());
+	}
+
+	/**
+	 * Retrieves the element from a path at a tag in a new build.
+	 */
+	private void retrieve(String tag, String path) throws Exception {
+		clear();
+		retrieve("plugin", "a", "tag=" + tag + ",repo=" + location(remote)
+				+ ",path=" + path);
+		generate();
+		run("fetch");
+	}
+}
@@ -0,0 +1,82 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.util.FileUtils;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TimingReportTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private File report;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		final Git remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a");
+		commit(remote, "b/" + MANIFEST, "b");
+		tag(remote, "v1");
+		final String repo = location(remote);
+		retrieve("plugin", "a", "tag=v1,repo=" + repo + ",path=a");
+		retrieve("plugin", "b", "tag=v1,repo=" + repo + ",path=b");
+		report = new File(createTempDirectory("report"), "timing.json");
+	}
+
+	@Test
+	public void testReportIsOptIn() throws Exception {
+		assertFalse(generate().contains("<egit.timing"));
+	}
+
+	@Test
+	public void testStepsAreReported() throws Exception {
+		setOption(FetchOptions.PROP_TIMING_REPORT, report.getAbsolutePath());
+		generate();
+		run("fetch");
+		final String text = read(report);
+		assertEquals(1, count(text, step("clone", "miss")));
+		assertEquals(1, count(text, step("checkout", "miss")));
+		assertEquals(2, count(text, step("copy", "miss")));
+		// totals per repository and per element
+		assertEquals(1, count(text, "\\{\"localRepo\": [^}]*\"hits\": 1\\}"));
+		assertEquals(2, count(text,
+				"\\{\"destination\": [^}]*\"steps\": 1, \"hits\": 0\\}"));
+	}
+
+	@Test
+	public void testWarmCloneIsReportedAsHit() throws Exception {
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		setOption(FetchOptions.PROP_TIMING_REPORT, report.getAbsolutePath());
+		generate();
+		run("fetch");
+		FileUtils.delete(buildDirectory, FileUtils.RECURSIVE);
+		buildDirectory.mkdirs();
+		generate();
+		run("fetch");
+		final String text = read(report);
+		assertEquals(0, count(text, step("clone", "miss")));
+		assertEquals(1, count(text, step("clone", "hit")));
+		assertEquals(2, count(text, step("copy", "miss")));
+	}
+
+	private static String step(String step, String cache) {
+		return "\"step\": \"" + step + "\"[^}]*\"cache\": \"" + cache + "\"";
+	}
+}
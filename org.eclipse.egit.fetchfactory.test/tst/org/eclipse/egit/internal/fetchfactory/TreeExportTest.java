@@ -0,0 +1,116 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.jgit.api.Git;
+import org.eclipse.jgit.lib.Constants;
+import org.junit.Before;
+import org.junit.Test;
+
+public class TreeExportTest extends ScriptTestCase {
+
+	private static final String MANIFEST = "META-INF/MANIFEST.MF";
+
+	private Git remote;
+
+	@Override
+	@Before
+	public void setUp() throws Exception {
+		super.setUp();
+		remote = createRemote();
+		commit(remote, "a/" + MANIFEST, "a");
+		commit(remote, "a/src/A.java", "class A {}");
+		setOption(FetchOptions.PROP_EXPORT, FetchOptions.EXPORT_TREE);
+	}
+
+	@Test
+	public void testElementIsExportedWithoutCheckout() throws Exception {
+		tag(remote, "v1");
+		retrieve("plugin", "a", entry("a"));
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		generate();
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertEquals("class A {}", read(retrieved("plugin", "a", "src/A.java")));
+		assertFalse(new File(localClone(), "a").exists());
+	}
+
+	@Test
+	public void testNativeBackendExportsWithoutCheckout() throws Exception {
+		tag(remote, "v1");
+		retrieve("plugin", "a", entry("a"));
+		generate();
+		run("fetch");
+		assertEquals("a", read(retrieved("plugin", "a", MANIFEST)));
+		assertFalse(new File(localClone(), "a").exists());
+	}
+
+	@Test
+	public void testMissingPathFails() throws Exception {
+		tag(remote, "v1");
+		retrieve("plugin", "a", entry("typo"));
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		generate();
+		try {
+			run("fetch");
+			fail("missing path exported");
+		} catch (final CoreException e) {
+			// expected
+		}
+	}
+
+	@Test
+	public void testLinksAreFollowedWithinTheTree() throws Exception {
+		assumeTrue(File.separatorChar == '/');
+		final File workTree = remote.getRepository().getWorkTree();
+		exec(workTree, "ln", "-s", "../" + MANIFEST, "a/src/manifest");
+		exec(workTree, "ln", "-s", "src", "a/folder");
+		exec(workTree, "git", "add", "a");
+		exec(workTree, "git", "-c", "user.name=test", "-c",
+				"user.email=test@example.org", "commit", "-q", "-m", "links");
+		tag(remote, "v1");
+		retrieve("plugin", "a", entry("a"));
+		setOption(FetchOptions.PROP_BACKEND, FetchOptions.BACKEND_JGIT);
+		generate();
+		run("fetch");
+		final File manifest = retrieved("plugin", "a", "src/manifest");
+		assertTrue(manifest.isFile());
+		assertEquals("a", read(manifest));
+		assertFalse(retrieved("plugin", "a", "folder").exists());
+	}
+
+	private String entry(String path) {
+		return "tag=v1,repo=" + location(remote) + ",path=" + path;
+	}
+
+	private File localClone() {
+		final File[] children = fetchCache.listFiles();
+		for (int i = 0; i < children.length; i++) {
+			if (new File(children[i], Constants.DOT_GIT).isDirectory())
+				return children[i];
+		}
+		throw new IllegalStateException("no clone in " + fetchCache);
+	}
+
+	private static void exec(File dir, String... command) throws Exception {
+		final Process process = Runtime.getRuntime().exec(command, null, dir);
+		assertEquals(0, process.waitFor());
+	}
+}
@@ -0,0 +1,457 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import org.eclipse.pde.internal.build.AbstractScriptGenerator;
+
+/**
+ * Build properties controlling how the Git fetch scripts are generated.
+ * <p>
+ * The properties are read from the PDE Build configuration when the fetch
+ * scripts are generated.
+ * </p>
+ */
+@SuppressWarnings("restriction")
+public class FetchOptions {
+
+	/**
+	 * Number of repositories to update concurrently. Values greater than one
+	 * enable parallel fetching (default: <code>1</code>).
+	 */
+	public static final String PROP_THREADS = "gitFetchThreads"; //$NON-NLS-1$
+
+	/**
+	 * Backend performing the Git operations: <code>exec</code> runs the native
+	 * <code>git</code> executable (default), <code>jgit</code> uses the
+	 * in-process JGit tasks contributed by this bundle.
+	 */
+	public static final String PROP_BACKEND = "gitFetchBackend"; //$NON-NLS-1$
+
+	/** value of {@link #PROP_BACKEND} selecting the JGit tasks */
+	public static final String BACKEND_JGIT = "jgit"; //$NON-NLS-1$
+
+	/**
+	 * How elements are exported: <code>checkout</code> checks out the tag and
+	 * copies the element from the work tree (default), <code>tree</code>
+	 * writes the element straight from the object database without any
+	 * checkout.
+	 */
+	public static final String PROP_EXPORT = "gitFetchExport"; //$NON-NLS-1$
+
+	/** value of {@link #PROP_EXPORT} selecting the checkout-free export */
+	public static final String EXPORT_TREE = "tree"; //$NON-NLS-1$
+
+	/**
+	 * Whether single files (pre-built JARs and the files retrieved for
+	 * features) are read straight from the object database by the
+	 * <code>egit.export</code> task instead of being copied from a checkout
+	 * (default: <code>false</code>). Always done with the JGit backend or the
+	 * <code>tree</code> export; not possible for a partial clone of the native
+	 * backend.
+	 */
+	public static final String PROP_BLOB_EXPORT = "gitFetchBlobExport"; //$NON-NLS-1$
+
+	/**
+	 * Whether only the tags referenced by the map entries are fetched instead
+	 * of the complete repository (default: <code>false</code>). The native
+	 * backend additionally limits the history to a depth of one.
+	 */
+	public static final String PROP_SHALLOW = "gitFetchShallow"; //$NON-NLS-1$
+
+	/**
+	 * Whether only the paths referenced by the map entries are downloaded and
+	 * checked out (default: <code>false</code>). The native backend uses a
+	 * blob-less partial clone with a sparse checkout, the JGit backend exports
+	 * the paths from the object database without any checkout.
+	 */
+	public static final String PROP_SPARSE = "gitFetchSparse"; //$NON-NLS-1$
+
+	/**
+	 * Whether all local clones share the objects of a common bare repository
+	 * (default: <code>false</code>). The location of the pool can be set at
+	 * build time using the <code>gitObjectPool</code> property and defaults to
+	 * <code>${fetchCacheLocation}/objectPool.git</code>.
+	 */
+	public static final String PROP_OBJECT_POOL = "gitFetchObjectPool"; //$NON-NLS-1$
+
+	/**
+	 * Whether exported elements are kept in a cache keyed by their Git object
+	 * id and copied from there (default: <code>false</code>). Implies the
+	 * checkout-free export. The location of the cache can be set at build time
+	 * using the <code>gitExportCache</code> property and defaults to
+	 * <code>${fetchCacheLocation}/exportCache</code>.
+	 */
+	public static final String PROP_EXPORT_CACHE = "gitFetchExportCache"; //$NON-NLS-1$
+
+	/**
+	 * Whether files are hard-linked from the export cache instead of copied
+	 * where possible (default: <code>false</code>). The cached files are made
+	 * read-only; build steps editing retrieved files in place other than the
+	 * descriptors rewritten by PDE Build must not be used with this option.
+	 */
+	public static final String PROP_EXPORT_CACHE_LINKS = "gitFetchExportCacheLinks"; //$NON-NLS-1$
+
+	/**
+	 * Whether a stamp recording the retrieved revision is written next to
+	 * each element and used to skip elements which are up to date (default:
+	 * <code>false</code>).
+	 */
+	public static final String PROP_STAMPS = "gitFetchStamps"; //$NON-NLS-1$
+
+	/**
+	 * Lock file into which the generated scripts record the commit and tree
+	 * (or blob) id each map file entry resolved to. The value may refer to
+	 * properties only known when the scripts run, e.g.
+	 * <code>${buildDirectory}/fetch.lock</code>.
+	 */
+	public static final String PROP_LOCK_OUTPUT = "gitFetchLockOutput"; //$NON-NLS-1$
+
+	/**
+	 * Lock file from which the generated scripts take the commits to retrieve
+	 * instead of resolving the tags of the map file entries. Repositories
+	 * already containing all locked commits are not updated.
+	 */
+	public static final String PROP_LOCK_INPUT = "gitFetchLockInput"; //$NON-NLS-1$
+
+	/**
+	 * Whether the refs advertised by a remote repository are compared with
+	 * its local clone before fetching, so that unchanged repositories are not
+	 * fetched (default: <code>false</code>).
+	 */
+	public static final String PROP_PREFLIGHT = "gitFetchPreflight"; //$NON-NLS-1$
+
+	/**
+	 * Size budget of the fetch cache, e.g. <code>20g</code>. If set, the least
+	 * recently used clones not needed by the running build are evicted once
+	 * the cache exceeds the budget, and the native backend compacts the
+	 * clones it updates.
+	 */
+	public static final String PROP_CACHE_SIZE = "gitFetchCacheSize"; //$NON-NLS-1$
+
+	/**
+	 * Whether several builds may use the fetch cache at the same time
+	 * (default: <code>false</code>). Each clone is then locked while it is
+	 * updated, checked out or exported.
+	 */
+	public static final String PROP_SHARED_CACHE = "gitFetchSharedCache"; //$NON-NLS-1$
+
+	/**
+	 * File mapping repository locations, e.g. of mirrors, to the location of
+	 * the repository they are equivalent to, one
+	 * <code>alias = location</code> pair per line. Equivalent locations share
+	 * one local clone.
+	 */
+	public static final String PROP_REPO_ALIASES = "gitFetchRepoAliases"; //$NON-NLS-1$
+
+	/**
+	 * JSON file to write the duration, bytes transferred and cache hit or miss
+	 * of each clone, fetch, checkout and copy step to.
+	 */
+	public static final String PROP_TIMING_REPORT = "gitFetchTimingReport"; //$NON-NLS-1$
+
+	/**
+	 * Set to <code>true</code> to generate the common Git operations as
+	 * <code>macrodef</code>s invoked directly instead of targets invoked by
+	 * <code>antcall</code>, which copies the complete project for each call.
+	 */
+	public static final String PROP_MACROS = "gitFetchMacros"; //$NON-NLS-1$
+
+	/**
+	 * Directory of Git bundle files, one per repository, named like the
+	 * local clone with the suffix <code>.bundle</code>. Clones are seeded or
+	 * updated from their bundle before any network access.
+	 */
+	public static final String PROP_BUNDLES = "gitFetchBundles"; //$NON-NLS-1$
+
+	/**
+	 * Set to <code>true</code> to never access remote repositories. The build
+	 * fails as soon as a revision is neither in the local clone nor in its
+	 * bundle.
+	 */
+	public static final String PROP_OFFLINE = "gitFetchOffline"; //$NON-NLS-1$
+
+	/**
+	 * Directory to write a Git bundle file for each repository to, containing
+	 * exactly the revisions retrieved by the build. The bundles can be used
+	 * as {@link #PROP_BUNDLES} of an offline build.
+	 */
+	public static final String PROP_BUNDLE_OUTPUT = "gitFetchBundleOutput"; //$NON-NLS-1$
+
+	/**
+	 * Number of files copied concurrently when an element is copied from the
+	 * work tree of a local clone (default: <code>1</code>, i.e. Ant's
+	 * <code>copy</code> task is used).
+	 */
+	public static final String PROP_COPY_THREADS = "gitFetchCopyThreads"; //$NON-NLS-1$
+
+	/**
+	 * Whether the version qualifier of each element is derived from the time
+	 * of the last commit changing its path instead of from the map file tag
+	 * (default: <code>false</code>). The qualifiers are written to the
+	 * <code>pluginVersions.properties</code> and
+	 * <code>featureVersions.properties</code> files PDE Build reads for
+	 * <code>qualifier=context</code>. Not supported for shallow fetches.
+	 */
+	public static final String PROP_QUALIFIERS = "gitFetchQualifiers"; //$NON-NLS-1$
+
+	/**
+	 * Whether repositories updated concurrently are started in the order of
+	 * the durations of their updates in previous builds, the longest first
+	 * (default: <code>true</code>). The durations are kept in
+	 * <code>${fetchCacheLocation}/fetchHistory.properties</code>.
+	 */
+	public static final String PROP_SCHEDULE = "gitFetchSchedule"; //$NON-NLS-1$
+
+	/**
+	 * File listing mirrors of repositories, one
+	 * <code>location = mirror...</code> line per repository. Before a
+	 * repository is fetched, the refs of all its mirrors and of the location
+	 * itself are requested, and it is fetched from the fastest that responds,
+	 * falling back to the next one if the fetch fails.
+	 */
+	public static final String PROP_MIRRORS = "gitFetchMirrors"; //$NON-NLS-1$
+
+	/**
+	 * Whether what an interrupted clone, fetch or checkout left in a local
+	 * clone is repaired before the clone is updated (default:
+	 * <code>false</code>).
+	 */
+	public static final String PROP_REPAIR = "gitFetchRepair"; //$NON-NLS-1$
+
+	private static String getProperty(String key) {
+		final String value = AbstractScriptGenerator
+				.getImmutableAntProperty(key);
+		if (value == null || value.trim().length() == 0)
+			return null;
+		return value.trim();
+	}
+
+	private static boolean getBooleanProperty(String key) {
+		return Boolean.valueOf(getProperty(key)).booleanValue();
+	}
+
+	private static int getIntProperty(String key, int defaultValue) {
+		final String value = getProperty(key);
+		if (value == null)
+			return defaultValue;
+		try {
+			return Integer.parseInt(value);
+		} catch (final NumberFormatException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * @return the number of repositories to update concurrently
+	 */
+	public static int getThreadCount() {
+		return Math.max(1, getIntProperty(PROP_THREADS, 1));
+	}
+
+	/**
+	 * @return the number of files copied concurrently, at least
+	 *         <code>1</code>
+	 */
+	public static int getCopyThreadCount() {
+		return Math.max(1, getIntProperty(PROP_COPY_THREADS, 1));
+	}
+
+	/**
+	 * @return <code>true</code> if the Git operations are performed in-process
+	 *         using JGit
+	 */
+	public static boolean isJGitBackend() {
+		return BACKEND_JGIT.equalsIgnoreCase(getProperty(PROP_BACKEND));
+	}
+
+	/**
+	 * @return <code>true</code> if elements are exported from the object
+	 *         database without checking out the tag
+	 */
+	public static boolean isTreeExport() {
+		if (isSparse())
+			// only native Git fetches the blobs missing in a partial clone
+			return isJGitBackend();
+		return EXPORT_TREE.equalsIgnoreCase(getProperty(PROP_EXPORT))
+				|| getBooleanProperty(PROP_EXPORT_CACHE);
+	}
+
+	/**
+	 * @return <code>true</code> if single files (e.g. pre-built JARs or feature
+	 *         metadata) are read straight from the object database instead of
+	 *         a checkout, which is not possible for blobs missing in a partial
+	 *         clone of the native backend
+	 */
+	public static boolean isBlobExport() {
+		if (isJGitBackend() || isTreeExport())
+			return true;
+		return getBooleanProperty(PROP_BLOB_EXPORT) && !isSparse();
+	}
+
+	/**
+	 * @return <code>true</code> if exported elements are cached
+	 */
+	public static boolean isExportCache() {
+		return getBooleanProperty(PROP_EXPORT_CACHE) && isTreeExport();
+	}
+
+	/**
+	 * @return <code>true</code> if files are hard-linked from the export cache
+	 */
+	public static boolean isExportCacheLinks() {
+		return getBooleanProperty(PROP_EXPORT_CACHE_LINKS) && isExportCache();
+	}
+
+	/**
+	 * @return <code>true</code> if only the referenced tags are fetched
+	 */
+	public static boolean isShallow() {
+		return getBooleanProperty(PROP_SHALLOW);
+	}
+
+	/**
+	 * @return <code>true</code> if only the referenced paths are retrieved
+	 */
+	public static boolean isSparse() {
+		return getBooleanProperty(PROP_SPARSE);
+	}
+
+	/**
+	 * @return <code>true</code> if the clones share a common object pool
+	 */
+	public static boolean isObjectPool() {
+		return getBooleanProperty(PROP_OBJECT_POOL);
+	}
+
+	/**
+	 * @return <code>true</code> if elements are stamped
+	 */
+	public static boolean isStamps() {
+		return getBooleanProperty(PROP_STAMPS);
+	}
+
+	/**
+	 * @return <code>true</code> if qualifiers are computed from the history
+	 *         of the elements
+	 */
+	public static boolean isQualifiers() {
+		return getBooleanProperty(PROP_QUALIFIERS) && !isShallow();
+	}
+
+	/**
+	 * @return <code>true</code> if concurrent targets are ordered by their
+	 *         durations in previous builds
+	 */
+	public static boolean isSchedule() {
+		final String value = getProperty(PROP_SCHEDULE);
+		return value == null || Boolean.valueOf(value).booleanValue();
+	}
+
+	/**
+	 * @return <code>true</code> if the remote refs are checked before fetching
+	 */
+	public static boolean isPreflight() {
+		return getBooleanProperty(PROP_PREFLIGHT);
+	}
+
+	/**
+	 * @return <code>true</code> if interrupted operations are repaired
+	 */
+	public static boolean isRepair() {
+		return getBooleanProperty(PROP_REPAIR);
+	}
+
+	/**
+	 * @return <code>true</code> if the clones are locked for builds sharing
+	 *         the fetch cache
+	 */
+	public static boolean isSharedCache() {
+		return getBooleanProperty(PROP_SHARED_CACHE);
+	}
+
+	/**
+	 * @return the size budget of the fetch cache, or <code>null</code> if the
+	 *         cache is unbounded
+	 */
+	public static String getCacheSize() {
+		return getProperty(PROP_CACHE_SIZE);
+	}
+
+	/**
+	 * @return <code>true</code> if the common operations are macros
+	 */
+	public static boolean isMacros() {
+		return getBooleanProperty(PROP_MACROS);
+	}
+
+	/**
+	 * @return the directory of bundles to seed the clones from, or
+	 *         <code>null</code> if none
+	 */
+	public static String getBundles() {
+		return getProperty(PROP_BUNDLES);
+	}
+
+	/**
+	 * @return <code>true</code> if remote repositories must not be accessed
+	 */
+	public static boolean isOffline() {
+		return getBooleanProperty(PROP_OFFLINE);
+	}
+
+	/**
+	 * @return the directory to write bundles to, or <code>null</code> if none
+	 */
+	public static String getBundleOutput() {
+		return getProperty(PROP_BUNDLE_OUTPUT);
+	}
+
+	/**
+	 * @return the timing report to write, or <code>null</code> if none
+	 */
+	public static String getTimingReport() {
+		return getProperty(PROP_TIMING_REPORT);
+	}
+
+	/**
+	 * @return the repository alias table, or <code>null</code> if none
+	 */
+	public static String getRepoAliases() {
+		return getProperty(PROP_REPO_ALIASES);
+	}
+
+	/**
+	 * @return the repository mirror table, or <code>null</code> if none
+	 */
+	public static String getMirrors() {
+		return getProperty(PROP_MIRRORS);
+	}
+
+	/**
+	 * @return the lock file to record the resolved revisions to, or
+	 *         <code>null</code> if none
+	 */
+	public static String getLockOutput() {
+		return getProperty(PROP_LOCK_OUTPUT);
+	}
+
+	/**
+	 * @return the lock file to take the revisions to retrieve from, or
+	 *         <code>null</code> if none
+	 */
+	public static String getLockInput() {
+		return getProperty(PROP_LOCK_INPUT);
+	}
+
+	private FetchOptions() {
+		// no instances
+	}
+}
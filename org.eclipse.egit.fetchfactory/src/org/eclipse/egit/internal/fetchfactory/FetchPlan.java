@@ -0,0 +1,532 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import org.eclipse.pde.build.IAntScript;
+
+/**
+ * Collects all Git elements retrieved by a single fetch script.
+ * <p>
+ * Elements are grouped by repository and by tag so that the generated script
+ * updates (or clones) each repository only once and checks out a tag only if
+ * an element retrieved from it is missing. Each element is still copied by
+ * its own retrieve call only, which passes the guard property of the element
+ * to the target of its group, so that elements whose retrieve calls do not
+ * run, e.g. because they are in a target skipped by a condition, are not
+ * copied either. The plan is filled while PDE Build asks the factory to
+ * generate the retrieve calls and is written out as Ant targets when
+ * {@link GITFetchTaskFactory#addTargets(IAntScript)} is called at the end of
+ * the script.
+ * </p>
+ */
+public class FetchPlan {
+
+	/**
+	 * An element (or file) to copy from the local clone to the build
+	 * location.
+	 */
+	public static class Element {
+
+		private final Group group;
+
+		private final int index;
+
+		private final String path;
+
+		private final String copyTarget;
+
+		private final Map<String, String> params;
+
+		private final String propertyToCheck;
+
+		private final List<String> filesToCheck;
+
+		private String qualifierFile;
+
+		private String qualifierId;
+
+		Element(Group group, int index, String path, String copyTarget,
+				Map<String, String> params, String propertyToCheck,
+				List<String> filesToCheck) {
+			this.group = group;
+			this.index = index;
+			this.path = path;
+			this.copyTarget = copyTarget;
+			this.params = params;
+			this.propertyToCheck = propertyToCheck;
+			this.filesToCheck = filesToCheck;
+		}
+
+		/**
+		 * @return the group the element belongs to
+		 */
+		public Group getGroup() {
+			return group;
+		}
+
+		/**
+		 * @return the name of the property the retrieve call of the element
+		 *         sets when calling the target of its group
+		 */
+		public String getGuardProperty() {
+			return group.getRepository().getPlan().getTargetPrefix()
+					+ "Element" + index; //$NON-NLS-1$
+		}
+
+		/**
+		 * @return the path of the element in the repository, empty for the
+		 *         repository root
+		 */
+		public String getPath() {
+			return path;
+		}
+
+		/**
+		 * @return the target copying the element into the build location, or
+		 *         <code>null</code> if the element is not retrieved
+		 */
+		public String getCopyTarget() {
+			return copyTarget;
+		}
+
+		/**
+		 * @return the parameters passed to the copy target
+		 */
+		public Map<String, String> getParams() {
+			return params;
+		}
+
+		/**
+		 * @return the name of the property that is set when the element is
+		 *         already available in the build location, or
+		 *         <code>null</code> if the element is always retrieved
+		 */
+		public String getPropertyToCheck() {
+			return propertyToCheck;
+		}
+
+		/**
+		 * @return the files whose existence sets the property to check
+		 */
+		public List<String> getFilesToCheck() {
+			return filesToCheck;
+		}
+
+		/**
+		 * Computes the qualifier of the element from the last commit
+		 * changing its path.
+		 *
+		 * @param file
+		 *            the properties file to write the qualifier to
+		 * @param id
+		 *            the id of the element
+		 */
+		public void setQualifier(String file, String id) {
+			qualifierFile = file;
+			qualifierId = id;
+		}
+
+		/**
+		 * @return the properties file to write the qualifier of the element
+		 *         to, or <code>null</code> if the qualifier is not computed
+		 */
+		public String getQualifierFile() {
+			return qualifierFile;
+		}
+
+		/**
+		 * @return the id of the element in the qualifier file
+		 */
+		public String getQualifierId() {
+			return qualifierId;
+		}
+	}
+
+	/**
+	 * All elements of one repository which are retrieved from the same tag.
+	 */
+	public static class Group {
+
+		private final Repository repository;
+
+		private final int index;
+
+		private final String tag;
+
+		private final List<Element> elements = new ArrayList<Element>();
+
+		Group(Repository repository, int index, String tag) {
+			this.repository = repository;
+			this.index = index;
+			this.tag = tag;
+		}
+
+		/**
+		 * @return the repository the group belongs to
+		 */
+		public Repository getRepository() {
+			return repository;
+		}
+
+		/**
+		 * @return the tag to check out
+		 */
+		public String getTag() {
+			return tag;
+		}
+
+		/**
+		 * @return the elements of the group in the order they were added
+		 */
+		public List<Element> getElements() {
+			return elements;
+		}
+
+		/**
+		 * @return the name of the target checking out the tag and copying
+		 *         the requested element of this group
+		 */
+		public String getTargetName() {
+			return repository.getPlan().getTargetPrefix() + "RetrieveTag" //$NON-NLS-1$
+					+ index;
+		}
+	}
+
+	/**
+	 * A Git repository and the tags retrieved from it.
+	 */
+	public static class Repository {
+
+		private final FetchPlan plan;
+
+		private final int index;
+
+		private final String gitRepo;
+
+		private final String localGitRepo;
+
+		private final Map<String, Group> groups = new LinkedHashMap<String, Group>();
+
+		private List<String> mirrors = Collections.emptyList();
+
+		private final Set<String> formerLocalGitRepos = new LinkedHashSet<String>();
+
+		Repository(FetchPlan plan, int index, String gitRepo,
+				String localGitRepo) {
+			this.plan = plan;
+			this.index = index;
+			this.gitRepo = gitRepo;
+			this.localGitRepo = localGitRepo;
+		}
+
+		FetchPlan getPlan() {
+			return plan;
+		}
+
+		/**
+		 * @return the remote repository location
+		 */
+		public String getGitRepo() {
+			return gitRepo;
+		}
+
+		/**
+		 * @return the path of the local clone
+		 */
+		public String getLocalGitRepo() {
+			return localGitRepo;
+		}
+
+		/**
+		 * Sets the mirrors to fetch the repository from.
+		 *
+		 * @param mirrors
+		 *            the mirror locations in order of preference
+		 */
+		public void setMirrors(List<String> mirrors) {
+			this.mirrors = mirrors;
+		}
+
+		/**
+		 * @return the mirror locations in order of preference, empty if the
+		 *         repository has no mirrors
+		 */
+		public List<String> getMirrors() {
+			return mirrors;
+		}
+
+		/**
+		 * Adds a path where earlier builds kept the local clone.
+		 *
+		 * @param formerLocalGitRepo
+		 *            the former path of the local clone
+		 */
+		public void addFormerLocalGitRepo(String formerLocalGitRepo) {
+			formerLocalGitRepos.add(formerLocalGitRepo);
+		}
+
+		/**
+		 * @return the paths where earlier builds kept the local clone in the
+		 *         order they were added
+		 */
+		public Set<String> getFormerLocalGitRepos() {
+			return formerLocalGitRepos;
+		}
+
+		/**
+		 * @return the tag groups of the repository in the order they were
+		 *         added
+		 */
+		public Collection<Group> getGroups() {
+			return groups.values();
+		}
+
+		/**
+		 * @return the tags retrieved from the repository
+		 */
+		public List<String> getTags() {
+			final List<String> tags = new ArrayList<String>(groups.size());
+			for (final String tag : groups.keySet()) {
+				if (tag != null)
+					tags.add(tag);
+			}
+			return tags;
+		}
+
+		/**
+		 * @return the distinct paths of all elements retrieved from the
+		 *         repository
+		 */
+		public Set<String> getPaths() {
+			final Set<String> paths = new LinkedHashSet<String>();
+			for (final Group group : groups.values()) {
+				for (final Element element : group.getElements()) {
+					paths.add(element.getPath());
+				}
+			}
+			return paths;
+		}
+
+		/**
+		 * @return all elements retrieved from the repository
+		 */
+		public List<Element> getElements() {
+			final List<Element> elements = new ArrayList<Element>();
+			for (final Group group : groups.values()) {
+				elements.addAll(group.getElements());
+			}
+			return elements;
+		}
+
+		/**
+		 * @return the name of the target cloning or updating the local clone
+		 */
+		public String getTargetName() {
+			return plan.getTargetPrefix() + "UpdateRepo" + index; //$NON-NLS-1$
+		}
+	}
+
+	private static final Map<IAntScript, FetchPlan> plans = new WeakHashMap<IAntScript, FetchPlan>();
+
+	private static int lastId;
+
+	/**
+	 * Returns the plan for the specified script, creating it if necessary.
+	 * <p>
+	 * Plans are shared between factory instances because PDE Build does not
+	 * guarantee that the same instance generates all calls of a script.
+	 * </p>
+	 *
+	 * @param script
+	 *            the fetch script
+	 * @return the plan
+	 */
+	public static synchronized FetchPlan get(IAntScript script) {
+		FetchPlan plan = plans.get(script);
+		if (plan == null) {
+			plan = new FetchPlan(++lastId);
+			plans.put(script, plan);
+		}
+		return plan;
+	}
+
+	/**
+	 * Removes the plan for the specified script.
+	 *
+	 * @param script
+	 *            the fetch script
+	 * @return the removed plan or <code>null</code> if the script did not
+	 *         retrieve any Git element
+	 */
+	public static synchronized FetchPlan remove(IAntScript script) {
+		return plans.remove(script);
+	}
+
+	private final int id;
+
+	private final int threadCount;
+
+	private final boolean treeExport;
+
+	private final boolean shallow;
+
+	private final boolean sparse;
+
+	private final boolean objectPool;
+
+	private final String cacheSize;
+
+	private final Map<String, Repository> repositories = new LinkedHashMap<String, Repository>();
+
+	private int groupCount;
+
+	private int elementCount;
+
+	private FetchPlan(int id) {
+		this.id = id;
+		threadCount = FetchOptions.getThreadCount();
+		treeExport = FetchOptions.isTreeExport();
+		shallow = FetchOptions.isShallow();
+		sparse = FetchOptions.isSparse();
+		objectPool = FetchOptions.isObjectPool();
+		cacheSize = FetchOptions.getCacheSize();
+	}
+
+	/**
+	 * Adds an element to the plan.
+	 *
+	 * @param gitRepo
+	 *            the remote repository location
+	 * @param localGitRepo
+	 *            the path of the local clone
+	 * @param tag
+	 *            the tag to retrieve the element from
+	 * @param path
+	 *            the path of the element in the repository
+	 * @param copyTarget
+	 *            the target copying the element into the build location, may
+	 *            be <code>null</code> if only the local clone is updated
+	 * @param params
+	 *            the parameters for the copy target
+	 * @param propertyToCheck
+	 *            the property set when the element is already available, may
+	 *            be <code>null</code>
+	 * @param filesToCheck
+	 *            the files whose existence sets the property to check
+	 * @return the element
+	 */
+	public Element addElement(String gitRepo, String localGitRepo, String tag,
+			String path, String copyTarget, Map<String, String> params,
+			String propertyToCheck, List<String> filesToCheck) {
+		Repository repository = repositories.get(localGitRepo);
+		if (repository == null) {
+			repository = new Repository(this, repositories.size(), gitRepo,
+					localGitRepo);
+			repositories.put(localGitRepo, repository);
+		}
+		Group group = repository.groups.get(tag);
+		if (group == null) {
+			group = new Group(repository, groupCount++, tag);
+			repository.groups.put(tag, group);
+		}
+		final Element element = new Element(group, elementCount++, path,
+				copyTarget, params, propertyToCheck, filesToCheck);
+		group.elements.add(element);
+		return element;
+	}
+
+	/**
+	 * @return the repositories in the order they were added
+	 */
+	public Collection<Repository> getRepositories() {
+		return repositories.values();
+	}
+
+	/**
+	 * @return <code>true</code> if the repositories are updated concurrently
+	 */
+	public boolean isParallel() {
+		return threadCount > 1;
+	}
+
+	/**
+	 * @return the number of repositories to update concurrently
+	 */
+	public int getThreadCount() {
+		return threadCount;
+	}
+
+	/**
+	 * @return <code>true</code> if elements are exported without checking
+	 *         out the tags
+	 */
+	public boolean isTreeExport() {
+		return treeExport;
+	}
+
+	/**
+	 * @return <code>true</code> if only the referenced tags are fetched
+	 */
+	public boolean isShallow() {
+		return shallow;
+	}
+
+	/**
+	 * @return <code>true</code> if only the referenced paths are retrieved
+	 */
+	public boolean isSparse() {
+		return sparse;
+	}
+
+	/**
+	 * @return <code>true</code> if the clones share a common object pool
+	 */
+	public boolean isObjectPool() {
+		return objectPool;
+	}
+
+	/**
+	 * @return the size budget of the fetch cache, or <code>null</code> if the
+	 *         cache is unbounded
+	 */
+	public String getCacheSize() {
+		return cacheSize;
+	}
+
+	/**
+	 * @return the name of the target updating all repositories concurrently
+	 */
+	public String getUpdateTargetName() {
+		return getTargetPrefix() + "UpdateRepos"; //$NON-NLS-1$
+	}
+
+	/**
+	 * @return the name of the target keeping the fetch cache within its size
+	 *         budget
+	 */
+	public String getCacheTargetName() {
+		return getTargetPrefix() + "MaintainCache"; //$NON-NLS-1$
+	}
+
+	String getTargetPrefix() {
+		return "GitPlan" + id; //$NON-NLS-1$
+	}
+}
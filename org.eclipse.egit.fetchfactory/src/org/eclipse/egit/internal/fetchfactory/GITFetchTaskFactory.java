@@ -11,7 +11,11 @@
  *******************************************************************************/
 package org.eclipse.egit.internal.fetchfactory;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -56,6 +60,147 @@
  * <li>The content of the path will be copied to the final build location.</li>
  * </ol>
  * </p>
+ * <p>
+ * Tags are assumed to never move. An existing clone which already contains
+ * all tags of a repository's map entries is therefore not updated, so
+ * rebuilding a release from a warm cache needs no network access. Map entries
+ * referring to branches cause an update. With <code>gitFetchPreflight</code>
+ * set to <code>true</code> the update is skipped if the refs advertised by the
+ * remote repository still match the local clone. That check costs a single
+ * ref advertisement per repository; if it fails or times out the clone is
+ * updated as usual.
+ * </p>
+ * <p>
+ * All elements of a fetch script are collected in a {@link FetchPlan} which
+ * groups them by repository and tag. Each repository is updated only once per
+ * script, a tag is checked out only if an element retrieved from it is
+ * missing and the clone does not still have it checked out from an earlier
+ * call, and each element is copied by its own retrieve call, so elements
+ * whose calls do not run are not retrieved. If the build property
+ * <code>gitFetchThreads</code> is greater than one, different repositories
+ * are updated concurrently using that many threads. The repositories whose
+ * update took longest in previous builds, as recorded in
+ * <code>fetchHistory.properties</code> of the fetch cache, are started first
+ * unless <code>gitFetchSchedule</code> is set to <code>false</code>. Elements
+ * are exported by their own retrieve calls, one after another in the order
+ * PDE Build makes them, so exports are neither scheduled nor recorded in the
+ * history.
+ * </p>
+ * <p>
+ * By default the Git operations are performed by the native <code>git</code>
+ * executable. Setting the build property <code>gitFetchBackend</code> to
+ * <code>jgit</code> performs them in-process using the <code>egit.*</code> Ant
+ * tasks contributed by this bundle instead, which keep the repositories they
+ * open until the fetch script has finished. Setting <code>gitFetchExport</code>
+ * to <code>tree</code> skips the checkout and writes each element straight
+ * from the object database of the local clone. Pre-built JARs and single
+ * files are read from the object database as well with either, or with
+ * <code>gitFetchBlobExport</code> set to <code>true</code>; otherwise the
+ * native backend copies them from a checkout. Setting
+ * <code>gitFetchShallow</code> to <code>true</code> fetches only the tags
+ * referenced by the map entries (with a history depth of one when using the
+ * native backend) and falls back to fetching everything if that fails. With
+ * <code>gitFetchSparse</code> set to <code>true</code> only the paths of the
+ * map entries are retrieved, using a blob-less partial clone and a sparse
+ * checkout with the native backend. With <code>gitFetchObjectPool</code> set
+ * to <code>true</code> all clones borrow objects from a shared bare repository
+ * (<code>gitObjectPool</code>) into which fetched objects are deposited.
+ * Setting <code>gitFetchExportCache</code> to <code>true</code> keeps one
+ * exported copy of each element tree in <code>gitExportCache</code> from which
+ * the build location is populated, using hard links to read-only cache files
+ * where possible if <code>gitFetchExportCacheLinks</code> is set. With
+ * <code>gitFetchStamps</code> set to <code>true</code> a stamp recording the
+ * retrieved revision is written next to each element, and elements whose
+ * stamp still matches the map file entry are skipped. Elements whose stamp
+ * does not match are deleted before they are retrieved again. Setting
+ * <code>gitFetchCopyThreads</code> to more than one copies elements from the
+ * work tree of a clone with that many threads instead of Ant's
+ * <code>copy</code> task, skipping <code>.git</code> metadata.
+ * </p>
+ * <p>
+ * Setting <code>gitFetchCacheSize</code> (e.g. to <code>20g</code>) bounds the
+ * size of the fetch cache. Before the first element is retrieved, the least
+ * recently used clones not needed by the running build are evicted until the
+ * cache fits, and the native backend runs <code>git gc --auto</code> on each
+ * clone it updates.
+ * </p>
+ * <p>
+ * With <code>gitFetchSharedCache</code> set to <code>true</code> several
+ * builds may share the same <code>fetchCacheLocation</code>. Each clone is
+ * then guarded by a file lock next to it; updating a clone and checking out a
+ * tag hold the lock exclusively, while exports straight from the object
+ * database share it.
+ * </p>
+ * <p>
+ * With <code>gitFetchRepair</code> set to <code>true</code>, whatever an
+ * interrupted clone, fetch or checkout left behind (lock files, partial packs,
+ * a corrupt index, refs to missing objects, missing metadata) is removed or
+ * restored before a clone is updated, keeping all complete data. The
+ * following fetch then only transfers what is missing instead of failing or
+ * requiring a new clone.
+ * </p>
+ * <p>
+ * Setting <code>gitFetchMacros</code> to <code>true</code> generates the
+ * common Git operations as <code>macrodef</code>s, which the targets of a
+ * repository or tag invoke directly instead of by <code>antcall</code>, each
+ * of which copies the complete project. Only the targets of repositories and
+ * tags remain <code>antcall</code>s, and only the first call of each.
+ * </p>
+ * <p>
+ * Setting <code>gitFetchTimingReport</code> to a file writes a JSON report of
+ * the duration, bytes transferred and cache hit or miss of each clone, fetch,
+ * checkout and copy step, with totals per repository and per element, when
+ * the fetch script finishes.
+ * </p>
+ * <p>
+ * Map file entries share one clone if their repository locations only differ
+ * in protocol, user, default port, case of the host name or a trailing
+ * <code>/</code> or <code>.git</code>. Further equivalent locations, e.g. of
+ * mirrors, may be listed in a file named by <code>gitFetchRepoAliases</code>,
+ * one <code>alias = location</code> pair per line. Clones which earlier
+ * builds kept under a directory named after the location as written are
+ * moved to the directory of the shared clone unless that already exists.
+ * </p>
+ * <p>
+ * If <code>gitFetchMirrors</code> names a file listing mirrors of
+ * repositories, one <code>location = mirror...</code> line per repository,
+ * the ref advertisements of the mirrors and of the repository itself are
+ * requested before the repository is fetched. It is fetched from the fastest
+ * that responds, and from the next if that fails. The clone keeps the
+ * repository location as its remote.
+ * </p>
+ * <p>
+ * If <code>gitFetchLockOutput</code> names a lock file, the commit and tree
+ * (or blob) id each map file entry resolved to are recorded in it. A later
+ * build given that file as <code>gitFetchLockInput</code> retrieves the
+ * recorded commits instead of the tags and does not contact the remote
+ * repositories at all if the local clones already contain them.
+ * </p>
+ * <p>
+ * If <code>gitFetchBundles</code> names a directory of Git bundle files, each
+ * clone is seeded or updated from the bundle named like the clone (e.g.
+ * <code>host_proj.bundle</code>) before the remote repository is contacted.
+ * With <code>gitFetchOffline</code> set to <code>true</code> remote
+ * repositories are never contacted and the build fails as soon as a revision
+ * to retrieve is missing from a clone. Setting
+ * <code>gitFetchBundleOutput</code> to a directory writes such a bundle for
+ * each repository, containing exactly the revisions retrieved by the build.
+ * Elements retrieved from the default branch are neither checked nor bundled.
+ * </p>
+ * <p>
+ * With <code>gitFetchQualifiers</code> set to <code>true</code> the version
+ * qualifier of each element is the time of the last commit changing its path,
+ * found in a single history walk per tag of a repository, instead of the map
+ * file tag. The qualifiers are written to the
+ * <code>pluginVersions.properties</code> and
+ * <code>featureVersions.properties</code> files of the build directory, which
+ * PDE Build reads for <code>qualifier=context</code>.
+ * </p>
+ * <p>
+ * The fetch cache can be filled ahead of a build with the
+ * {@link PrewarmApplication}, which updates the clones of all Git entries of
+ * a directory of map files in parallel.
+ * </p>
  */
 @SuppressWarnings("restriction")
 public class GITFetchTaskFactory implements IFetchFactory {
@@ -68,14 +213,109 @@ public class GITFetchTaskFactory implements IFetchFactory {
 
 	private static final String TARGET_GET_FILE_FROM_REPO = "GitFetchFileFromLocalRepo"; //$NON-NLS-1$
 
+	private static final String TARGET_GET_FILES_FROM_REPO = "GitFetchFilesFromLocalRepo"; //$NON-NLS-1$
+
 	private static final String TARGET_CLONE_REPO = "GitCloneRepoToLocalRepo"; //$NON-NLS-1$
 
 	private static final String TARGET_UPDATE_REPO = "GitUpdateLocalRepo"; //$NON-NLS-1$
 
 	private static final String TARGET_CHECKOUT_TAG = "GitCheckoutTagInLocalRepo"; //$NON-NLS-1$
 
+	private static final String TARGET_INIT_REPO = "GitInitLocalRepo"; //$NON-NLS-1$
+
+	private static final String TARGET_FETCH_TAGS = "GitFetchTagsToLocalRepo"; //$NON-NLS-1$
+
+	private static final String TARGET_FETCH_ALL = "GitFetchAllToLocalRepo"; //$NON-NLS-1$
+
+	private static final String TARGET_SPARSE_CHECKOUT = "GitSetSparseCheckoutInLocalRepo"; //$NON-NLS-1$
+
+	private static final String TARGET_INIT_OBJECT_POOL = "GitInitObjectPool"; //$NON-NLS-1$
+
+	private static final String TARGET_DEPOSIT_OBJECTS = "GitDepositObjectsToPool"; //$NON-NLS-1$
+
+	private static final String TARGET_REPACK_REPO = "GitRepackLocalRepo"; //$NON-NLS-1$
+
+	private static final String TARGET_WRITE_STAMP = "GitWriteElementStamp"; //$NON-NLS-1$
+
+	private static final String TARGET_RECORD_LOCK = "GitRecordLockEntry"; //$NON-NLS-1$
+
+	private static final String TARGET_COMPACT_REPO = "GitCompactLocalRepo"; //$NON-NLS-1$
+
 	private static final String SEPARATOR = ","; //$NON-NLS-1$
 
+	// tasks of the in-process JGit backend
+	private static final String TASK_FETCH = "egit.fetch"; //$NON-NLS-1$
+
+	private static final String TASK_CHECKOUT = "egit.checkout"; //$NON-NLS-1$
+
+	private static final String TASK_EXPORT = "egit.export"; //$NON-NLS-1$
+
+	private static final String TASK_STAMP = "egit.stamp"; //$NON-NLS-1$
+
+	private static final String TASK_CHECK_STAMP = "egit.checkstamp"; //$NON-NLS-1$
+
+	private static final String TASK_LOCK = "egit.lock"; //$NON-NLS-1$
+
+	private static final String TASK_LOCKED = "egit.locked"; //$NON-NLS-1$
+
+	private static final String TASK_CHECK_TAGS = "egit.checktags"; //$NON-NLS-1$
+
+	private static final String TASK_CHECK_REMOTE = "egit.checkremote"; //$NON-NLS-1$
+
+	private static final String TASK_CACHE = "egit.cache"; //$NON-NLS-1$
+
+	private static final String TASK_REPOSITORY_LOCK = "egit.repolock"; //$NON-NLS-1$
+
+	private static final String TASK_TIMING = "egit.timing"; //$NON-NLS-1$
+
+	private static final String TASK_WHEN = "egit.when"; //$NON-NLS-1$
+
+	private static final String TASK_SEED = "egit.seed"; //$NON-NLS-1$
+
+	private static final String TASK_BUNDLE = "egit.bundle"; //$NON-NLS-1$
+
+	private static final String TASK_OFFLINE = "egit.offline"; //$NON-NLS-1$
+
+	private static final String TASK_COPY = "egit.copy"; //$NON-NLS-1$
+
+	private static final String TASK_QUALIFIERS = "egit.qualifiers"; //$NON-NLS-1$
+
+	private static final String TASK_SCHEDULE = "egit.schedule"; //$NON-NLS-1$
+
+	private static final String TASK_REPAIR = "egit.repair"; //$NON-NLS-1$
+
+	private static final String TASK_MIRRORS = "egit.mirrors"; //$NON-NLS-1$
+
+	private static final String TASK_REPOSITORIES = "egit.repositories"; //$NON-NLS-1$
+
+	// durations of the concurrent targets, kept in the fetch cache
+	private static final String FILE_FETCH_HISTORY = "fetchHistory.properties"; //$NON-NLS-1$
+
+	// revision last checked out in a local clone, kept in its .git directory
+	private static final String FILE_CHECKOUT = "fetchfactory-checkout"; //$NON-NLS-1$
+
+	// files PDE Build reads the qualifiers for qualifier=context from
+	private static final String FILE_PLUGIN_VERSIONS = "pluginVersions.properties"; //$NON-NLS-1$
+
+	private static final String FILE_FEATURE_VERSIONS = "featureVersions.properties"; //$NON-NLS-1$
+
+	// suffixes of the marker properties used by the fetch plan targets
+	private static final String SUFFIX_DONE = ".done"; //$NON-NLS-1$
+
+	private static final String SUFFIX_COMPLETE = ".complete"; //$NON-NLS-1$
+
+	private static final String SUFFIX_REVISION = ".revision"; //$NON-NLS-1$
+
+	private static final String SUFFIX_LOCKED = ".locked"; //$NON-NLS-1$
+
+	private static final String SUFFIX_REPO = ".repo"; //$NON-NLS-1$
+
+	private static final String SUFFIX_CHECKED_OUT = ".checkedOut"; //$NON-NLS-1$
+
+	private static final String SUFFIX_TAGS = ".tags"; //$NON-NLS-1$
+
+	private static final String SUFFIX_FORMER = ".former"; //$NON-NLS-1$
+
 	// Git specific keys used in the map being passed around.
 	private static final String KEY_REPO = "repo"; //$NON-NLS-1$
 
@@ -83,9 +323,17 @@ public class GITFetchTaskFactory implements IFetchFactory {
 
 	private static final String KEY_PREBUILT = "prebuilt"; //$NON-NLS-1$
 
+	private static final String KEY_LOCAL_REPO = "localRepo"; //$NON-NLS-1$
+
+	private static final String KEY_MIRRORS = "mirrors"; //$NON-NLS-1$
+
+	private static final String KEY_FORMER_LOCAL_REPO = "formerLocalRepo"; //$NON-NLS-1$
+
 	// Properties used in the Git part of the scripts
 	private static final String PROP_DESTINATIONFOLDER = "destinationFolder"; //$NON-NLS-1$
 
+	private static final String PROP_BUILD_DIRECTORY = "buildDirectory"; //$NON-NLS-1$
+
 	private static final String PROP_GITREPO = "gitRepo"; //$NON-NLS-1$
 
 	private static final String PROP_GITREPO_LOCAL_PATH = "gitRepoLocalPath"; //$NON-NLS-1$
@@ -94,10 +342,44 @@ public class GITFetchTaskFactory implements IFetchFactory {
 
 	private static final String PROP_FILE = "file"; //$NON-NLS-1$
 
+	private static final String PROP_FILES = "files"; //$NON-NLS-1$
+
 	private static final String PROP_TAG = "tag"; //$NON-NLS-1$
 
 	private static final String PROP_FILETOCHECK = "fileToCheck"; //$NON-NLS-1$
 
+	private static final String PROP_GITTAGS = "gitTags"; //$NON-NLS-1$
+
+	private static final String PROP_GITREFSPECS = "gitRefSpecs"; //$NON-NLS-1$
+
+	private static final String PROP_SHALLOW_FETCH_FAILED = "gitShallowFetchFailed"; //$NON-NLS-1$
+
+	private static final String PROP_GITSPARSEPATHS = "gitSparsePaths"; //$NON-NLS-1$
+
+	private static final String PROP_GITOBJECTPOOL = "gitObjectPool"; //$NON-NLS-1$
+
+	private static final String PROP_GITEXPORTCACHE = "gitExportCache"; //$NON-NLS-1$
+
+	private static final String PROP_GITSTAMP = "gitStamp"; //$NON-NLS-1$
+
+	private static final String SUFFIX_STAMP_FILE = ".gitstamp"; //$NON-NLS-1$
+
+	private static final String PROP_GITPOOLSOURCE = "gitPoolSource"; //$NON-NLS-1$
+
+	private static final String PROP_GITPOOLREFS = "gitPoolRefs"; //$NON-NLS-1$
+
+	private static final String PROP_GITMAPTAG = "gitMapTag"; //$NON-NLS-1$
+
+	// properties passed to the common targets, which become the attributes
+	// of the macros in the macro layout
+	private static final List<String> MACRO_ATTRIBUTES = Arrays.asList(
+			PROP_DESTINATIONFOLDER, PROP_GITREPO, PROP_GITREPO_LOCAL_PATH,
+			PROP_PATH, PROP_FILE, PROP_FILES, PROP_TAG, PROP_FILETOCHECK,
+			PROP_GITTAGS, PROP_GITREFSPECS, PROP_GITSPARSEPATHS, PROP_GITSTAMP,
+			PROP_GITPOOLSOURCE, PROP_GITPOOLREFS, PROP_GITMAPTAG);
+
+	private static final String ARG_FILTER_BLOBS = "--filter=blob:none"; //$NON-NLS-1$
+
 	// copied from FetchScriptGenerator to be independent from changes there
 	public static String PROP_FETCH_CACHE_LOCATION = "fetchCacheLocation"; //$NON-NLS-1$
 
@@ -128,94 +410,406 @@ private void addProjectReference(Map<String, String> entryInfos) {
 	public void addTargets(IAntScript script) {
 		final Map<String, String> params = new HashMap<String, String>(3);
 		final List<String> args = new ArrayList<String>(5);
+		final boolean jgit = FetchOptions.isJGitBackend();
+		final boolean treeExport = FetchOptions.isTreeExport();
+		final boolean sparse = FetchOptions.isSparse();
+		final boolean objectPool = FetchOptions.isObjectPool();
+		final boolean exportCache = FetchOptions.isExportCache();
+		final boolean blobExport = FetchOptions.isBlobExport();
 
 		script.printComment("Start of common Git fetch factory targets."); //$NON-NLS-1$
 
-		// determine if clone git operation should be skipped
-		script.printTargetDeclaration(
-				"GitCheckSkipClone", null, null, null, null); //$NON-NLS-1$
-		printGitRepoBaseLocationDefault(script);
-		printConditionStart(script, "skipClone", null, null); //$NON-NLS-1$
-		script.printStartTag("or"); //$NON-NLS-1$
-		script.incrementIdent();
-		printAvailableFile(script,
-				Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH));
-		printAvailableFile(script, Utils.getPropertyFormat(PROP_FILETOCHECK));
-		script.decrementIdent();
-		script.printEndTag("or"); //$NON-NLS-1$
-		printConditionEnd(script);
-		script.printTargetEnd();
+		// determine if clone git operation should be skipped; macros check
+		// the local repo themselves
+		if (!FetchOptions.isMacros()) {
+			script.printTargetDeclaration(
+					"GitCheckSkipClone", null, null, null, null); //$NON-NLS-1$
+			printGitRepoBaseLocationDefault(script);
+			printConditionStart(script, "skipClone", null, null); //$NON-NLS-1$
+			script.printStartTag("or"); //$NON-NLS-1$
+			script.incrementIdent();
+			printAvailableFile(script,
+					Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH));
+			printIssetProperty(script, Utils
+					.getPropertyFormat(PROP_FILETOCHECK));
+			script.decrementIdent();
+			script.printEndTag("or"); //$NON-NLS-1$
+			printConditionEnd(script);
+			script.printTargetEnd();
+		}
 
 		// clone repo task
-		script.printTargetDeclaration(TARGET_CLONE_REPO,
-				"GitCheckSkipClone", null, "skipClone", null); //$NON-NLS-1$ //$NON-NLS-2$
-		printGitRepoBaseLocationDefault(script);
-		params.put("dir", Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
-		script.printElement("mkdir", params); //$NON-NLS-1$
-		args.add(Utils.getPropertyFormat(PROP_GITREPO));
-		args.add("."); //$NON-NLS-1$
-		printGitTask(script, "clone", args); //$NON-NLS-1$
-		script.printTargetEnd();
+		printOperationStart(script, TARGET_CLONE_REPO, null, null, true);
+		if (jgit) {
+			params.put("repo", ref(PROP_GITREPO)); //$NON-NLS-1$
+			params.put("localRepo", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+			if (objectPool)
+				params.put("objectPool", ref(PROP_GITOBJECTPOOL)); //$NON-NLS-1$
+			script.printElement(TASK_FETCH, params);
+		} else {
+			params.put("dir", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+			script.printElement("mkdir", params); //$NON-NLS-1$
+			if (sparse) {
+				// download blobs only when checked out
+				args.add(ARG_FILTER_BLOBS);
+			}
+			if (sparse || treeExport) {
+				// sparse checkouts are set up first, the tree export never
+				// checks out
+				args.add("--no-checkout"); //$NON-NLS-1$
+			}
+			if (objectPool) {
+				// borrow the objects already in the pool
+				args.add("--reference-if-able"); //$NON-NLS-1$
+				args.add(ref(PROP_GITOBJECTPOOL));
+			}
+			args.add(ref(PROP_GITREPO));
+			args.add("."); //$NON-NLS-1$
+			printGitTask(script, "clone", args); //$NON-NLS-1$
+		}
+		printOperationEnd(script);
 
 		// pull repo task
-		script.printTargetDeclaration(TARGET_UPDATE_REPO, null,
-				Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH),
-				"${fileToCheck}", null); //$NON-NLS-1$
-		printGitRepoBaseLocationDefault(script);
-		args.clear();
-		args.add("--all"); //$NON-NLS-1$
-		printGitTask(script, "fetch", null); //$NON-NLS-1$
-		script.printTargetEnd();
+		printOperationStart(script, TARGET_UPDATE_REPO,
+				ref(PROP_GITREPO_LOCAL_PATH), ref(PROP_FILETOCHECK), false);
+		if (jgit) {
+			params.clear();
+			params.put("localRepo", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+			if (objectPool)
+				params.put("objectPool", ref(PROP_GITOBJECTPOOL)); //$NON-NLS-1$
+			script.printElement(TASK_FETCH, params);
+		} else {
+			args.clear();
+			args.add("--all"); //$NON-NLS-1$
+			printGitTask(script, "fetch", args); //$NON-NLS-1$
+		}
+		printOperationEnd(script);
 
 		// checkout tag task
-		script.printTargetDeclaration(TARGET_CHECKOUT_TAG, null,
-				Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH),
-				"${fileToCheck}", null); //$NON-NLS-1$
-		printGitRepoBaseLocationDefault(script);
-		args.clear();
-		args.add("--force"); //$NON-NLS-1$
-		args.add(Utils.getPropertyFormat(PROP_TAG));
-		printGitTask(script, "checkout", args); //$NON-NLS-1$
-		script.printTargetEnd();
+		printOperationStart(script, TARGET_CHECKOUT_TAG,
+				ref(PROP_GITREPO_LOCAL_PATH), ref(PROP_FILETOCHECK), false);
+		params.clear();
+		params.put("file", getCheckoutRecord(ref(PROP_GITREPO_LOCAL_PATH))); //$NON-NLS-1$
+		params.put("quiet", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("delete", params); //$NON-NLS-1$
+		if (jgit) {
+			params.clear();
+			params.put("localRepo", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+			params.put("tag", ref(PROP_TAG)); //$NON-NLS-1$
+			script.printElement(TASK_CHECKOUT, params);
+		} else {
+			args.clear();
+			args.add("--force"); //$NON-NLS-1$
+			args.add(ref(PROP_TAG));
+			printGitTask(script, "checkout", args); //$NON-NLS-1$
+		}
+		params.clear();
+		params.put("file", getCheckoutRecord(ref(PROP_GITREPO_LOCAL_PATH))); //$NON-NLS-1$
+		params.put("message", ref(PROP_TAG)); //$NON-NLS-1$
+		script.printElement("echo", params); //$NON-NLS-1$
+		printOperationEnd(script);
 
 		// copy an elements from repo to the destination
-		script.printTargetDeclaration(TARGET_GET_ELEMENT_FROM_REPO, null,
-				Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH),
-				"${fileToCheck}", null); //$NON-NLS-1$
-		printGitRepoBaseLocationDefault(script);
+		printOperationStart(script, TARGET_GET_ELEMENT_FROM_REPO,
+				ref(PROP_GITREPO_LOCAL_PATH), ref(PROP_FILETOCHECK), false);
 		params.clear();
-		params.put("todir", Utils.getPropertyFormat(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
-		script.printStartTag("copy", params); //$NON-NLS-1$
-		script.incrementIdent();
-		params.clear();
-		params.put(
-				"dir", Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH) + "/" + Utils.getPropertyFormat(PROP_PATH)); //$NON-NLS-1$ //$NON-NLS-2$
-		script.printElement("fileset", params); //$NON-NLS-1$
-		script.decrementIdent();
-		script.printEndTag("copy"); //$NON-NLS-1$
-		script.printTargetEnd();
+		if (jgit || treeExport) {
+			params.put("localRepo", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+			if (treeExport)
+				params.put("tag", ref(PROP_TAG)); //$NON-NLS-1$
+			if (exportCache) {
+				printExportCacheDefault(script);
+				params.put("cache", ref(PROP_GITEXPORTCACHE)); //$NON-NLS-1$
+				if (FetchOptions.isExportCacheLinks())
+					params.put("links", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			params.put("path", ref(PROP_PATH)); //$NON-NLS-1$
+			params.put("todir", ref(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+			script.printElement(TASK_EXPORT, params);
+		} else if (FetchOptions.getCopyThreadCount() > 1) {
+			// copy large trees with several threads
+			params.put(
+					"dir", ref(PROP_GITREPO_LOCAL_PATH) + "/" + ref(PROP_PATH)); //$NON-NLS-1$ //$NON-NLS-2$
+			params.put("todir", ref(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+			params.put("threads", String.valueOf(FetchOptions //$NON-NLS-1$
+					.getCopyThreadCount()));
+			script.printElement(TASK_COPY, params);
+		} else {
+			params.put("todir", ref(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+			script.printStartTag("copy", params); //$NON-NLS-1$
+			script.incrementIdent();
+			params.clear();
+			params.put(
+					"dir", ref(PROP_GITREPO_LOCAL_PATH) + "/" + ref(PROP_PATH)); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printElement("fileset", params); //$NON-NLS-1$
+			script.decrementIdent();
+			script.printEndTag("copy"); //$NON-NLS-1$
+		}
+		printOperationEnd(script);
 
 		// copy a file from repo to the destination
-		script.printTargetDeclaration(TARGET_GET_FILE_FROM_REPO, null,
-				Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH),
-				"${fileToCheck}", null); //$NON-NLS-1$
-		printGitRepoBaseLocationDefault(script);
+		printOperationStart(script, TARGET_GET_FILE_FROM_REPO,
+				ref(PROP_GITREPO_LOCAL_PATH), ref(PROP_FILETOCHECK), false);
 		params.clear();
-		params.put(
-				"file", Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH) + "/" + Utils.getPropertyFormat(PROP_PATH)); //$NON-NLS-1$ //$NON-NLS-2$
-		params.put(
-				"tofile", Utils.getPropertyFormat(PROP_DESTINATIONFOLDER) + "/" + Utils.getPropertyFormat(PROP_FILE)); //$NON-NLS-1$ //$NON-NLS-2$
-		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
-		script.printElement("copy", params); //$NON-NLS-1$
-		script.printTargetEnd();
+		if (blobExport) {
+			// read the blob without a checkout
+			params.put("localRepo", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+			params.put("tag", ref(PROP_TAG)); //$NON-NLS-1$
+			if (exportCache) {
+				printExportCacheDefault(script);
+				params.put("cache", ref(PROP_GITEXPORTCACHE)); //$NON-NLS-1$
+				if (FetchOptions.isExportCacheLinks())
+					params.put("links", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			params.put("path", ref(PROP_PATH)); //$NON-NLS-1$
+			params.put(
+					"tofile", ref(PROP_DESTINATIONFOLDER) + "/" + ref(PROP_FILE)); //$NON-NLS-1$ //$NON-NLS-2$
+			params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printElement(TASK_EXPORT, params);
+		} else {
+			params.put(
+					"file", ref(PROP_GITREPO_LOCAL_PATH) + "/" + ref(PROP_PATH)); //$NON-NLS-1$ //$NON-NLS-2$
+			params.put(
+					"tofile", ref(PROP_DESTINATIONFOLDER) + "/" + ref(PROP_FILE)); //$NON-NLS-1$ //$NON-NLS-2$
+			params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printElement("copy", params); //$NON-NLS-1$
+		}
+		printOperationEnd(script);
+
+		// copy several files of a path from repo to the destination
+		printOperationStart(script, TARGET_GET_FILES_FROM_REPO,
+				ref(PROP_GITREPO_LOCAL_PATH), null, false);
+		params.clear();
+		if (blobExport) {
+			// read all blobs in one go without a checkout
+			params.put("localRepo", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+			params.put("tag", ref(PROP_TAG)); //$NON-NLS-1$
+			if (exportCache) {
+				printExportCacheDefault(script);
+				params.put("cache", ref(PROP_GITEXPORTCACHE)); //$NON-NLS-1$
+				if (FetchOptions.isExportCacheLinks())
+					params.put("links", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+			}
+			params.put("path", ref(PROP_PATH)); //$NON-NLS-1$
+			params.put("files", ref(PROP_FILES)); //$NON-NLS-1$
+			params.put("todir", ref(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+			params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printElement(TASK_EXPORT, params);
+		} else {
+			params.put("todir", ref(PROP_DESTINATIONFOLDER)); //$NON-NLS-1$
+			script.printStartTag("copy", params); //$NON-NLS-1$
+			script.incrementIdent();
+			params.clear();
+			params.put(
+					"dir", ref(PROP_GITREPO_LOCAL_PATH) + "/" + ref(PROP_PATH)); //$NON-NLS-1$ //$NON-NLS-2$
+			params.put("includes", ref(PROP_FILES)); //$NON-NLS-1$
+			script.printElement("fileset", params); //$NON-NLS-1$
+			script.decrementIdent();
+			script.printEndTag("copy"); //$NON-NLS-1$
+		}
+		printOperationEnd(script);
+
+		if (FetchOptions.isShallow()) {
+			printShallowFetchTargets(script, jgit, sparse, objectPool);
+		}
+
+		if (objectPool && !jgit) {
+			printObjectPoolTargets(script);
+		}
+
+		if (FetchOptions.isStamps()) {
+			// record the retrieved revision next to the element
+			// macros are only called with a stamp
+			printOperationStart(script, TARGET_WRITE_STAMP, FetchOptions
+					.isMacros() ? null : PROP_GITSTAMP,
+					ref(PROP_FILETOCHECK), false);
+			params.clear();
+			params.put("localRepo", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+			params.put("repo", ref(PROP_GITREPO)); //$NON-NLS-1$
+			params.put("tag", ref(PROP_GITMAPTAG)); //$NON-NLS-1$
+			params.put("revision", ref(PROP_TAG)); //$NON-NLS-1$
+			params.put("path", ref(PROP_PATH)); //$NON-NLS-1$
+			params.put("file", ref(PROP_GITSTAMP)); //$NON-NLS-1$
+			script.printElement(TASK_STAMP, params);
+			printOperationEnd(script);
+		}
+
+		final String lockOutput = FetchOptions.getLockOutput();
+		if (lockOutput != null) {
+			// record the revision the map file entry resolved to
+			printOperationStart(script, TARGET_RECORD_LOCK,
+					ref(PROP_GITREPO_LOCAL_PATH), null, false);
+			params.clear();
+			params.put("localRepo", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+			params.put("repo", ref(PROP_GITREPO)); //$NON-NLS-1$
+			params.put("tag", ref(PROP_GITMAPTAG)); //$NON-NLS-1$
+			params.put("revision", ref(PROP_TAG)); //$NON-NLS-1$
+			params.put("path", ref(PROP_PATH)); //$NON-NLS-1$
+			params.put("file", lockOutput); //$NON-NLS-1$
+			script.printElement(TASK_LOCK, params);
+			printOperationEnd(script);
+		}
+
+		if (FetchOptions.getCacheSize() != null && !jgit) {
+			// pack loose objects accumulated by repeated fetches
+			printOperationStart(script, TARGET_COMPACT_REPO,
+					ref(PROP_GITREPO_LOCAL_PATH), ref(PROP_FILETOCHECK), false);
+			args.clear();
+			args.add("--auto"); //$NON-NLS-1$
+			args.add("--quiet"); //$NON-NLS-1$
+			printGitTask(script, "gc", args); //$NON-NLS-1$
+			printOperationEnd(script);
+		}
+
+		if (sparse && !jgit) {
+			// limit the work tree to the paths of the map entries
+			printOperationStart(script, TARGET_SPARSE_CHECKOUT,
+					ref(PROP_GITREPO_LOCAL_PATH), ref(PROP_FILETOCHECK), false);
+			args.clear();
+			args.add("set"); //$NON-NLS-1$
+			args.add("--no-cone"); //$NON-NLS-1$
+			printGitTask(script, "sparse-checkout", args, //$NON-NLS-1$
+					ref(PROP_GITSPARSEPATHS), null);
+			printOperationEnd(script);
+		}
 
 		script.printComment("End of common Git fetch factory targets."); //$NON-NLS-1$
+
+		// targets for the elements retrieved by this script
+		final FetchPlan plan = FetchPlan.remove(script);
+		if (plan != null) {
+			printFetchPlanTargets(script, plan);
+		}
+	}
+
+	/**
+	 * Prints the targets fetching only the tags referenced by the map entries.
+	 * The complete repository is fetched if any of the tags cannot be fetched
+	 * individually, e.g. because it is a branch.
+	 */
+	private void printShallowFetchTargets(IAntScript script, boolean jgit,
+			boolean sparse, boolean objectPool) {
+		final Map<String, String> params = new HashMap<String, String>(3);
+		final List<String> args = new ArrayList<String>(5);
+
+		if (jgit) {
+			// the fetch task handles creation and fallback itself
+			printOperationStart(script, TARGET_FETCH_TAGS, null,
+					ref(PROP_FILETOCHECK), false);
+			params.put("repo", ref(PROP_GITREPO)); //$NON-NLS-1$
+			params.put("localRepo", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+			params.put("tags", ref(PROP_GITTAGS)); //$NON-NLS-1$
+			if (objectPool)
+				params.put("objectPool", ref(PROP_GITOBJECTPOOL)); //$NON-NLS-1$
+			script.printElement(TASK_FETCH, params);
+			printOperationEnd(script);
+			return;
+		}
+
+		// create an empty repo instead of a full clone
+		printOperationStart(script, TARGET_INIT_REPO, null, null, true);
+		params.put("dir", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		script.printElement("mkdir", params); //$NON-NLS-1$
+		printGitTask(script, "init", null); //$NON-NLS-1$
+		if (objectPool) {
+			// borrow the objects already in the pool
+			params.clear();
+			params.put("file", ref(PROP_GITREPO_LOCAL_PATH) //$NON-NLS-1$
+					+ "/.git/objects/info/alternates"); //$NON-NLS-1$
+			params.put("message", ref(PROP_GITOBJECTPOOL) //$NON-NLS-1$
+					+ "/objects"); //$NON-NLS-1$
+			script.printElement("echo", params); //$NON-NLS-1$
+		}
+		args.add("add"); //$NON-NLS-1$
+		args.add("origin"); //$NON-NLS-1$
+		args.add(ref(PROP_GITREPO));
+		printGitTask(script, "remote", args); //$NON-NLS-1$
+		printOperationEnd(script);
+
+		// fetch the tags with a depth of one
+		printOperationStart(script, TARGET_FETCH_TAGS,
+				ref(PROP_GITREPO_LOCAL_PATH), ref(PROP_FILETOCHECK), false);
+		args.clear();
+		args.add("--depth"); //$NON-NLS-1$
+		args.add("1"); //$NON-NLS-1$
+		if (sparse)
+			args.add(ARG_FILTER_BLOBS);
+		args.add("origin"); //$NON-NLS-1$
+		printGitTask(script, "fetch", args, //$NON-NLS-1$
+				ref(PROP_GITREFSPECS), "gitShallowFetchResult"); //$NON-NLS-1$
+		printConditionStart(script, PROP_SHALLOW_FETCH_FAILED, null, null);
+		script.printStartTag("not"); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		params.put("arg1", "${gitShallowFetchResult}"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("arg2", "0"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("equals", params); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("not"); //$NON-NLS-1$
+		printConditionEnd(script);
+		params.clear();
+		params.put(PROP_GITREPO_LOCAL_PATH, ref(PROP_GITREPO_LOCAL_PATH));
+		printCall(script, TARGET_FETCH_ALL, params);
+		printOperationEnd(script);
+
+		// fall back to fetching everything
+		printOperationStart(script, TARGET_FETCH_ALL,
+				PROP_SHALLOW_FETCH_FAILED, null, false);
+		args.clear();
+		if (sparse)
+			args.add(ARG_FILTER_BLOBS);
+		args.add("origin"); //$NON-NLS-1$
+		args.add("+refs/heads/*:refs/remotes/origin/*"); //$NON-NLS-1$
+		args.add("+refs/tags/*:refs/tags/*"); //$NON-NLS-1$
+		printGitTask(script, "fetch", args); //$NON-NLS-1$
+		printOperationEnd(script);
+	}
+
+	/**
+	 * Prints the targets maintaining the object pool shared by all clones.
+	 */
+	private void printObjectPoolTargets(IAntScript script) {
+		final Map<String, String> params = new HashMap<String, String>(1);
+		final List<String> args = new ArrayList<String>(4);
+
+		// create the pool as bare repository
+		printOperationStart(script, TARGET_INIT_OBJECT_POOL, null, null, true);
+		params.put("dir", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		script.printElement("mkdir", params); //$NON-NLS-1$
+		args.add("--bare"); //$NON-NLS-1$
+		printGitTask(script, "init", args); //$NON-NLS-1$
+		printOperationEnd(script);
+
+		// copy the objects of a clone into the pool; the refs of each clone
+		// are kept in a separate namespace so the pool retains all objects
+		printOperationStart(script, TARGET_DEPOSIT_OBJECTS, null,
+				ref(PROP_FILETOCHECK), false);
+		args.clear();
+		args.add("--quiet"); //$NON-NLS-1$
+		args.add("--no-tags"); //$NON-NLS-1$
+		args.add(ref(PROP_GITPOOLSOURCE));
+		args.add("+refs/*:" + ref(PROP_GITPOOLREFS)); //$NON-NLS-1$
+		printGitTask(script, "fetch", args); //$NON-NLS-1$
+		printOperationEnd(script);
+
+		// drop the objects of a clone which are available from the pool
+		printOperationStart(script, TARGET_REPACK_REPO, null,
+				ref(PROP_FILETOCHECK), false);
+		args.clear();
+		args.add("-a"); //$NON-NLS-1$
+		args.add("-d"); //$NON-NLS-1$
+		args.add("-l"); //$NON-NLS-1$
+		args.add("-q"); //$NON-NLS-1$
+		printGitTask(script, "repack", args); //$NON-NLS-1$
+		printOperationEnd(script);
 	}
 
 	/**
 	 * Generates a path where the specified repository should be cloned to.
 	 * 
 	 * @param repoLocation
+	 *            the repository identity as computed by
+	 *            {@link RepositoryIdentity}
 	 * @return local file system path
 	 */
 	private String asLocalRepo(String repoLocation) {
@@ -282,13 +876,15 @@ public void generateRetrieveElementCall(Map entryInfos, IPath destination,
 		final boolean prebuilt = Boolean.valueOf(
 				(String) entryInfos.get(KEY_PREBUILT)).booleanValue();
 		final String gitRepo = (String) entryInfos.get(KEY_REPO);
-		final String localGitRepo = asLocalRepo(gitRepo);
+		final String localGitRepo = (String) entryInfos.get(KEY_LOCAL_REPO);
 		final String path = (String) entryInfos.get(KEY_PATH);
 		final String tag = (String) entryInfos
 				.get(IFetchFactory.KEY_ELEMENT_TAG);
 
-		// set required property defaults
-		printGitRepoBaseLocationDefault(script);
+		// set required property defaults; the targets of the macro layout set
+		// them once per target instead of once per element
+		if (!FetchOptions.isMacros())
+			printGitRepoBaseLocationDefault(script);
 
 		final String gitCopyTarget;
 		IPath locationToCheck = null;
@@ -316,9 +912,9 @@ public void generateRetrieveElementCall(Map entryInfos, IPath destination,
 			gitCopyTarget = TARGET_GET_FILE_FROM_REPO;
 		} else {
 			params.put(PROP_DESTINATIONFOLDER, destination.toString());
-			if (path != null) {
-				params.put(PROP_PATH, new Path(path).makeRelative().toString());
-			}
+			// an element without path is located at the repository root
+			params.put(PROP_PATH, path != null ? new Path(path).makeRelative()
+					.toString() : ""); //$NON-NLS-1$
 
 			// check for existence of element descriptor
 			if (type.equals(ELEMENT_TYPE_FEATURE)) {
@@ -340,64 +936,111 @@ public void generateRetrieveElementCall(Map entryInfos, IPath destination,
 		}
 
 		// check for availability of element in destination
+		String propertyToCheck = null;
+		final List<String> filesToCheck = new ArrayList<String>(2);
 		if (locationToCheck != null) {
-			params.put(PROP_FILETOCHECK, locationToCheck.toString());
-			printAvailableTask(locationToCheck.toString(),
-					locationToCheck.toString(), script);
+			propertyToCheck = locationToCheck.toString();
+			params.put(PROP_FILETOCHECK, propertyToCheck);
+			filesToCheck.add(locationToCheck.toString());
 			// plug-ins/fragments may not have an xml descriptor anymore, thus
 			// also check for MANIFEST.MF
 			if (!prebuilt
 					&& (type.equals(IFetchFactory.ELEMENT_TYPE_PLUGIN) || type
 							.equals(IFetchFactory.ELEMENT_TYPE_FRAGMENT))) {
-				printAvailableTask(locationToCheck.toString(), destination
-						.append(Constants.BUNDLE_FILENAME_DESCRIPTOR)
-						.toString(), script);
+				filesToCheck.add(destination.append(
+						Constants.BUNDLE_FILENAME_DESCRIPTOR).toString());
+			}
+			if (tag != null && FetchOptions.isStamps()) {
+				final IPath stamp = prebuilt ? locationToCheck : destination;
+				params.put(PROP_GITSTAMP, stamp.toString() + SUFFIX_STAMP_FILE);
+				params.put(PROP_GITREPO, gitRepo);
 			}
 		}
 
-		// clone the Git repo to a local repo and checkout the tag
-		printCloneRepoAndCheckoutTagTasks(script, gitRepo, localGitRepo, tag,
-				locationToCheck);
-
-		// copy the content into the destination
-		script.printAntCallTask(gitCopyTarget, true, params);
+		// clone the Git repo to a local repo, checkout the tag and copy the
+		// content into the destination
+		final FetchPlan.Element element = FetchPlan.get(script).addElement(
+				gitRepo, localGitRepo, tag, params.get(PROP_PATH),
+				gitCopyTarget, params, propertyToCheck, filesToCheck);
+		setRepositoryInfos(element, entryInfos);
+		if (tag != null && !prebuilt && FetchOptions.isQualifiers()) {
+			final String versions = type.equals(ELEMENT_TYPE_FEATURE) ? FILE_FEATURE_VERSIONS
+					: FILE_PLUGIN_VERSIONS;
+			element.setQualifier(Utils.getPropertyFormat(PROP_BUILD_DIRECTORY)
+					+ '/' + versions, (String) entryInfos.get(KEY_ELEMENT_NAME));
+		}
+		printFetchPlanCalls(script, element);
 	}
 
 	@Override
 	public void generateRetrieveFilesCall(final Map entryInfos,
 			IPath destination, final String[] files, IAntScript script) {
 		final String gitRepo = (String) entryInfos.get(KEY_REPO);
-		final String localGitRepo = asLocalRepo(gitRepo);
+		final String localGitRepo = (String) entryInfos.get(KEY_LOCAL_REPO);
 		final String path = (String) entryInfos.get(KEY_PATH);
 		final String tag = (String) entryInfos
 				.get(IFetchFactory.KEY_ELEMENT_TAG);
 
-		// set required property defaults
-		printGitRepoBaseLocationDefault(script);
+		// set required property defaults; the targets of the macro layout set
+		// them once per target instead of once per element
+		if (!FetchOptions.isMacros())
+			printGitRepoBaseLocationDefault(script);
 
-		// clone the Git repo to a local repo and checkout the tag
-		printCloneRepoAndCheckoutTagTasks(script, gitRepo, localGitRepo, tag,
-				null);
+		if (files.length == 0)
+			return;
 
-		// copy files to destination
-		final Map<String, String> params = new HashMap<String, String>(4);
+		// copy all files to destination in one go
+		final String basePath = path != null ? path : (String) entryInfos
+				.get(KEY_ELEMENT_NAME);
+		final StringBuffer fileList = new StringBuffer();
 		for (int i = 0; i < files.length; i++) {
-			final String file = files[i];
-			IPath filePath;
-			if (path != null) {
-				filePath = new Path(path).append(file);
-			} else {
-				filePath = new Path((String) entryInfos.get(KEY_ELEMENT_NAME))
-						.append(file);
-			}
-
-			params.clear();
-			params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
-			params.put(PROP_DESTINATIONFOLDER, destination.toString());
-			params.put(PROP_PATH, filePath.toString());
-			params.put(PROP_FILE, file);
-			script.printAntCallTask(TARGET_GET_FILE_FROM_REPO, true, params);
+			if (i > 0)
+				fileList.append(SEPARATOR);
+			fileList.append(files[i]);
 		}
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
+		params.put(PROP_DESTINATIONFOLDER, destination.toString());
+		params.put(PROP_PATH, new Path(basePath).makeRelative().toString());
+		params.put(PROP_FILES, fileList.toString());
+		final FetchPlan.Element element = FetchPlan.get(script).addElement(
+				gitRepo, localGitRepo, tag, params.get(PROP_PATH),
+				TARGET_GET_FILES_FROM_REPO, params, null,
+				Collections.<String> emptyList());
+		setRepositoryInfos(element, entryInfos);
+
+		// clone the Git repo to a local repo, checkout the tag (if still
+		// required) and copy the files
+		printFetchPlanCalls(script, element);
+	}
+
+	/**
+	 * Prints the call updating the local clone of a map file entry with the
+	 * tag of the entry, without retrieving the element itself. Used to fill
+	 * the fetch cache ahead of a build.
+	 *
+	 * @param entryInfos
+	 *            the entry as parsed by {@link #parseMapFileEntry}
+	 * @param script
+	 *            the script to print to
+	 */
+	public void generateUpdateCall(Map entryInfos, IAntScript script) {
+		final String gitRepo = (String) entryInfos.get(KEY_REPO);
+		final String localGitRepo = (String) entryInfos.get(KEY_LOCAL_REPO);
+		final String path = (String) entryInfos.get(KEY_PATH);
+		final String tag = (String) entryInfos
+				.get(IFetchFactory.KEY_ELEMENT_TAG);
+
+		if (!FetchOptions.isMacros())
+			printGitRepoBaseLocationDefault(script);
+
+		final Map<String, String> params = new HashMap<String, String>(1);
+		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
+		final FetchPlan.Element element = FetchPlan.get(script).addElement(
+				gitRepo, localGitRepo, tag, path != null ? path : "", null, //$NON-NLS-1$
+				params, null, Collections.<String> emptyList());
+		setRepositoryInfos(element, entryInfos);
+		printUpdateCalls(script, element.getGroup().getRepository());
 	}
 
 	@SuppressWarnings("unchecked")
@@ -453,6 +1096,31 @@ public void parseMapFileEntry(String repoSpecificentry,
 						&& overrideTag.trim().length() != 0 ? overrideTag
 						: table.get(IFetchFactory.KEY_ELEMENT_TAG)));
 		entryInfos.put(KEY_REPO, table.get(KEY_REPO));
+		try {
+			final String localRepo = asLocalRepo(RepositoryIdentity.resolve(
+					table.get(KEY_REPO), FetchOptions.getRepoAliases()));
+			entryInfos.put(KEY_LOCAL_REPO, localRepo);
+			// where builds kept the clone before locations were normalized
+			final String formerLocalRepo = asLocalRepo(table.get(KEY_REPO));
+			if (!formerLocalRepo.equals(localRepo))
+				entryInfos.put(KEY_FORMER_LOCAL_REPO, formerLocalRepo);
+		} catch (final IOException e) {
+			final String message = NLS.bind(Messages.error_readRepoAliases,
+					FetchOptions.getRepoAliases(), e.getMessage());
+			throw new CoreException(new Status(IStatus.ERROR,
+					IPDEBuildConstants.PI_PDEBUILD, 1, message, e));
+		}
+		try {
+			final List<String> mirrors = RepositoryMirrors.get(table
+					.get(KEY_REPO), FetchOptions.getMirrors());
+			if (!mirrors.isEmpty())
+				entryInfos.put(KEY_MIRRORS, mirrors);
+		} catch (final IOException e) {
+			final String message = NLS.bind(Messages.error_readRepoMirrors,
+					FetchOptions.getMirrors(), e.getMessage());
+			throw new CoreException(new Status(IStatus.ERROR,
+					IPDEBuildConstants.PI_PDEBUILD, 1, message, e));
+		}
 		if (table.get(KEY_PATH) != null)
 			entryInfos.put(KEY_PATH, new Path(table.get(KEY_PATH))
 					.makeRelative().removeTrailingSeparator().toString()); // sanitize
@@ -465,6 +1133,17 @@ private void printAvailableFile(IAntScript script, String file) {
 		script.println("<available file=\"" + file + "\"/>"); //$NON-NLS-1$ //$NON-NLS-2$
 	}
 
+	private void printIssetProperty(IAntScript script, String property) {
+		script.println("<isset property=\"" + property + "\"/>"); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	private void printProperty(IAntScript script, String name, String value) {
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("name", name); //$NON-NLS-1$
+		params.put("value", value); //$NON-NLS-1$
+		script.printElement("property", params); //$NON-NLS-1$
+	}
+
 	/**
 	 * Print the <code>available</code> Ant task to this script. This task sets
 	 * a property value if the given file exists at runtime.
@@ -482,43 +1161,6 @@ private void printAvailableTask(String property, String file,
 		script.printElement("available", params); //$NON-NLS-1$
 	}
 
-	private void printCloneRepoAndCheckoutTagTasks(IAntScript script,
-			String gitRepo, String localGitRepo, String tag,
-			IPath locationToCheckIfPluginLocal) {
-		// determine availability of local repo (done to avoid unnecessary Git
-		// operations)
-		printAvailableTask(localGitRepo, localGitRepo, script);
-
-		// pull if already cloned
-		final Map<String, String> params = new HashMap<String, String>(5);
-		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
-		if (locationToCheckIfPluginLocal != null)
-			params.put(PROP_FILETOCHECK,
-					locationToCheckIfPluginLocal.toString());
-		script.printAntCallTask(TARGET_UPDATE_REPO, true, params);
-
-		// clone if not cloned
-		params.put(PROP_GITREPO, gitRepo);
-		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
-		if (locationToCheckIfPluginLocal != null)
-			params.put(PROP_FILETOCHECK,
-					locationToCheckIfPluginLocal.toString());
-		script.printAntCallTask(TARGET_CLONE_REPO, true, params);
-
-		// re-determine availability of local repo (done to avoid unnecessary
-		// Git operations)
-		printAvailableTask(localGitRepo, localGitRepo, script);
-
-		// checkout the tag
-		params.clear();
-		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
-		params.put(PROP_TAG, tag);
-		if (locationToCheckIfPluginLocal != null)
-			params.put(PROP_FILETOCHECK,
-					locationToCheckIfPluginLocal.toString());
-		script.printAntCallTask(TARGET_CHECKOUT_TAG, true, params);
-	}
-
 	private void printConditionEnd(IAntScript script) {
 		script.decrementIdent();
 		script.printEndTag("condition"); //$NON-NLS-1$
@@ -536,27 +1178,1123 @@ private void printConditionStart(IAntScript script, String property,
 		script.incrementIdent();
 	}
 
-	private void printGitRepoBaseLocationDefault(IAntScript script) {
-		script.println("<property name=\"" + PROP_FETCH_CACHE_LOCATION + "\" value=\"" + DEFAULT_FETCH_CACHE_LOCATION + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	/**
+	 * Prints the calls retrieving the specified element. The repository is
+	 * updated by the first call only; later calls are skipped using marker
+	 * properties. In parallel mode the first call updates all repositories of
+	 * the plan at once. The target of the group is called by every element,
+	 * with the guard property of the element set, and checks out the tag only
+	 * if the element is missing.
+	 */
+	private void printFetchPlanCalls(IAntScript script,
+			FetchPlan.Element element) {
+		printUpdateCalls(script, element.getGroup().getRepository());
+		final Map<String, String> params = new HashMap<String, String>(1);
+		params.put(element.getGuardProperty(), "true"); //$NON-NLS-1$
+		script.printAntCallTask(element.getGroup().getTargetName(), true,
+				params);
 	}
 
-	private void printGitTask(IAntScript script, String commandName, List args) {
-		// print command
-		final StringBuffer m = new StringBuffer();
-		m.append("[GIT] "); //$NON-NLS-1$
-		m.append(Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH));
-		m.append(" >> git ").append(commandName); //$NON-NLS-1$
-		if (args != null) {
-			for (int i = 0; i < args.size(); i++) {
-				m.append(" ").append(args.get(i)); //$NON-NLS-1$
-			}
-		}
-		script.printEchoTask(null, m.toString(), "info"); //$NON-NLS-1$
+	/**
+	 * Prints the calls updating the local clone of the specified repository,
+	 * or all repositories of the plan in parallel mode. The repositories the
+	 * called targets open are kept open until the fetch script has finished.
+	 */
+	private void printUpdateCalls(IAntScript script,
+			FetchPlan.Repository repository) {
+		final FetchPlan plan = repository.getPlan();
+		script.printElement(TASK_REPOSITORIES,
+				Collections.<String, String> emptyMap());
+		if (FetchOptions.getTimingReport() != null)
+			printTimingTask(script);
+		if (plan.getCacheSize() != null)
+			printPlanCall(script, plan.getCacheTargetName());
+		printPlanCall(script, plan.isParallel() ? plan.getUpdateTargetName()
+				: repository.getTargetName());
+	}
 
-		final Map<String, String> params = new HashMap<String, String>(3);
-		params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
-		params.put("dir", Utils.getPropertyFormat(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
-		params.put("failOnError", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+	/**
+	 * Prints the call of a target of a fetch plan, which runs only once. In
+	 * the macro layout the call is skipped without <code>antcall</code>
+	 * copying the project if the target already ran.
+	 */
+	private void printPlanCall(IAntScript script, String target) {
+		if (FetchOptions.isMacros()) {
+			final Map<String, String> params = new HashMap<String, String>(1);
+			params.put("unless", target + SUFFIX_DONE); //$NON-NLS-1$
+			script.printStartTag(TASK_WHEN, params);
+			script.incrementIdent();
+			script.printAntCallTask(target, true, null);
+			script.decrementIdent();
+			script.printEndTag(TASK_WHEN);
+		} else {
+			script.printAntCallTask(target, true, null);
+		}
+		printProperty(script, target + SUFFIX_DONE, "true"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns a reference to a value passed to a common target, which is a
+	 * macro attribute in the macro layout and a property otherwise.
+	 */
+	private String ref(String name) {
+		if (FetchOptions.isMacros() && MACRO_ATTRIBUTES.contains(name))
+			return "@{" + name + "}"; //$NON-NLS-1$ //$NON-NLS-2$
+		return Utils.getPropertyFormat(name);
+	}
+
+	/**
+	 * Starts a common target, or the macro replacing it in the macro layout.
+	 * Conditions follow the <code>if</code> and <code>unless</code>
+	 * attributes of targets, i.e. they name a property.
+	 *
+	 * @param skipClone
+	 *            <code>true</code> to skip the operation if the local repo
+	 *            exists or the file to check is available
+	 */
+	private void printOperationStart(IAntScript script, String name,
+			String ifCondition, String unlessCondition, boolean skipClone) {
+		if (!FetchOptions.isMacros()) {
+			if (skipClone)
+				script.printTargetDeclaration(name, "GitCheckSkipClone", //$NON-NLS-1$
+						null, "skipClone", null); //$NON-NLS-1$
+			else
+				script.printTargetDeclaration(name, null, ifCondition,
+						unlessCondition, null);
+			printGitRepoBaseLocationDefault(script);
+			return;
+		}
+
+		final Map<String, String> params = new HashMap<String, String>(3);
+		params.put("name", name); //$NON-NLS-1$
+		script.printStartTag("macrodef", params); //$NON-NLS-1$
+		script.incrementIdent();
+		for (final String attribute : MACRO_ATTRIBUTES) {
+			params.clear();
+			params.put("name", attribute); //$NON-NLS-1$
+			params.put("default", ""); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printElement("attribute", params); //$NON-NLS-1$
+		}
+		script.printStartTag("sequential"); //$NON-NLS-1$
+		script.incrementIdent();
+		params.clear();
+		if (skipClone) {
+			params.put("unless", ref(PROP_FILETOCHECK)); //$NON-NLS-1$
+			params.put("unlessAvailable", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		} else {
+			if (ifCondition != null)
+				params.put("if", ifCondition); //$NON-NLS-1$
+			if (unlessCondition != null)
+				params.put("unless", unlessCondition); //$NON-NLS-1$
+		}
+		script.printStartTag(TASK_WHEN, params);
+		script.incrementIdent();
+	}
+
+	private void printOperationEnd(IAntScript script) {
+		if (!FetchOptions.isMacros()) {
+			script.printTargetEnd();
+			return;
+		}
+		script.decrementIdent();
+		script.printEndTag(TASK_WHEN);
+		script.decrementIdent();
+		script.printEndTag("sequential"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("macrodef"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Prints the call of a common target, which is invoked directly as macro
+	 * in the macro layout.
+	 */
+	private void printCall(IAntScript script, String name,
+			Map<String, String> params) {
+		if (FetchOptions.isMacros())
+			script.printElement(name, params);
+		else
+			script.printAntCallTask(name, true, params);
+	}
+
+	/**
+	 * Prints the task timing the common targets; it only takes effect the
+	 * first time it runs.
+	 */
+	private void printTimingTask(IAntScript script) {
+		final StringBuffer steps = new StringBuffer();
+		steps.append(TARGET_CLONE_REPO).append("=clone,"); //$NON-NLS-1$
+		steps.append(TARGET_INIT_REPO).append("=clone,"); //$NON-NLS-1$
+		steps.append(TARGET_UPDATE_REPO).append("=fetch,"); //$NON-NLS-1$
+		steps.append(TARGET_FETCH_TAGS).append("=fetch,"); //$NON-NLS-1$
+		steps.append(TARGET_FETCH_ALL).append("=fetch,"); //$NON-NLS-1$
+		steps.append(TARGET_CHECKOUT_TAG).append("=checkout,"); //$NON-NLS-1$
+		steps.append(TARGET_GET_ELEMENT_FROM_REPO).append("=copy,"); //$NON-NLS-1$
+		steps.append(TARGET_GET_FILE_FROM_REPO).append("=copy,"); //$NON-NLS-1$
+		steps.append(TARGET_GET_FILES_FROM_REPO).append("=copy"); //$NON-NLS-1$
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("file", FetchOptions.getTimingReport()); //$NON-NLS-1$
+		params.put("steps", steps.toString()); //$NON-NLS-1$
+		script.printElement(TASK_TIMING, params);
+	}
+
+	/**
+	 * Prints the targets updating the repositories and checking out the tags
+	 * of the specified plan.
+	 */
+	private void printFetchPlanTargets(IAntScript script, FetchPlan plan) {
+		final Map<String, String> params = new HashMap<String, String>(3);
+		for (final FetchPlan.Repository repository : plan.getRepositories()) {
+			final String localGitRepo = repository.getLocalGitRepo();
+
+			// update or clone the repo if any element is missing
+			final String updateTarget = repository.getTargetName();
+			script.printTargetDeclaration(updateTarget, null, null,
+					updateTarget + SUFFIX_DONE, null);
+			printGitRepoBaseLocationDefault(script);
+			printRepositoryLockStart(script, localGitRepo, false);
+			printFormerClonesMove(script, repository);
+			if (!plan.isTreeExport()) {
+				// refs may move, so checkouts are only reused until the next
+				// update
+				params.clear();
+				params.put("file", getCheckoutRecord(localGitRepo)); //$NON-NLS-1$
+				params.put("quiet", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+				script.printElement("delete", params); //$NON-NLS-1$
+			}
+			printLockedRevisions(script, repository.getGroups(), updateTarget
+					+ SUFFIX_COMPLETE);
+			printElementChecks(script, repository.getGroups(), updateTarget
+					+ SUFFIX_COMPLETE, true, false);
+			if (FetchOptions.isRepair()) {
+				printRepairTask(script, repository, updateTarget
+						+ SUFFIX_COMPLETE);
+			}
+			if (FetchOptions.getBundles() != null) {
+				printSeedTask(script, repository, updateTarget
+						+ SUFFIX_COMPLETE);
+			}
+			printTagChecks(script, repository, updateTarget + SUFFIX_COMPLETE);
+			if (plan.isObjectPool()) {
+				printObjectPoolInitCall(script, updateTarget
+						+ SUFFIX_COMPLETE);
+			}
+			printAvailableTask(localGitRepo, localGitRepo, script);
+			params.clear();
+			params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
+			params.put(PROP_FILETOCHECK, updateTarget + SUFFIX_COMPLETE);
+			if (FetchOptions.isOffline()) {
+				printOfflineCheck(script, repository, updateTarget
+						+ SUFFIX_COMPLETE);
+			} else {
+				final List<String> mirrors = repository.getMirrors();
+				String gitRepo = repository.getGitRepo();
+				if (!mirrors.isEmpty()) {
+					gitRepo = Utils.getPropertyFormat(updateTarget
+							+ SUFFIX_REPO);
+					printMirrorsStart(script, repository, mirrors,
+							updateTarget + SUFFIX_REPO, updateTarget
+									+ SUFFIX_COMPLETE);
+				}
+				if (plan.isShallow()) {
+					printShallowFetchCalls(script, repository, gitRepo, params);
+				} else {
+					printCall(script, TARGET_UPDATE_REPO, params);
+					params.put(PROP_GITREPO, gitRepo);
+					printCall(script, TARGET_CLONE_REPO, params);
+				}
+				if (!mirrors.isEmpty())
+					printMirrorsEnd(script);
+			}
+			if (plan.isObjectPool() && !plan.isShallow() && !plan.isSparse()) {
+				// shallow and partial clones lack objects and are not
+				// deposited
+				printObjectPoolDepositCalls(script, updateTarget
+						+ SUFFIX_COMPLETE, localGitRepo);
+			}
+			if (plan.getCacheSize() != null && !FetchOptions.isJGitBackend()) {
+				params.clear();
+				params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
+				params.put(PROP_FILETOCHECK, updateTarget + SUFFIX_COMPLETE);
+				printCall(script, TARGET_COMPACT_REPO, params);
+			}
+			if (plan.isSparse() && !plan.isTreeExport()) {
+				// re-determine availability of local repo after the clone
+				printAvailableTask(localGitRepo, localGitRepo, script);
+				params.put(PROP_GITSPARSEPATHS, asSparsePatterns(repository
+						.getPaths()));
+				printCall(script, TARGET_SPARSE_CHECKOUT, params);
+			}
+			if (FetchOptions.getBundleOutput() != null) {
+				printBundleTask(script, repository);
+			}
+			printRepositoryLockEnd(script);
+			script.printTargetEnd();
+
+			// checkout the tag if the requested element is missing and copy
+			// the requested element only
+			for (final FetchPlan.Group group : repository.getGroups()) {
+				final String checkoutTarget = group.getTargetName();
+				script.printTargetDeclaration(checkoutTarget, null, null, null,
+						null);
+				printGitRepoBaseLocationDefault(script);
+				final boolean checkout = isCheckoutRequired(plan, group);
+				printRepositoryLockStart(script, localGitRepo, !checkout);
+				printLockedRevisions(script, Collections.singletonList(group),
+						null);
+				printElementChecks(script, Collections.singletonList(group),
+						checkoutTarget + SUFFIX_COMPLETE, false, true);
+				printAvailableTask(localGitRepo, localGitRepo, script);
+				if (checkout && group.getTag() != null) {
+					printCheckoutRecordCheck(script, localGitRepo,
+							getRevision(group), checkoutTarget);
+				}
+				if (checkout) {
+					params.clear();
+					params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
+					params.put(PROP_TAG, getRevision(group));
+					params.put(PROP_FILETOCHECK, checkoutTarget
+							+ SUFFIX_COMPLETE);
+					printCall(script, TARGET_CHECKOUT_TAG, params);
+				}
+				for (final FetchPlan.Element element : group.getElements()) {
+					if (element.getCopyTarget() == null)
+						continue;
+					params.clear();
+					params.put("if", element.getGuardProperty()); //$NON-NLS-1$
+					script.printStartTag(TASK_WHEN, params);
+					script.incrementIdent();
+					final Map<String, String> elementParams = new HashMap<String, String>(
+							element.getParams());
+					final String stamp = elementParams.get(PROP_GITSTAMP);
+					if (stamp != null) {
+						printStaleElementDelete(script, element, stamp);
+					}
+					elementParams.put(PROP_TAG, getRevision(group));
+					printCall(script, element.getCopyTarget(), elementParams);
+					if (group.getTag() != null) {
+						elementParams.put(PROP_GITREPO, repository.getGitRepo());
+						elementParams.put(PROP_GITMAPTAG, group.getTag());
+					}
+					if (stamp != null) {
+						printStampWrite(script, element, elementParams);
+					}
+					if (FetchOptions.getLockOutput() != null
+							&& group.getTag() != null) {
+						printCall(script, TARGET_RECORD_LOCK, elementParams);
+					}
+					if (element.getQualifierFile() != null) {
+						printQualifierTask(script, element, localGitRepo);
+					}
+					script.decrementIdent();
+					script.printEndTag(TASK_WHEN);
+				}
+				printRepositoryLockEnd(script);
+				script.printTargetEnd();
+			}
+		}
+
+		// evict unused clones before any repository is updated
+		if (plan.getCacheSize() != null) {
+			printCacheTarget(script, plan);
+		}
+
+		// update all repositories concurrently; the operations on a single
+		// repository remain sequential within its update target
+		if (plan.isParallel()) {
+			final List<String> targets = new ArrayList<String>();
+			final List<String> keys = new ArrayList<String>();
+			for (final FetchPlan.Repository repository : plan
+					.getRepositories()) {
+				targets.add(repository.getTargetName());
+				keys.add(getCloneName(repository));
+			}
+			printParallelTarget(script, plan.getUpdateTargetName(), plan
+					.getThreadCount(), targets, keys);
+		}
+	}
+
+	/**
+	 * Prints the target keeping the fetch cache within its size budget. The
+	 * clones of the specified plan are marked as used.
+	 */
+	private void printCacheTarget(IAntScript script, FetchPlan plan) {
+		final String name = plan.getCacheTargetName();
+		script.printTargetDeclaration(name, null, null, name + SUFFIX_DONE,
+				null);
+		printGitRepoBaseLocationDefault(script);
+		final StringBuffer inUse = new StringBuffer();
+		for (final FetchPlan.Repository repository : plan.getRepositories()) {
+			if (inUse.length() > 0)
+				inUse.append(SEPARATOR);
+			inUse.append(repository.getLocalGitRepo());
+		}
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put("dir", Utils.getPropertyFormat(PROP_FETCH_CACHE_LOCATION)); //$NON-NLS-1$
+		params.put("maxSize", plan.getCacheSize()); //$NON-NLS-1$
+		params.put("inUse", inUse.toString()); //$NON-NLS-1$
+		if (FetchOptions.isExportCache()) {
+			printExportCacheDefault(script);
+			params.put("exportCache", Utils //$NON-NLS-1$
+					.getPropertyFormat(PROP_GITEXPORTCACHE));
+		}
+		script.printElement(TASK_CACHE, params);
+		script.printTargetEnd();
+	}
+
+	/**
+	 * Starts a section of a target holding the lock of a local clone, which
+	 * keeps other builds sharing the fetch cache from modifying the clone
+	 * concurrently. Nothing is printed unless the cache is shared.
+	 *
+	 * @param shared
+	 *            <code>true</code> if the section only reads the object
+	 *            database and may run alongside other readers
+	 */
+	private void printRepositoryLockStart(IAntScript script,
+			String localGitRepo, boolean shared) {
+		if (!FetchOptions.isSharedCache())
+			return;
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("localRepo", localGitRepo); //$NON-NLS-1$
+		if (shared)
+			params.put("shared", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag(TASK_REPOSITORY_LOCK, params);
+		script.incrementIdent();
+	}
+
+	private void printRepositoryLockEnd(IAntScript script) {
+		if (!FetchOptions.isSharedCache())
+			return;
+		script.decrementIdent();
+		script.printEndTag(TASK_REPOSITORY_LOCK);
+	}
+
+	/**
+	 * Prints a target calling the specified targets concurrently. Unless
+	 * disabled, the targets which took longest in previous builds, as recorded
+	 * in the fetch history under the specified keys, are started first.
+	 */
+	private void printParallelTarget(IAntScript script, String name,
+			int threadCount, List<String> targets, List<String> keys) {
+		script.printTargetDeclaration(name, null, null, name + SUFFIX_DONE,
+				null);
+		final String task = FetchOptions.isSchedule() ? TASK_SCHEDULE
+				: "parallel"; //$NON-NLS-1$
+		final Map<String, String> params = new HashMap<String, String>(3);
+		params.put("threadCount", String.valueOf(threadCount)); //$NON-NLS-1$
+		if (FetchOptions.isSchedule()) {
+			final StringBuffer buffer = new StringBuffer();
+			for (final String key : keys) {
+				if (buffer.length() > 0)
+					buffer.append(SEPARATOR);
+				buffer.append(key);
+			}
+			params.put("history", Utils //$NON-NLS-1$
+					.getPropertyFormat(PROP_FETCH_CACHE_LOCATION)
+					+ '/' + FILE_FETCH_HISTORY);
+			params.put("keys", buffer.toString()); //$NON-NLS-1$
+		} else {
+			params.put("failOnAny", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		script.printStartTag(task, params);
+		script.incrementIdent();
+		for (final String target : targets) {
+			script.printAntCallTask(target, true, null);
+		}
+		script.decrementIdent();
+		script.printEndTag(task);
+		script.printTargetEnd();
+	}
+
+	/**
+	 * Indicates if the tag of a group must be checked out, which is the case
+	 * if any complete element is copied from the work tree. Single files are
+	 * read from the object database unless that is impossible.
+	 */
+	private boolean isCheckoutRequired(FetchPlan plan, FetchPlan.Group group) {
+		if (plan.isTreeExport())
+			return false;
+		final boolean blobExport = FetchOptions.isBlobExport();
+		for (final FetchPlan.Element element : group.getElements()) {
+			if (TARGET_GET_ELEMENT_FROM_REPO.equals(element.getCopyTarget()))
+				return true;
+			if (!blobExport && element.getCopyTarget() != null)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns the file recording the revision last checked out in the
+	 * specified local clone.
+	 */
+	private String getCheckoutRecord(String localGitRepo) {
+		return localGitRepo + "/.git/" + FILE_CHECKOUT; //$NON-NLS-1$
+	}
+
+	/**
+	 * Prints the tasks setting the <code>complete</code> property of the
+	 * specified group target if the revision recorded by the last checkout
+	 * in the local clone is the given one, which skips the checkout of
+	 * every further call of the group.
+	 */
+	private void printCheckoutRecordCheck(IAntScript script,
+			String localGitRepo, String revision, String checkoutTarget) {
+		final Map<String, String> params = new HashMap<String, String>(3);
+		params.put("srcFile", getCheckoutRecord(localGitRepo)); //$NON-NLS-1$
+		params.put("property", checkoutTarget + SUFFIX_CHECKED_OUT); //$NON-NLS-1$
+		params.put("quiet", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("loadfile", params); //$NON-NLS-1$
+		printConditionStart(script, checkoutTarget + SUFFIX_COMPLETE, null,
+				null);
+		params.clear();
+		params.put("arg1", Utils.getPropertyFormat(checkoutTarget //$NON-NLS-1$
+				+ SUFFIX_CHECKED_OUT));
+		params.put("arg2", revision); //$NON-NLS-1$
+		script.printElement("equals", params); //$NON-NLS-1$
+		printConditionEnd(script);
+	}
+
+	/**
+	 * Prints the calls fetching only the tags of the specified repository
+	 * from the given location.
+	 */
+	private void printShallowFetchCalls(IAntScript script,
+			FetchPlan.Repository repository, String gitRepo,
+			Map<String, String> params) {
+		final StringBuffer tags = new StringBuffer();
+		final StringBuffer refSpecs = new StringBuffer();
+		for (final String tag : repository.getTags()) {
+			if (tags.length() > 0) {
+				tags.append(SEPARATOR);
+				refSpecs.append(' ');
+			}
+			tags.append(tag);
+			refSpecs.append("+refs/tags/").append(tag).append(":refs/tags/") //$NON-NLS-1$ //$NON-NLS-2$
+					.append(tag);
+		}
+		params.put(PROP_GITREPO, gitRepo);
+		params.put(PROP_GITTAGS, tags.toString());
+		params.put(PROP_GITREFSPECS, refSpecs.toString());
+		if (!FetchOptions.isJGitBackend()) {
+			printCall(script, TARGET_INIT_REPO, params);
+			// re-determine availability of local repo
+			printAvailableTask(repository.getLocalGitRepo(), repository
+					.getLocalGitRepo(), script);
+		}
+		printCall(script, TARGET_FETCH_TAGS, params);
+	}
+
+	/**
+	 * Prints the default pool location and the call creating the pool. The
+	 * JGit tasks create the pool themselves.
+	 */
+	private void printObjectPoolInitCall(IAntScript script, String fileToCheck) {
+		printProperty(script, PROP_GITOBJECTPOOL, Utils
+				.getPropertyFormat(PROP_FETCH_CACHE_LOCATION)
+				+ "/objectPool.git"); //$NON-NLS-1$
+		if (FetchOptions.isJGitBackend())
+			return;
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put(PROP_GITREPO_LOCAL_PATH, Utils
+				.getPropertyFormat(PROP_GITOBJECTPOOL));
+		params.put(PROP_FILETOCHECK, fileToCheck);
+		printCall(script, TARGET_INIT_OBJECT_POOL, params);
+	}
+
+	/**
+	 * Prints the calls depositing the objects of a clone into the pool. The
+	 * JGit tasks deposit the objects themselves.
+	 */
+	private void printObjectPoolDepositCalls(IAntScript script,
+			String fileToCheck, String localGitRepo) {
+		if (FetchOptions.isJGitBackend())
+			return;
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put(PROP_GITREPO_LOCAL_PATH, Utils
+				.getPropertyFormat(PROP_GITOBJECTPOOL));
+		params.put(PROP_GITPOOLSOURCE, localGitRepo);
+		params.put(PROP_GITPOOLREFS, "refs/pool/" //$NON-NLS-1$
+				+ localGitRepo.substring(localGitRepo.lastIndexOf('/') + 1)
+				+ "/*"); //$NON-NLS-1$
+		params.put(PROP_FILETOCHECK, fileToCheck);
+		printCall(script, TARGET_DEPOSIT_OBJECTS, params);
+		params.clear();
+		params.put(PROP_GITREPO_LOCAL_PATH, localGitRepo);
+		params.put(PROP_FILETOCHECK, fileToCheck);
+		printCall(script, TARGET_REPACK_REPO, params);
+	}
+
+	/**
+	 * Converts element paths into quoted, anchored sparse checkout patterns.
+	 */
+	private String asSparsePatterns(Collection<String> paths) {
+		final StringBuffer patterns = new StringBuffer();
+		for (final String path : paths) {
+			if (patterns.length() > 0)
+				patterns.append(' ');
+			// an empty path selects the complete repository
+			patterns.append("\"/").append(path.length() > 0 ? path : "*") //$NON-NLS-1$ //$NON-NLS-2$
+					.append('"');
+		}
+		return patterns.toString();
+	}
+
+	/**
+	 * Prints the <code>available</code> tasks for the specified elements and
+	 * a condition setting the given property if all of them are available. If
+	 * <code>guarded</code> is set, only the elements whose guard property is set
+	 * are checked.
+	 */
+	private void printElementChecks(IAntScript script,
+			Collection<FetchPlan.Group> groups, String completeProperty,
+			boolean tagsOnly, boolean guarded) {
+		final List<FetchPlan.Element> elements = new ArrayList<FetchPlan.Element>();
+		boolean allChecked = true;
+		final Map<String, String> params = new HashMap<String, String>(1);
+		for (final FetchPlan.Group group : groups) {
+			for (final FetchPlan.Element element : group.getElements()) {
+				elements.add(element);
+				final String property = element.getPropertyToCheck();
+				if (property == null) {
+					allChecked &= guarded;
+					continue;
+				}
+				if (guarded) {
+					params.put("if", element.getGuardProperty()); //$NON-NLS-1$
+					script.printStartTag(TASK_WHEN, params);
+					script.incrementIdent();
+				}
+				final String stamp = element.getParams().get(PROP_GITSTAMP);
+				if (stamp == null) {
+					for (final String file : element.getFilesToCheck()) {
+						printAvailableTask(property, file, script);
+					}
+				} else {
+					printStampCheck(script, group, element, stamp, tagsOnly);
+				}
+				if (guarded) {
+					script.decrementIdent();
+					script.printEndTag(TASK_WHEN);
+				}
+			}
+		}
+
+		// elements without a check are always retrieved
+		if (elements.isEmpty() || !allChecked)
+			return;
+		printConditionStart(script, completeProperty, null, null);
+		script.printStartTag("and"); //$NON-NLS-1$
+		script.incrementIdent();
+		for (final FetchPlan.Element element : elements) {
+			if (!guarded) {
+				printIssetProperty(script, element.getPropertyToCheck());
+				continue;
+			}
+			// elements not requested by the call count as available
+			script.printStartTag("or"); //$NON-NLS-1$
+			script.incrementIdent();
+			script.printStartTag("not"); //$NON-NLS-1$
+			script.incrementIdent();
+			printIssetProperty(script, element.getGuardProperty());
+			script.decrementIdent();
+			script.printEndTag("not"); //$NON-NLS-1$
+			if (element.getPropertyToCheck() != null)
+				printIssetProperty(script, element.getPropertyToCheck());
+			script.decrementIdent();
+			script.printEndTag("or"); //$NON-NLS-1$
+		}
+		script.decrementIdent();
+		script.printEndTag("and"); //$NON-NLS-1$
+		printConditionEnd(script);
+	}
+
+	/**
+	 * Prints the tasks setting the given property if the local clone already
+	 * contains all tags of the specified repository or, failing that, if the
+	 * remote still advertises the same refs. Either makes an update
+	 * unnecessary. The native backend checks the tags with
+	 * <code>git rev-parse</code>. Nothing is printed if any element is
+	 * retrieved from the default branch.
+	 */
+	private void printTagChecks(IAntScript script,
+			FetchPlan.Repository repository, String completeProperty) {
+		final List<String> tags = repository.getTags();
+		if (tags.isEmpty() || tags.size() != repository.getGroups().size())
+			return;
+		final StringBuffer tagList = new StringBuffer();
+		for (final String tag : tags) {
+			if (tagList.length() > 0)
+				tagList.append(SEPARATOR);
+			tagList.append(tag);
+		}
+		final Map<String, String> params = new HashMap<String, String>(3);
+		params.put("localRepo", repository.getLocalGitRepo()); //$NON-NLS-1$
+		params.put("tags", tagList.toString()); //$NON-NLS-1$
+		params.put("property", completeProperty); //$NON-NLS-1$
+		if (FetchOptions.isJGitBackend())
+			script.printElement(TASK_CHECK_TAGS, params);
+		else
+			printNativeTagCheck(script, repository, completeProperty);
+		if (FetchOptions.isPreflight() && !FetchOptions.isOffline())
+			script.printElement(TASK_CHECK_REMOTE, params);
+	}
+
+	/**
+	 * Prints the tasks setting the given property if
+	 * <code>git rev-parse</code> resolves all tags of the specified
+	 * repository to commits in the local clone. It fails if the clone or any
+	 * tag is missing.
+	 */
+	private void printNativeTagCheck(IAntScript script,
+			FetchPlan.Repository repository, String completeProperty) {
+		final String result = repository.getTargetName() + SUFFIX_TAGS;
+		final Map<String, String> params = new HashMap<String, String>(5);
+		params.put("unless", completeProperty); //$NON-NLS-1$
+		script.printStartTag(TASK_WHEN, params);
+		script.incrementIdent();
+		params.clear();
+		params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("resultProperty", result); //$NON-NLS-1$
+		// keep the ids and errors out of the log
+		params.put("outputProperty", result + ".out"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("errorProperty", result + ".err"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag("exec", params); //$NON-NLS-1$
+		script.incrementIdent();
+		printArg(script, "--git-dir=" + repository.getLocalGitRepo() //$NON-NLS-1$
+				+ "/.git"); //$NON-NLS-1$
+		printArg(script, "rev-parse"); //$NON-NLS-1$
+		for (final String tag : repository.getTags()) {
+			printArg(script, "refs/tags/" + tag + "^{commit}"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
+		printArg(script, "--"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("exec"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag(TASK_WHEN);
+		printConditionStart(script, completeProperty, null, null);
+		params.clear();
+		params.put("arg1", Utils.getPropertyFormat(result)); //$NON-NLS-1$
+		params.put("arg2", "0"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement("equals", params); //$NON-NLS-1$
+		printConditionEnd(script);
+	}
+
+	/**
+	 * Prints the task repairing what an interrupted operation left in the
+	 * local clone of the specified repository unless all elements are already
+	 * available.
+	 */
+	private void printRepairTask(IAntScript script,
+			FetchPlan.Repository repository, String completeProperty) {
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("unless", completeProperty); //$NON-NLS-1$
+		script.printStartTag(TASK_WHEN, params);
+		script.incrementIdent();
+		params.clear();
+		params.put("localRepo", repository.getLocalGitRepo()); //$NON-NLS-1$
+		params.put("repo", repository.getGitRepo()); //$NON-NLS-1$
+		script.printElement(TASK_REPAIR, params);
+		script.decrementIdent();
+		script.printEndTag(TASK_WHEN);
+	}
+
+	/**
+	 * Passes the mirrors and the former local clone found for a map file
+	 * entry when it was parsed on to the repository of the specified element.
+	 */
+	@SuppressWarnings("unchecked")
+	private void setRepositoryInfos(FetchPlan.Element element, Map entryInfos) {
+		final FetchPlan.Repository repository = element.getGroup()
+				.getRepository();
+		final List<String> mirrors = (List<String>) entryInfos
+				.get(KEY_MIRRORS);
+		if (mirrors != null)
+			repository.setMirrors(mirrors);
+		final String formerLocalGitRepo = (String) entryInfos
+				.get(KEY_FORMER_LOCAL_REPO);
+		if (formerLocalGitRepo != null)
+			repository.addFormerLocalGitRepo(formerLocalGitRepo);
+	}
+
+	/**
+	 * Prints the tasks moving clones kept under the former paths of the
+	 * specified repository to its local clone unless that already exists, so
+	 * that the clones of earlier builds are updated rather than cloned again.
+	 */
+	private void printFormerClonesMove(IAntScript script,
+			FetchPlan.Repository repository) {
+		final String localGitRepo = repository.getLocalGitRepo();
+		final Map<String, String> params = new HashMap<String, String>(3);
+		int i = 0;
+		for (final String former : repository.getFormerLocalGitRepos()) {
+			final String property = repository.getTargetName() + SUFFIX_FORMER
+					+ i++;
+			printAvailableTask(property, former + "/.git", script); //$NON-NLS-1$
+			params.clear();
+			params.put("if", property); //$NON-NLS-1$
+			params.put("unlessAvailable", localGitRepo); //$NON-NLS-1$
+			script.printStartTag(TASK_WHEN, params);
+			script.incrementIdent();
+			params.clear();
+			params.put("file", former); //$NON-NLS-1$
+			params.put("tofile", localGitRepo); //$NON-NLS-1$
+			script.printElement("move", params); //$NON-NLS-1$
+			script.decrementIdent();
+			script.printEndTag(TASK_WHEN);
+		}
+	}
+
+	/**
+	 * Prints the start of the tasks selecting the fastest reachable mirror of
+	 * the specified repository unless all elements are already available. The
+	 * selected location is set as the given property for the nested calls.
+	 */
+	private void printMirrorsStart(IAntScript script,
+			FetchPlan.Repository repository, List<String> mirrors,
+			String repoProperty, String completeProperty) {
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put("unless", completeProperty); //$NON-NLS-1$
+		script.printStartTag(TASK_WHEN, params);
+		script.incrementIdent();
+		final StringBuffer mirrorList = new StringBuffer();
+		for (final String mirror : mirrors) {
+			if (mirrorList.length() > 0)
+				mirrorList.append(SEPARATOR);
+			mirrorList.append(mirror);
+		}
+		params.clear();
+		params.put("localRepo", repository.getLocalGitRepo()); //$NON-NLS-1$
+		params.put("repo", repository.getGitRepo()); //$NON-NLS-1$
+		params.put("mirrors", mirrorList.toString()); //$NON-NLS-1$
+		params.put("property", repoProperty); //$NON-NLS-1$
+		script.printStartTag(TASK_MIRRORS, params);
+		script.incrementIdent();
+	}
+
+	private void printMirrorsEnd(IAntScript script) {
+		script.decrementIdent();
+		script.printEndTag(TASK_MIRRORS);
+		script.decrementIdent();
+		script.printEndTag(TASK_WHEN);
+	}
+
+	/**
+	 * Prints the task seeding the local clone of the specified repository from
+	 * its bundle unless all elements are already available.
+	 */
+	private void printSeedTask(IAntScript script,
+			FetchPlan.Repository repository, String completeProperty) {
+		final Map<String, String> params = new HashMap<String, String>(1);
+		params.put("unless", completeProperty); //$NON-NLS-1$
+		script.printStartTag(TASK_WHEN, params);
+		script.incrementIdent();
+		params.clear();
+		params.put("localRepo", repository.getLocalGitRepo()); //$NON-NLS-1$
+		params.put("repo", repository.getGitRepo()); //$NON-NLS-1$
+		params.put("bundle", FetchOptions.getBundles() + '/' //$NON-NLS-1$
+				+ getBundleName(repository));
+		script.printElement(TASK_SEED, params);
+		script.decrementIdent();
+		script.printEndTag(TASK_WHEN);
+	}
+
+	/**
+	 * Prints the task failing the build unless the local clone of the
+	 * specified repository contains all revisions to retrieve or all elements
+	 * are already available. Elements retrieved from the default branch are
+	 * not checked.
+	 */
+	private void printOfflineCheck(IAntScript script,
+			FetchPlan.Repository repository, String completeProperty) {
+		final String revisions = getRevisions(repository);
+		if (revisions.length() == 0)
+			return;
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("unless", completeProperty); //$NON-NLS-1$
+		script.printStartTag(TASK_WHEN, params);
+		script.incrementIdent();
+		params.clear();
+		params.put("localRepo", repository.getLocalGitRepo()); //$NON-NLS-1$
+		params.put("revisions", revisions); //$NON-NLS-1$
+		script.printElement(TASK_OFFLINE, params);
+		script.decrementIdent();
+		script.printEndTag(TASK_WHEN);
+	}
+
+	/**
+	 * Prints the task writing the revisions to retrieve from the specified
+	 * repository into its bundle. Elements retrieved from the default branch
+	 * are not included.
+	 */
+	private void printBundleTask(IAntScript script,
+			FetchPlan.Repository repository) {
+		final String revisions = getRevisions(repository);
+		if (revisions.length() == 0)
+			return;
+		final Map<String, String> params = new HashMap<String, String>(3);
+		params.put("localRepo", repository.getLocalGitRepo()); //$NON-NLS-1$
+		params.put("revisions", revisions); //$NON-NLS-1$
+		params.put("file", FetchOptions.getBundleOutput() + '/' //$NON-NLS-1$
+				+ getBundleName(repository));
+		script.printElement(TASK_BUNDLE, params);
+	}
+
+	/**
+	 * Prints the task writing the qualifier of the specified element if the
+	 * local clone exists. The paths of all elements of its group are passed
+	 * along, so that the task walks the history of the tag only once for the
+	 * whole group.
+	 */
+	private void printQualifierTask(IAntScript script,
+			FetchPlan.Element element, String localGitRepo) {
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put("if", localGitRepo); //$NON-NLS-1$
+		script.printStartTag(TASK_WHEN, params);
+		script.incrementIdent();
+		params.clear();
+		params.put("localRepo", localGitRepo); //$NON-NLS-1$
+		params.put("tag", getRevision(element.getGroup())); //$NON-NLS-1$
+		params.put("elements", element.getQualifierId() + '=' //$NON-NLS-1$
+				+ element.getPath());
+		final StringBuffer paths = new StringBuffer();
+		for (final FetchPlan.Element other : element.getGroup().getElements()) {
+			if (other == element || other.getQualifierFile() == null)
+				continue;
+			if (paths.length() > 0)
+				paths.append(SEPARATOR);
+			paths.append(other.getPath());
+		}
+		if (paths.length() > 0)
+			params.put("paths", paths.toString()); //$NON-NLS-1$
+		params.put("file", element.getQualifierFile()); //$NON-NLS-1$
+		script.printElement(TASK_QUALIFIERS, params);
+		script.decrementIdent();
+		script.printEndTag(TASK_WHEN);
+	}
+
+	/**
+	 * Returns the name of the bundle of a repository, which is the name of
+	 * its local clone.
+	 */
+	private String getBundleName(FetchPlan.Repository repository) {
+		return getCloneName(repository) + ".bundle"; //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the name of the local clone of a repository within the fetch
+	 * cache.
+	 */
+	private String getCloneName(FetchPlan.Repository repository) {
+		final String localGitRepo = repository.getLocalGitRepo();
+		return localGitRepo.substring(localGitRepo.lastIndexOf('/') + 1);
+	}
+
+	/**
+	 * Returns the comma-separated revisions to retrieve from the specified
+	 * repository, excluding the default branch.
+	 */
+	private String getRevisions(FetchPlan.Repository repository) {
+		final StringBuffer revisions = new StringBuffer();
+		for (final FetchPlan.Group group : repository.getGroups()) {
+			if (group.getTag() == null)
+				continue;
+			if (revisions.length() > 0)
+				revisions.append(SEPARATOR);
+			revisions.append(getRevision(group));
+		}
+		return revisions.toString();
+	}
+
+	/**
+	 * Returns the revision to retrieve for a group, which is the commit its
+	 * tag is locked to if a lock file is given.
+	 */
+	private String getRevision(FetchPlan.Group group) {
+		if (group.getTag() == null || FetchOptions.getLockInput() == null)
+			return group.getTag();
+		return Utils.getPropertyFormat(group.getTargetName() + SUFFIX_REVISION);
+	}
+
+	/**
+	 * Prints the tasks looking up the commits the tags of the specified groups
+	 * are locked to.
+	 *
+	 * @param availableProperty
+	 *            property to set if all locked commits are already available
+	 *            in the local clone, may be <code>null</code>
+	 */
+	private void printLockedRevisions(IAntScript script,
+			Collection<FetchPlan.Group> groups, String availableProperty) {
+		final String lockFile = FetchOptions.getLockInput();
+		if (lockFile == null)
+			return;
+		final List<String> lockedProperties = new ArrayList<String>();
+		boolean allLocked = true;
+		for (final FetchPlan.Group group : groups) {
+			if (group.getTag() == null) {
+				allLocked = false;
+				continue;
+			}
+			final Map<String, String> params = new HashMap<String, String>(6);
+			params.put("localRepo", group.getRepository().getLocalGitRepo()); //$NON-NLS-1$
+			params.put("repo", group.getRepository().getGitRepo()); //$NON-NLS-1$
+			params.put("tag", group.getTag()); //$NON-NLS-1$
+			params.put("file", lockFile); //$NON-NLS-1$
+			params.put("property", group.getTargetName() + SUFFIX_REVISION); //$NON-NLS-1$
+			if (availableProperty != null) {
+				final String locked = group.getTargetName() + SUFFIX_LOCKED;
+				params.put("availableProperty", locked); //$NON-NLS-1$
+				lockedProperties.add(locked);
+			}
+			script.printElement(TASK_LOCKED, params);
+		}
+
+		// the repository needs no update if it has all locked commits
+		if (availableProperty == null || !allLocked
+				|| lockedProperties.isEmpty())
+			return;
+		printConditionStart(script, availableProperty, null, null);
+		script.printStartTag("and"); //$NON-NLS-1$
+		script.incrementIdent();
+		for (final String locked : lockedProperties) {
+			printIssetProperty(script, locked);
+		}
+		script.decrementIdent();
+		script.printEndTag("and"); //$NON-NLS-1$
+		printConditionEnd(script);
+	}
+
+	private void printExportCacheDefault(IAntScript script) {
+		printProperty(script, PROP_GITEXPORTCACHE, Utils
+				.getPropertyFormat(PROP_FETCH_CACHE_LOCATION)
+				+ "/exportCache"); //$NON-NLS-1$
+	}
+
+	/**
+	 * Prints the tasks setting the property to check of an element if it is
+	 * available and its stamp matches the map file entry.
+	 *
+	 * @param tagsOnly
+	 *            <code>true</code> if only stamps of Git tags can match
+	 *            because the local clone has not been updated yet
+	 */
+	private void printStampCheck(IAntScript script, FetchPlan.Group group,
+			FetchPlan.Element element, String stamp, boolean tagsOnly) {
+		final String property = element.getPropertyToCheck();
+		for (final String file : element.getFilesToCheck()) {
+			printAvailableTask(property + ".available", file, script); //$NON-NLS-1$
+		}
+		final Map<String, String> params = new HashMap<String, String>(7);
+		params.put("localRepo", group.getRepository().getLocalGitRepo()); //$NON-NLS-1$
+		params.put("repo", group.getRepository().getGitRepo()); //$NON-NLS-1$
+		params.put("tag", group.getTag()); //$NON-NLS-1$
+		params.put("revision", getRevision(group)); //$NON-NLS-1$
+		params.put("path", element.getPath()); //$NON-NLS-1$
+		params.put("file", stamp); //$NON-NLS-1$
+		params.put("property", property + ".stamped"); //$NON-NLS-1$ //$NON-NLS-2$
+		if (tagsOnly)
+			params.put("tagsOnly", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printElement(TASK_CHECK_STAMP, params);
+		printConditionStart(script, property, null, null);
+		script.printStartTag("and"); //$NON-NLS-1$
+		script.incrementIdent();
+		printIssetProperty(script, property + ".available"); //$NON-NLS-1$
+		printIssetProperty(script, property + ".stamped"); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag("and"); //$NON-NLS-1$
+		printConditionEnd(script);
+	}
+
+	/**
+	 * Prints the tasks deleting an element whose stamp does not match, so
+	 * that files deleted or renamed in the new revision do not remain in the
+	 * build location.
+	 */
+	private void printStaleElementDelete(IAntScript script,
+			FetchPlan.Element element, String stamp) {
+		final String property = element.getPropertyToCheck();
+		final String location = stamp.substring(0, stamp.length()
+				- SUFFIX_STAMP_FILE.length());
+		final Map<String, String> params = new HashMap<String, String>(2);
+		params.put("if", property + ".available"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("unless", property + ".stamped"); //$NON-NLS-1$ //$NON-NLS-2$
+		script.printStartTag(TASK_WHEN, params);
+		script.incrementIdent();
+		params.clear();
+		// pre-built elements are single files
+		if (TARGET_GET_FILE_FROM_REPO.equals(element.getCopyTarget()))
+			params.put("file", location); //$NON-NLS-1$
+		else
+			params.put("dir", location); //$NON-NLS-1$
+		script.printElement("delete", params); //$NON-NLS-1$
+		script.decrementIdent();
+		script.printEndTag(TASK_WHEN);
+	}
+
+	/**
+	 * Prints the call writing the stamp of an element if it has been
+	 * retrieved, i.e. all files checked for the element exist.
+	 */
+	private void printStampWrite(IAntScript script, FetchPlan.Element element,
+			Map<String, String> elementParams) {
+		final String retrieved = element.getPropertyToCheck() + ".retrieved"; //$NON-NLS-1$
+		for (final String file : element.getFilesToCheck()) {
+			printAvailableTask(retrieved, file, script);
+		}
+		final Map<String, String> params = new HashMap<String, String>(1);
+		params.put("if", retrieved); //$NON-NLS-1$
+		script.printStartTag(TASK_WHEN, params);
+		script.incrementIdent();
+		printCall(script, TARGET_WRITE_STAMP, elementParams);
+		script.decrementIdent();
+		script.printEndTag(TASK_WHEN);
+	}
+
+	private void printGitRepoBaseLocationDefault(IAntScript script) {
+		script.println("<property name=\"" + PROP_FETCH_CACHE_LOCATION + "\" value=\"" + DEFAULT_FETCH_CACHE_LOCATION + "\" />"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+	}
+
+	private void printGitTask(IAntScript script, String commandName, List args) {
+		printGitTask(script, commandName, args, null, null);
+	}
+
+	/**
+	 * Prints an <code>exec</code> task running Git.
+	 *
+	 * @param argLine
+	 *            additional space-separated arguments, may be
+	 *            <code>null</code>
+	 * @param resultProperty
+	 *            property receiving the exit code instead of failing the
+	 *            build, may be <code>null</code>
+	 */
+	private void printGitTask(IAntScript script, String commandName,
+			List args, String argLine, String resultProperty) {
+		// print command
+		final StringBuffer m = new StringBuffer();
+		m.append("[GIT] "); //$NON-NLS-1$
+		m.append(ref(PROP_GITREPO_LOCAL_PATH));
+		m.append(" >> git ").append(commandName); //$NON-NLS-1$
+		if (args != null) {
+			for (int i = 0; i < args.size(); i++) {
+				m.append(" ").append(args.get(i)); //$NON-NLS-1$
+			}
+		}
+		if (argLine != null)
+			m.append(" ").append(argLine); //$NON-NLS-1$
+		script.printEchoTask(null, m.toString(), "info"); //$NON-NLS-1$
+
+		final Map<String, String> params = new HashMap<String, String>(4);
+		params.put("executable", "git"); //$NON-NLS-1$ //$NON-NLS-2$
+		params.put("dir", ref(PROP_GITREPO_LOCAL_PATH)); //$NON-NLS-1$
+		if (resultProperty != null) {
+			params.put("failOnError", "false"); //$NON-NLS-1$ //$NON-NLS-2$
+			params.put("resultProperty", resultProperty); //$NON-NLS-1$
+		} else {
+			params.put("failOnError", "true"); //$NON-NLS-1$ //$NON-NLS-2$
+		}
 		script.printStartTag("exec", params); //$NON-NLS-1$
 		script.incrementIdent();
 
@@ -570,6 +2308,11 @@ private void printGitTask(IAntScript script, String commandName, List args) {
 				printArg(script, arg);
 			}
 		}
+		if (argLine != null) {
+			final Map<String, String> lineParams = new HashMap<String, String>(1);
+			lineParams.put("line", argLine); //$NON-NLS-1$
+			script.printElement("arg", lineParams); //$NON-NLS-1$
+		}
 
 		script.decrementIdent();
 		script.printEndTag("exec"); //$NON-NLS-1$
@@ -21,6 +21,18 @@ public class Messages extends NLS {
 
 	public static String error_directoryEntryRequiresRepo;
 
+	public static String error_invalidRepoAlias;
+
+	public static String error_readRepoAliases;
+
+	public static String error_invalidRepoMirror;
+
+	public static String error_readRepoMirrors;
+
+	public static String error_readFile;
+
+	public static String error_prewarmUsage;
+
 	static {
 		// load message values from bundle file
 		NLS.initializeMessages(BUNDLE_NAME, Messages.class);
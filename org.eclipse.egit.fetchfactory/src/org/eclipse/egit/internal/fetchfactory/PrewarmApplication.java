@@ -0,0 +1,226 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+
+import org.eclipse.ant.core.AntRunner;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.equinox.app.IApplication;
+import org.eclipse.equinox.app.IApplicationContext;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.pde.build.IFetchFactory;
+import org.eclipse.pde.internal.build.AbstractScriptGenerator;
+import org.eclipse.pde.internal.build.ant.AntScript;
+
+/**
+ * Headless application filling the fetch cache with the repositories of all
+ * Git map file entries ahead of a build
+ * (<code>org.eclipse.egit.fetchfactory.prewarm</code>).
+ * <p>
+ * The map files are parsed by {@link GITFetchTaskFactory} like during a
+ * build, and a script updating the local clone of each repository with the
+ * tags of its entries is generated and run, so that all build properties of
+ * the fetch factory apply. The repositories are updated using
+ * <code>gitFetchThreads</code> threads, by default one per processor.
+ * </p>
+ * <p>
+ * Arguments:
+ * <ul>
+ * <li><code>-maps</code> - directory searched for <code>*.map</code> files
+ * (mandatory)</li>
+ * <li><code>-properties</code> - build properties, e.g. the
+ * <code>build.properties</code> of the build (optional)</li>
+ * <li><code>-fetchCacheLocation</code> - the fetch cache; mandatory unless
+ * set in the build properties</li>
+ * <li><code>-threads</code> - the number of repositories to update
+ * concurrently (optional)</li>
+ * </ul>
+ * </p>
+ */
+@SuppressWarnings("restriction")
+public class PrewarmApplication implements IApplication {
+
+	private static final String PLUGIN_ID = "org.eclipse.egit.fetchfactory"; //$NON-NLS-1$
+
+	private static final String ARG_MAPS = "-maps"; //$NON-NLS-1$
+
+	private static final String ARG_PROPERTIES = "-properties"; //$NON-NLS-1$
+
+	private static final String ARG_FETCH_CACHE_LOCATION = "-fetchCacheLocation"; //$NON-NLS-1$
+
+	private static final String ARG_THREADS = "-threads"; //$NON-NLS-1$
+
+	private static final String TARGET_MAIN = "main"; //$NON-NLS-1$
+
+	private static final String SUFFIX_MAP = ".map"; //$NON-NLS-1$
+
+	public Object start(IApplicationContext context) throws Exception {
+		final String[] args = (String[]) context.getArguments().get(
+				IApplicationContext.APPLICATION_ARGS);
+		final Map<String, String> arguments = parseArguments(args != null ? args
+				: new String[0]);
+		final String maps = arguments.get(ARG_MAPS);
+		if (maps == null)
+			throw error(Messages.error_prewarmUsage, null);
+
+		final Properties properties = new Properties();
+		final String propertiesFile = arguments.get(ARG_PROPERTIES);
+		if (propertiesFile != null)
+			load(properties, new File(propertiesFile));
+		if (arguments.containsKey(ARG_FETCH_CACHE_LOCATION))
+			properties.setProperty(
+					GITFetchTaskFactory.PROP_FETCH_CACHE_LOCATION, arguments
+							.get(ARG_FETCH_CACHE_LOCATION));
+		if (properties
+				.getProperty(GITFetchTaskFactory.PROP_FETCH_CACHE_LOCATION) == null)
+			throw error(Messages.error_prewarmUsage, null);
+		if (arguments.containsKey(ARG_THREADS))
+			properties.setProperty(FetchOptions.PROP_THREADS, arguments
+					.get(ARG_THREADS));
+		else if (properties.getProperty(FetchOptions.PROP_THREADS) == null)
+			properties.setProperty(FetchOptions.PROP_THREADS, String
+					.valueOf(Runtime.getRuntime().availableProcessors()));
+		AbstractScriptGenerator.setStaticAntProperties(properties);
+
+		final List<File> mapFiles = new ArrayList<File>();
+		collectMapFiles(new File(maps), mapFiles);
+		Collections.sort(mapFiles);
+		final File scriptFile = File.createTempFile("prewarm", ".xml"); //$NON-NLS-1$ //$NON-NLS-2$
+		try {
+			generateScript(scriptFile, mapFiles);
+			runScript(scriptFile, properties);
+		} finally {
+			scriptFile.delete();
+		}
+		return EXIT_OK;
+	}
+
+	public void stop() {
+		// nothing to do
+	}
+
+	private Map<String, String> parseArguments(String[] args) {
+		final List<String> names = Arrays.asList(ARG_MAPS, ARG_PROPERTIES,
+				ARG_FETCH_CACHE_LOCATION, ARG_THREADS);
+		final Map<String, String> arguments = new HashMap<String, String>();
+		for (int i = 0; i < args.length - 1; i++) {
+			if (names.contains(args[i]))
+				arguments.put(args[i], args[++i]);
+		}
+		return arguments;
+	}
+
+	private void collectMapFiles(File file, List<File> mapFiles) {
+		final File[] children = file.listFiles();
+		if (children == null)
+			return;
+		for (final File child : children) {
+			if (child.isDirectory())
+				collectMapFiles(child, mapFiles);
+			else if (child.getName().endsWith(SUFFIX_MAP))
+				mapFiles.add(child);
+		}
+	}
+
+	private void load(Properties properties, File file) throws CoreException {
+		try {
+			final InputStream in = new FileInputStream(file);
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			throw error(NLS.bind(Messages.error_readFile, file, e
+					.getMessage()), e);
+		}
+	}
+
+	/**
+	 * Generates a script updating the local clones of all Git entries of the
+	 * specified map files. Entries of other repository types are ignored.
+	 */
+	private void generateScript(File scriptFile, List<File> mapFiles)
+			throws IOException, CoreException {
+		final GITFetchTaskFactory factory = new GITFetchTaskFactory();
+		final AntScript script = new AntScript(new FileOutputStream(
+				scriptFile));
+		try {
+			script.printProjectDeclaration("prewarm", TARGET_MAIN, "."); //$NON-NLS-1$ //$NON-NLS-2$
+			script.printTargetDeclaration(TARGET_MAIN, null, null, null, null);
+			for (final File mapFile : mapFiles) {
+				final Properties entries = new Properties();
+				load(entries, mapFile);
+				for (final String key : new TreeSet<String>(entries
+						.stringPropertyNames())) {
+					final String value = entries.getProperty(key).trim();
+					final int at = key.indexOf('@');
+					final int comma = value.indexOf(',');
+					if (at < 0 || comma < 0
+							|| !GITFetchTaskFactory.ID.equals(value.substring(0,
+									comma).trim()))
+						continue;
+
+					// type@id[,version]=GIT,args
+					final String id = key.substring(at + 1);
+					final int version = id.indexOf(',');
+					final Map<String, String> entryInfos = new HashMap<String, String>();
+					entryInfos.put(IFetchFactory.KEY_ELEMENT_TYPE, key
+							.substring(0, at));
+					entryInfos.put(IFetchFactory.KEY_ELEMENT_NAME,
+							version < 0 ? id : id.substring(0, version));
+					factory.parseMapFileEntry(value.substring(comma + 1), null,
+							entryInfos);
+					factory.generateUpdateCall(entryInfos, script);
+				}
+			}
+			script.printTargetEnd();
+			factory.addTargets(script);
+			script.printProjectEnd();
+		} finally {
+			script.close();
+		}
+	}
+
+	private void runScript(File scriptFile, Properties properties)
+			throws CoreException {
+		final Map<String, String> userProperties = new HashMap<String, String>();
+		for (final String name : properties.stringPropertyNames()) {
+			userProperties.put(name, properties.getProperty(name));
+		}
+		final AntRunner runner = new AntRunner();
+		runner.setBuildFileLocation(scriptFile.getAbsolutePath());
+		runner.setExecutionTargets(new String[] { TARGET_MAIN });
+		runner.addUserProperties(userProperties);
+		runner.addBuildLogger("org.apache.tools.ant.DefaultLogger"); //$NON-NLS-1$
+		runner.run();
+	}
+
+	private CoreException error(String message, Throwable cause) {
+		return new CoreException(new Status(IStatus.ERROR, PLUGIN_ID, message,
+				cause));
+	}
+}
@@ -0,0 +1,178 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Computes the identity of a Git repository from the location used in a map
+ * file entry, so that equivalent locations share one local clone.
+ * <p>
+ * The identity consists of the host (in lower case, with the port only if it
+ * is not the default port of the protocol) and the path without trailing
+ * slashes and <code>.git</code> suffix. Protocol and user are ignored, i.e.
+ * <code>git://host/proj.git</code>, <code>git://host/proj/</code> and
+ * <code>ssh://user@host/proj.git</code> all denote the repository
+ * <code>host/proj</code>. An optional alias table maps further locations, e.g.
+ * of mirrors, to the location of the repository they are equivalent to.
+ * </p>
+ */
+public final class RepositoryIdentity {
+
+	private static final String SUFFIX_GIT = ".git"; //$NON-NLS-1$
+
+	private static final Map<String, Map<String, String>> aliasTables = new HashMap<String, Map<String, String>>();
+
+	/**
+	 * Returns the identity of a repository location, taking an alias table
+	 * into account.
+	 *
+	 * @param location
+	 *            the repository location of a map file entry
+	 * @param aliasFile
+	 *            file mapping repository locations to the location of the
+	 *            repository they are equivalent to, one
+	 *            <code>alias = location</code> pair per line, may be
+	 *            <code>null</code>
+	 * @return the identity
+	 * @throws IOException
+	 *             if the alias table could not be read
+	 */
+	public static String resolve(String location, String aliasFile)
+			throws IOException {
+		final String identity = normalize(location);
+		if (aliasFile == null)
+			return identity;
+		final String alias = getAliases(aliasFile).get(identity);
+		return alias != null ? alias : identity;
+	}
+
+	/**
+	 * Returns the identity of a repository location.
+	 *
+	 * @param location
+	 *            the repository location
+	 * @return the identity
+	 */
+	public static String normalize(String location) {
+		final String s = location.trim().replace('\\', '/');
+		String authority = null;
+		String path;
+		final int schemeEnd = s.indexOf("://"); //$NON-NLS-1$
+		if (schemeEnd > 0) {
+			final String scheme = s.substring(0, schemeEnd).toLowerCase();
+			final String rest = s.substring(schemeEnd + 3);
+			if ("file".equals(scheme)) { //$NON-NLS-1$
+				path = rest;
+			} else {
+				final int slash = rest.indexOf('/');
+				authority = normalizeAuthority(scheme, slash < 0 ? rest : rest
+						.substring(0, slash));
+				path = slash < 0 ? "" : rest.substring(slash); //$NON-NLS-1$
+			}
+		} else {
+			// scp-like syntax [user@]host:path, but not a drive letter
+			final int colon = s.indexOf(':');
+			final int slash = s.indexOf('/');
+			if (colon > 1 && (slash < 0 || colon < slash)) {
+				authority = normalizeAuthority("ssh", s.substring(0, colon)); //$NON-NLS-1$
+				path = s.substring(colon + 1);
+			} else {
+				path = s;
+			}
+		}
+		path = normalizePath(path);
+		if (authority == null)
+			return path;
+		return path.length() > 0 ? authority + '/' + path : authority;
+	}
+
+	private static String normalizeAuthority(String scheme, String authority) {
+		String hostAndPort = authority.substring(authority.lastIndexOf('@') + 1)
+				.toLowerCase();
+		final int colon = hostAndPort.lastIndexOf(':');
+		if (colon > 0
+				&& hostAndPort.substring(colon + 1).equals(
+						getDefaultPort(scheme)))
+			hostAndPort = hostAndPort.substring(0, colon);
+		return hostAndPort;
+	}
+
+	private static String getDefaultPort(String scheme) {
+		if (scheme.equals("git")) //$NON-NLS-1$
+			return "9418"; //$NON-NLS-1$
+		if (scheme.equals("http")) //$NON-NLS-1$
+			return "80"; //$NON-NLS-1$
+		if (scheme.equals("https")) //$NON-NLS-1$
+			return "443"; //$NON-NLS-1$
+		if (scheme.indexOf("ssh") >= 0) //$NON-NLS-1$
+			return "22"; //$NON-NLS-1$
+		return null;
+	}
+
+	private static String normalizePath(String path) {
+		String p = path;
+		while (p.indexOf("//") >= 0) //$NON-NLS-1$
+			p = p.replaceAll("//", "/"); //$NON-NLS-1$ //$NON-NLS-2$
+		while (p.endsWith("/")) //$NON-NLS-1$
+			p = p.substring(0, p.length() - 1);
+		if (p.endsWith(SUFFIX_GIT))
+			p = p.substring(0, p.length() - SUFFIX_GIT.length());
+		while (p.endsWith("/")) //$NON-NLS-1$
+			p = p.substring(0, p.length() - 1);
+		while (p.startsWith("/")) //$NON-NLS-1$
+			p = p.substring(1);
+		return p;
+	}
+
+	private static synchronized Map<String, String> getAliases(String file)
+			throws IOException {
+		Map<String, String> aliases = aliasTables.get(file);
+		if (aliases != null)
+			return aliases;
+
+		aliases = new HashMap<String, String>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.charAt(0) == '#')
+					continue;
+				// URLs contain colons, so this is no properties file
+				final String[] tokens = line.split("\\s+"); //$NON-NLS-1$
+				if (tokens.length == 2)
+					aliases.put(normalize(tokens[0]), normalize(tokens[1]));
+				else if (tokens.length == 3 && tokens[1].equals("=")) //$NON-NLS-1$
+					aliases.put(normalize(tokens[0]), normalize(tokens[2]));
+				else
+					throw new IOException(NLS.bind(
+							Messages.error_invalidRepoAlias, file, line));
+			}
+		} finally {
+			reader.close();
+		}
+		aliasTables.put(file, aliases);
+		return aliases;
+	}
+
+	private RepositoryIdentity() {
+		// no instances
+	}
+}
@@ -0,0 +1,105 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Reads the mirrors of Git repositories from a mirror table.
+ * <p>
+ * The table lists one repository per line, followed by the locations of its
+ * mirrors in order of preference, i.e.
+ * <code>location = mirror1 mirror2 ...</code> (the <code>=</code> is
+ * optional). Repositories are matched by their identity as computed by
+ * {@link RepositoryIdentity#normalize(String)}, so a line applies to all
+ * equivalent locations of a repository. The mirror locations are used as
+ * written. Lines starting with <code>#</code> are comments.
+ * </p>
+ */
+public final class RepositoryMirrors {
+
+	private static final Map<String, Map<String, List<String>>> mirrorTables = new HashMap<String, Map<String, List<String>>>();
+
+	/**
+	 * Returns the mirrors of a repository.
+	 *
+	 * @param location
+	 *            the repository location of a map file entry
+	 * @param mirrorFile
+	 *            the mirror table, may be <code>null</code>
+	 * @return the mirror locations in order of preference, empty if the
+	 *         repository has no mirrors
+	 * @throws IOException
+	 *             if the mirror table could not be read
+	 */
+	public static List<String> get(String location, String mirrorFile)
+			throws IOException {
+		if (mirrorFile == null)
+			return Collections.emptyList();
+		final List<String> mirrors = getMirrors(mirrorFile).get(
+				RepositoryIdentity.normalize(location));
+		if (mirrors == null)
+			return Collections.emptyList();
+		return mirrors;
+	}
+
+	private static synchronized Map<String, List<String>> getMirrors(
+			String file) throws IOException {
+		Map<String, List<String>> mirrors = mirrorTables.get(file);
+		if (mirrors != null)
+			return mirrors;
+
+		mirrors = new HashMap<String, List<String>>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				line = line.trim();
+				if (line.length() == 0 || line.charAt(0) == '#')
+					continue;
+				// URLs contain colons, so this is no properties file
+				final String[] tokens = line.split("\\s+"); //$NON-NLS-1$
+				final int first = tokens.length > 1 && tokens[1].equals("=") ? 2 //$NON-NLS-1$
+						: 1;
+				if (tokens.length <= first)
+					throw new IOException(NLS.bind(
+							Messages.error_invalidRepoMirror, file, line));
+				final List<String> locations = new ArrayList<String>(Arrays
+						.asList(tokens).subList(first, tokens.length));
+				final String identity = RepositoryIdentity.normalize(tokens[0]);
+				if (mirrors.containsKey(identity))
+					mirrors.get(identity).addAll(locations);
+				else
+					mirrors.put(identity, locations);
+			}
+		} finally {
+			reader.close();
+		}
+		mirrorTables.put(file, mirrors);
+		return mirrors;
+	}
+
+	private RepositoryMirrors() {
+		// no instances
+	}
+}
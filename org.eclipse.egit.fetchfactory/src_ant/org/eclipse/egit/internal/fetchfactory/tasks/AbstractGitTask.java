@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.RemoteConfig;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Base class for the tasks operating on a local clone of a Git repository.
+ */
+public abstract class AbstractGitTask extends Task {
+
+	/** name of the remote the local clones fetch from */
+	protected static final String REMOTE = Constants.DEFAULT_REMOTE_NAME;
+
+	private File localRepo;
+
+	/**
+	 * Sets the work tree of the local clone.
+	 *
+	 * @param localRepo
+	 *            the local clone
+	 */
+	public void setLocalRepo(File localRepo) {
+		this.localRepo = localRepo;
+	}
+
+	/**
+	 * @return the work tree of the local clone
+	 */
+	protected File getLocalRepo() {
+		if (localRepo == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "localRepo"), //$NON-NLS-1$
+					getLocation());
+		return localRepo;
+	}
+
+	/**
+	 * @return <code>true</code> if a local clone is set and exists
+	 */
+	protected boolean hasRepository() {
+		return localRepo != null && GitRepositories.exists(localRepo);
+	}
+
+	/**
+	 * Returns the shared repository of the local clone.
+	 *
+	 * @return the repository
+	 * @throws IOException
+	 *             if the repository could not be opened
+	 */
+	protected Repository getRepository() throws IOException {
+		if (!GitRepositories.exists(getLocalRepo()))
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_repositoryNotFound, getLocalRepo()),
+					getLocation());
+		return GitRepositories.open(getLocalRepo());
+	}
+
+	/**
+	 * Configures the remote of a new local clone.
+	 *
+	 * @param repository
+	 *            the local clone
+	 * @param repo
+	 *            the repository location
+	 * @throws IOException
+	 *             if the configuration could not be saved
+	 */
+	protected void configureRemote(Repository repository, String repo)
+			throws IOException {
+		try {
+			final StoredConfig config = repository.getConfig();
+			final RemoteConfig remote = new RemoteConfig(config, REMOTE);
+			remote.addURI(new URIish(repo));
+			remote.addFetchRefSpec(new RefSpec().setForceUpdate(true)
+					.setSourceDestination(Constants.R_HEADS + "*", //$NON-NLS-1$
+							Constants.R_REMOTES + REMOTE + "/*")); //$NON-NLS-1$
+			remote.update(config);
+			config.save();
+		} catch (final URISyntaxException e) {
+			throw new BuildException(NLS.bind(TaskMessages.error_invalidRepo,
+					repo), e, getLocation());
+		}
+	}
+
+	/**
+	 * Resolves a tag or branch name as used in map files to a commit.
+	 * <p>
+	 * Tags are preferred over remote branches so that a release tag always
+	 * wins; any other revision string understood by JGit is accepted as
+	 * well.
+	 * </p>
+	 *
+	 * @param repository
+	 *            the repository
+	 * @param tag
+	 *            the tag, branch or revision
+	 * @return the commit or <code>null</code> if it could not be resolved
+	 * @throws IOException
+	 *             if the repository could not be read
+	 */
+	protected static RevCommit resolveCommit(Repository repository, String tag)
+			throws IOException {
+		final ObjectId id = repository.resolve(resolveRefName(repository, tag));
+		if (id == null)
+			return null;
+		final RevWalk walk = new RevWalk(repository);
+		try {
+			return walk.parseCommit(id);
+		} finally {
+			walk.release();
+		}
+	}
+
+	/**
+	 * Returns the name of the ref a tag or branch name as used in map files
+	 * resolves to, following the same preference as
+	 * {@link #resolveCommit(Repository, String)}.
+	 *
+	 * @param repository
+	 *            the repository
+	 * @param tag
+	 *            the tag, branch or revision
+	 * @return the full ref name, or the tag itself if it is no tag or remote
+	 *         branch
+	 * @throws IOException
+	 *             if the repository could not be read
+	 */
+	protected static String resolveRefName(Repository repository, String tag)
+			throws IOException {
+		if (repository.resolve(Constants.R_TAGS + tag) != null)
+			return Constants.R_TAGS + tag;
+		final String branch = Constants.R_REMOTES + REMOTE + "/" + tag; //$NON-NLS-1$
+		if (repository.resolve(branch) != null)
+			return branch;
+		return tag;
+	}
+
+	/**
+	 * Returns the id of the tree or blob at a path of a commit.
+	 *
+	 * @param repository
+	 *            the repository
+	 * @param commit
+	 *            the commit
+	 * @param path
+	 *            the normalized path, empty for the root tree
+	 * @return the object id or <code>null</code> if the path does not exist
+	 * @throws IOException
+	 *             if the repository could not be read
+	 */
+	protected static ObjectId resolveObject(Repository repository,
+			RevCommit commit, String path) throws IOException {
+		if (path.length() == 0)
+			return commit.getTree();
+		final TreeWalk walk = TreeWalk.forPath(repository, path, commit
+				.getTree());
+		if (walk == null)
+			return null;
+		try {
+			return walk.getObjectId(0);
+		} finally {
+			walk.release();
+		}
+	}
+
+	/**
+	 * Normalizes a path within a repository.
+	 *
+	 * @param path
+	 *            the path, may be <code>null</code>
+	 * @return the path without leading or trailing slashes, or an empty string
+	 *         for the repository root
+	 */
+	protected static String normalizePath(String path) {
+		if (path == null)
+			return ""; //$NON-NLS-1$
+		String p = path.replace('\\', '/');
+		while (p.startsWith("/")) //$NON-NLS-1$
+			p = p.substring(1);
+		while (p.endsWith("/")) //$NON-NLS-1$
+			p = p.substring(0, p.length() - 1);
+		return p;
+	}
+
+	@Override
+	public final void execute() throws BuildException {
+		GitRepositories.register(getProject());
+		try {
+			doExecute();
+		} catch (final IOException e) {
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_gitOperationFailed, localRepo, e
+							.getMessage()), e, getLocation());
+		}
+	}
+
+	/**
+	 * Performs the Git operation.
+	 *
+	 * @throws IOException
+	 *             if the operation failed
+	 */
+	protected abstract void doExecute() throws IOException;
+}
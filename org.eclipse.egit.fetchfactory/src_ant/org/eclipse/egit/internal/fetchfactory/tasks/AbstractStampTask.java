@@ -0,0 +1,130 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+
+import org.apache.tools.ant.BuildException;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Base class for the tasks recording which revision a map file entry resolved
+ * to, either in an {@link ElementStamp} or in a {@link LockFile}.
+ */
+public abstract class AbstractStampTask extends AbstractGitTask {
+
+	private String repo;
+
+	private String tag;
+
+	private String revision;
+
+	private String path;
+
+	private File file;
+
+	/**
+	 * Sets the repository location of the map file entry.
+	 *
+	 * @param repo
+	 *            the repository location
+	 */
+	public void setRepo(String repo) {
+		this.repo = repo;
+	}
+
+	/**
+	 * Sets the tag of the map file entry.
+	 *
+	 * @param tag
+	 *            the tag
+	 */
+	public void setTag(String tag) {
+		this.tag = tag;
+	}
+
+	/**
+	 * Sets the revision actually retrieved for the map file entry, e.g. the
+	 * commit its tag is locked to.
+	 *
+	 * @param revision
+	 *            the revision
+	 */
+	public void setRevision(String revision) {
+		this.revision = revision;
+	}
+
+	/**
+	 * Sets the path of the map file entry.
+	 *
+	 * @param path
+	 *            the path
+	 */
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Sets the stamp or lock file.
+	 *
+	 * @param file
+	 *            the file
+	 */
+	public void setFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the repository location of the map file entry
+	 */
+	protected String getRepo() {
+		return required(repo, "repo"); //$NON-NLS-1$
+	}
+
+	/**
+	 * @return the tag of the map file entry
+	 */
+	protected String getTag() {
+		return required(tag, "tag"); //$NON-NLS-1$
+	}
+
+	/**
+	 * @return the revision retrieved for the map file entry, which defaults to
+	 *         its tag
+	 */
+	protected String getRevision() {
+		return revision != null ? revision : getTag();
+	}
+
+	/**
+	 * @return the normalized path of the map file entry
+	 */
+	protected String getPath() {
+		return normalizePath(path);
+	}
+
+	/**
+	 * @return the stamp or lock file
+	 */
+	protected File getFile() {
+		if (file == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "file"), getLocation()); //$NON-NLS-1$
+		return file;
+	}
+
+	private String required(String value, String name) {
+		if (value == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, name), getLocation());
+		return value;
+	}
+}
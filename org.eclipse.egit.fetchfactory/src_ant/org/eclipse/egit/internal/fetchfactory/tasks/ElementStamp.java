@@ -0,0 +1,159 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Properties;
+
+import org.eclipse.jgit.lib.Constants;
+
+/**
+ * Records which revision of a repository path was retrieved into the build
+ * location.
+ * <p>
+ * The stamp is a small properties file stored next to the retrieved element.
+ * It remembers the map file entry (repository, tag and path) together with
+ * the ref the tag resolved to, the commit and the id of the tree (or blob) at
+ * the path.
+ * </p>
+ */
+public class ElementStamp {
+
+	private static final String REPO = "repo"; //$NON-NLS-1$
+
+	private static final String TAG = "tag"; //$NON-NLS-1$
+
+	private static final String PATH = "path"; //$NON-NLS-1$
+
+	private static final String REF = "ref"; //$NON-NLS-1$
+
+	private static final String COMMIT = "commit"; //$NON-NLS-1$
+
+	private static final String OBJECT = "object"; //$NON-NLS-1$
+
+	/**
+	 * Reads a stamp.
+	 *
+	 * @param file
+	 *            the stamp file
+	 * @return the stamp or <code>null</code> if the file does not exist or
+	 *         cannot be read
+	 */
+	public static ElementStamp read(File file) {
+		if (!file.isFile())
+			return null;
+		final Properties properties = new Properties();
+		try {
+			final InputStream in = new BufferedInputStream(
+					new FileInputStream(file));
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			// treat as missing; the element is retrieved again
+			return null;
+		}
+		return new ElementStamp(properties);
+	}
+
+	private final Properties properties;
+
+	private ElementStamp(Properties properties) {
+		this.properties = properties;
+	}
+
+	/**
+	 * Creates a new stamp.
+	 *
+	 * @param repo
+	 *            the repository location of the map file entry
+	 * @param tag
+	 *            the tag of the map file entry
+	 * @param path
+	 *            the normalized path of the map file entry
+	 * @param ref
+	 *            the ref the tag resolved to
+	 * @param commit
+	 *            the id of the commit
+	 * @param object
+	 *            the id of the tree or blob at the path
+	 */
+	public ElementStamp(String repo, String tag, String path, String ref,
+			String commit, String object) {
+		properties = new Properties();
+		properties.setProperty(REPO, repo);
+		properties.setProperty(TAG, tag);
+		properties.setProperty(PATH, path);
+		properties.setProperty(REF, ref);
+		properties.setProperty(COMMIT, commit);
+		properties.setProperty(OBJECT, object);
+	}
+
+	/**
+	 * Writes the stamp.
+	 *
+	 * @param file
+	 *            the stamp file
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public void write(File file) throws IOException {
+		final OutputStream out = new BufferedOutputStream(
+				new FileOutputStream(file));
+		try {
+			properties.store(out, null);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Indicates if the stamp was written for the specified map file entry.
+	 *
+	 * @param repo
+	 *            the repository location
+	 * @param tag
+	 *            the tag
+	 * @param path
+	 *            the normalized path
+	 * @return <code>true</code> if the entry matches
+	 */
+	public boolean isFor(String repo, String tag, String path) {
+		return repo.equals(properties.getProperty(REPO))
+				&& tag.equals(properties.getProperty(TAG))
+				&& path.equals(properties.getProperty(PATH));
+	}
+
+	/**
+	 * @return <code>true</code> if the tag resolved to a Git tag, which is
+	 *         assumed to never move
+	 */
+	public boolean isTag() {
+		final String ref = properties.getProperty(REF);
+		return ref != null && ref.startsWith(Constants.R_TAGS);
+	}
+
+	/**
+	 * @return the id of the tree or blob at the path
+	 */
+	public String getObject() {
+		return properties.getProperty(OBJECT);
+	}
+}
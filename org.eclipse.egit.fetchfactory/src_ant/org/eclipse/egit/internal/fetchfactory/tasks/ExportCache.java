@@ -0,0 +1,306 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.tools.ant.util.FileUtils;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Content-addressed cache of exported trees and files.
+ * <p>
+ * Exported content is stored once per Git object id. Destinations are
+ * materialized by copying the cached files. If links are enabled, they are
+ * hard-linked instead, which requires Java 7 and falls back to copying if links
+ * are not available or not supported by the file system (e.g. across file
+ * systems).
+ * </p>
+ * <p>
+ * A linked file shares its content with the cache, so editing it in place
+ * would modify the cache for all builds. Cached files are therefore made
+ * read-only before they are linked, and copied if that fails. Descriptors
+ * which PDE Build rewrites in place (e.g. to replace the version qualifier)
+ * are always copied.
+ * </p>
+ * <p>
+ * Materializing an entry records its last use in its modification time, so
+ * that {@link GitCacheTask} can evict the least recently used entries.
+ * </p>
+ */
+public class ExportCache {
+
+	/** files rewritten by PDE Build which must not share the cached file */
+	private static final Set<String> COPIED_FILES = new HashSet<String>(Arrays
+			.asList(new String[] { "MANIFEST.MF", "plugin.xml", //$NON-NLS-1$ //$NON-NLS-2$
+					"fragment.xml", "feature.xml" })); //$NON-NLS-1$ //$NON-NLS-2$
+
+	private static final Method toPath;
+
+	private static final Method createLink;
+
+	static {
+		Method toPathMethod = null;
+		Method createLinkMethod = null;
+		try {
+			// java.nio.file is only available on Java 7 and later
+			toPathMethod = File.class.getMethod("toPath"); //$NON-NLS-1$
+			final Class<?> pathClass = Class.forName("java.nio.file.Path"); //$NON-NLS-1$
+			createLinkMethod = Class.forName("java.nio.file.Files").getMethod( //$NON-NLS-1$
+					"createLink", new Class[] { pathClass, pathClass }); //$NON-NLS-1$
+		} catch (final ClassNotFoundException e) {
+			toPathMethod = null;
+		} catch (final NoSuchMethodException e) {
+			toPathMethod = null;
+		}
+		toPath = toPathMethod;
+		createLink = toPathMethod != null ? createLinkMethod : null;
+	}
+
+	private static int lastTemp;
+
+	private static synchronized int nextTemp() {
+		return ++lastTemp;
+	}
+
+	private final File directory;
+
+	private final boolean links;
+
+	/**
+	 * Creates a new cache materializing destinations by copying.
+	 *
+	 * @param directory
+	 *            the cache directory
+	 */
+	public ExportCache(File directory) {
+		this(directory, false);
+	}
+
+	/**
+	 * Creates a new cache.
+	 *
+	 * @param directory
+	 *            the cache directory
+	 * @param links
+	 *            whether to materialize destinations using hard links where
+	 *            possible
+	 */
+	public ExportCache(File directory, boolean links) {
+		this.directory = directory;
+		this.links = links;
+	}
+
+	/**
+	 * Returns the cache location for the content of a tree.
+	 *
+	 * @param treeId
+	 *            the tree id
+	 * @return the cached directory, which may not exist yet
+	 */
+	public File getTree(ObjectId treeId) {
+		return new File(directory, "trees/" + treeId.name()); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns the cache location for a file.
+	 *
+	 * @param blobId
+	 *            the blob id
+	 * @param mode
+	 *            the file mode, which is not part of the blob id
+	 * @return the cached file, which may not exist yet
+	 */
+	public File getBlob(ObjectId blobId, FileMode mode) {
+		final String suffix = mode == FileMode.EXECUTABLE_FILE ? ".x" : ""; //$NON-NLS-1$ //$NON-NLS-2$
+		return new File(directory, "blobs/" + blobId.name() + suffix); //$NON-NLS-1$
+	}
+
+	/**
+	 * Returns a temporary location next to the specified cache entry.
+	 * <p>
+	 * Entries are written to the temporary location first and then moved into
+	 * place using {@link #commit(File, File)} so that concurrent builds never
+	 * see incomplete entries.
+	 * </p>
+	 *
+	 * @param entry
+	 *            the cache entry
+	 * @return the temporary location
+	 * @throws IOException
+	 *             if the parent directory could not be created
+	 */
+	public File getTemp(File entry) throws IOException {
+		final File parent = entry.getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+			throw new IOException(NLS.bind(TaskMessages.error_createDirectory,
+					parent));
+		return new File(parent, entry.getName() + ".tmp" + nextTemp() //$NON-NLS-1$
+				+ "-" + System.currentTimeMillis()); //$NON-NLS-1$
+	}
+
+	/**
+	 * Moves a temporary location into place. If another build already added
+	 * the entry the temporary location is discarded.
+	 *
+	 * @param temp
+	 *            the temporary location
+	 * @param entry
+	 *            the cache entry
+	 * @throws IOException
+	 *             if the entry could not be added
+	 */
+	public void commit(File temp, File entry) throws IOException {
+		if (temp.renameTo(entry))
+			return;
+		FileUtil.delete(temp);
+		if (!entry.exists())
+			throw new IOException(NLS.bind(TaskMessages.error_cacheEntry,
+					entry));
+	}
+
+	/**
+	 * Materializes a cached entry at the specified destination.
+	 *
+	 * @param entry
+	 *            the cached file or directory
+	 * @param destination
+	 *            the destination file or directory
+	 * @return the number of files materialized
+	 * @throws IOException
+	 *             if a file could not be linked or copied
+	 */
+	public int materialize(File entry, File destination) throws IOException {
+		entry.setLastModified(System.currentTimeMillis());
+		return materialize(entry, destination,
+				new boolean[] { links && createLink != null });
+	}
+
+	private int materialize(File entry, File destination, boolean[] useLinks)
+			throws IOException {
+		if (!entry.isDirectory()) {
+			materializeFile(entry, destination, useLinks);
+			return 1;
+		}
+		final File[] children = entry.listFiles();
+		if (children == null)
+			return 0;
+		int count = 0;
+		for (int i = 0; i < children.length; i++) {
+			count += materialize(children[i], new File(destination,
+					children[i].getName()), useLinks);
+		}
+		return count;
+	}
+
+	private void materializeFile(File file, File destination,
+			boolean[] useLinks) throws IOException {
+		final File parent = destination.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException(NLS.bind(TaskMessages.error_createDirectory,
+					parent));
+
+		// never write through an existing link into the cache
+		if (destination.exists() && !FileUtil.deleteFile(destination))
+			throw new IOException(NLS.bind(TaskMessages.error_deleteFile,
+					destination));
+
+		if (useLinks[0] && !COPIED_FILES.contains(destination.getName())
+				&& setReadOnly(file)) {
+			if (link(file, destination))
+				return;
+			// do not try again, e.g. when the cache is on another file system
+			useLinks[0] = false;
+		}
+		FileUtils.getFileUtils().copyFile(file, destination);
+		if (file.canExecute())
+			destination.setExecutable(true);
+	}
+
+	/**
+	 * Makes a cached file read-only and verifies that it cannot be written.
+	 * The check fails for users allowed to write read-only files (e.g. root),
+	 * whose builds could modify the cache through a link.
+	 */
+	private static boolean setReadOnly(File file) {
+		if (file.canWrite())
+			file.setWritable(false, false);
+		return !file.canWrite();
+	}
+
+	private static boolean link(File existing, File link) {
+		try {
+			createLink.invoke(null, new Object[] {
+					toPath.invoke(link, (Object[]) null),
+					toPath.invoke(existing, (Object[]) null) });
+			return true;
+		} catch (final InvocationTargetException e) {
+			// not supported by the file system
+			return false;
+		} catch (final IllegalAccessException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns all complete entries of the cache.
+	 *
+	 * @return the cached trees and files
+	 */
+	public List<File> getEntries() {
+		final List<File> entries = new ArrayList<File>();
+		addEntries(new File(directory, "trees"), entries); //$NON-NLS-1$
+		addEntries(new File(directory, "blobs"), entries); //$NON-NLS-1$
+		return entries;
+	}
+
+	private static void addEntries(File dir, List<File> entries) {
+		final File[] children = dir.listFiles();
+		if (children == null)
+			return;
+		for (int i = 0; i < children.length; i++) {
+			// skip entries still being written
+			if (children[i].getName().indexOf(".tmp") < 0) //$NON-NLS-1$
+				entries.add(children[i]);
+		}
+	}
+
+	/**
+	 * Removes an entry from the cache. The entry is moved out of place first,
+	 * so that a partially deleted entry is never taken for a complete one.
+	 *
+	 * @param entry
+	 *            the cache entry
+	 * @throws IOException
+	 *             if the entry could not be removed
+	 */
+	public void evict(File entry) throws IOException {
+		final File temp = getTemp(entry);
+		if (!entry.renameTo(temp)) {
+			// already evicted by another build
+			if (!entry.exists())
+				return;
+			throw new IOException(NLS.bind(TaskMessages.error_deleteFile,
+					entry));
+		}
+		FileUtil.delete(temp);
+	}
+}
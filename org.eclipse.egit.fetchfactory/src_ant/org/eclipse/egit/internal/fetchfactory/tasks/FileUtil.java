@@ -0,0 +1,78 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.tools.ant.util.FileUtils;
+
+/**
+ * File operations shared by the tasks.
+ */
+final class FileUtil {
+
+	/**
+	 * Deletes a file or directory recursively. Symbolic links are deleted
+	 * without descending into the directory they point to.
+	 *
+	 * @param file
+	 *            the file or directory
+	 */
+	static void delete(File file) {
+		if (!isLink(file)) {
+			final File[] children = file.listFiles();
+			if (children != null) {
+				for (int i = 0; i < children.length; i++) {
+					delete(children[i]);
+				}
+			}
+		}
+		deleteFile(file);
+	}
+
+	/**
+	 * Indicates whether a file is a symbolic link. Java 6 has no API for
+	 * links, so the canonical path of the file is compared with the canonical
+	 * path of its parent.
+	 *
+	 * @param file
+	 *            the file
+	 * @return <code>true</code> if the file is a symbolic link, or if that
+	 *         could not be determined
+	 */
+	static boolean isLink(File file) {
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if (parent == null)
+			return false;
+		try {
+			return FileUtils.getFileUtils().isSymbolicLink(parent,
+					file.getName());
+		} catch (final IOException e) {
+			// never follow what cannot be resolved
+			return true;
+		}
+	}
+
+	/**
+	 * Deletes a file, even if it is read-only on platforms which do not delete
+	 * read-only files (e.g. Windows).
+	 */
+	static boolean deleteFile(File file) {
+		if (file.delete())
+			return true;
+		return file.setWritable(true) && file.delete();
+	}
+
+	private FileUtil() {
+		// no instances
+	}
+}
@@ -0,0 +1,139 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.apache.tools.ant.BuildException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.BundleWriter;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Writes the specified revisions of a local clone, together with all objects
+ * reachable from them, into a Git bundle file (<code>egit.bundle</code>).
+ * <p>
+ * Tags are included as tags and remote branches as branches. Any other
+ * revision, e.g. a locked commit, is included as
+ * <code>refs/revisions/&lt;id&gt;</code>. The bundle can seed a local clone
+ * with {@link GitSeedTask}. Works for clones created by the native backend as
+ * well.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>revisions</code> - comma-separated list of tags, branches or
+ * commits (mandatory)</li>
+ * <li><code>file</code> - the bundle file to write (mandatory)</li>
+ * </ul>
+ * </p>
+ */
+public class GitBundleTask extends AbstractGitTask {
+
+	/** Prefix of the refs naming revisions which are no tag or branch. */
+	public static final String R_REVISIONS = Constants.R_REFS + "revisions/"; //$NON-NLS-1$
+
+	private String revisions;
+
+	private File file;
+
+	/**
+	 * Sets the revisions to include.
+	 *
+	 * @param revisions
+	 *            comma-separated list of tags, branches or commits
+	 */
+	public void setRevisions(String revisions) {
+		this.revisions = revisions;
+	}
+
+	/**
+	 * Sets the bundle file.
+	 *
+	 * @param file
+	 *            the bundle file to write
+	 */
+	public void setFile(File file) {
+		this.file = file;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		if (revisions == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "revisions"), //$NON-NLS-1$
+					getLocation());
+		if (file == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "file"), getLocation()); //$NON-NLS-1$
+
+		final Repository repository = getRepository();
+		final Map<String, ObjectId> refs = new LinkedHashMap<String, ObjectId>();
+		final StringTokenizer tokenizer = new StringTokenizer(revisions, ","); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			final String revision = tokenizer.nextToken().trim();
+			if (revision.length() == 0)
+				continue;
+			final Ref tag = repository.getRef(Constants.R_TAGS + revision);
+			if (tag != null) {
+				refs.put(tag.getName(), tag.getObjectId());
+				continue;
+			}
+			final Ref branch = repository.getRef(Constants.R_REMOTES + REMOTE
+					+ "/" + revision); //$NON-NLS-1$
+			if (branch != null) {
+				refs.put(Constants.R_HEADS + revision, branch.getObjectId());
+				continue;
+			}
+			final ObjectId id = repository.resolve(revision);
+			if (id == null || !repository.hasObject(id))
+				throw new BuildException(NLS.bind(
+						TaskMessages.error_refNotFound, revision,
+						getLocalRepo()), getLocation());
+			refs.put(R_REVISIONS + id.name(), id);
+		}
+
+		log(NLS.bind(TaskMessages.info_bundle, new Object[] { getLocalRepo(),
+				Integer.valueOf(refs.size()), file }));
+		final BundleWriter writer = new BundleWriter(repository);
+		for (final Map.Entry<String, ObjectId> ref : refs.entrySet()) {
+			writer.include(ref.getKey(), ref.getValue());
+		}
+
+		// write to a temporary file so that no partial bundle seeds a clone
+		final File parent = file.getAbsoluteFile().getParentFile();
+		if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+			throw new IOException(NLS.bind(TaskMessages.error_createDirectory,
+					parent));
+		final File temp = new File(parent, file.getName() + ".tmp"); //$NON-NLS-1$
+		final OutputStream out = new BufferedOutputStream(
+				new FileOutputStream(temp));
+		try {
+			writer.writeBundle(NullProgressMonitor.INSTANCE, out);
+		} finally {
+			out.close();
+		}
+		if ((file.exists() && !file.delete()) || !temp.renameTo(file))
+			throw new IOException(NLS.bind(TaskMessages.error_deleteFile, file));
+	}
+}
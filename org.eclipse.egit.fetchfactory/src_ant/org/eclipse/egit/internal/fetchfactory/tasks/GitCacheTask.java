@@ -0,0 +1,276 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Keeps the fetch cache within a size budget by evicting the least recently
+ * used local clones and export cache entries (<code>egit.cache</code>).
+ * <p>
+ * The last use of a clone is recorded in a marker file inside its
+ * <code>.git</code> directory whenever it is listed as in use, the last use of
+ * an export cache entry in its modification time. Clones in use and clones or
+ * entries used since the build started are never evicted, nor are clones
+ * locked by another build sharing the cache. Other content of the cache, such
+ * as the object pool the clones borrow objects from, cannot be evicted and is
+ * therefore not counted against the budget.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>dir</code> - the fetch cache (mandatory)</li>
+ * <li><code>maxSize</code> - the size budget in bytes, optionally followed by
+ * <code>k</code>, <code>m</code> or <code>g</code> (mandatory)</li>
+ * <li><code>inUse</code> - comma-separated list of the local clones used by
+ * the current build (optional)</li>
+ * <li><code>exportCache</code> - the export cache (optional)</li>
+ * </ul>
+ * </p>
+ */
+public class GitCacheTask extends Task {
+
+	private static final String LAST_USED = "fetchfactory.lastUsed"; //$NON-NLS-1$
+
+	/**
+	 * Parses a size with an optional unit.
+	 *
+	 * @param size
+	 *            the size, e.g. <code>512m</code>
+	 * @return the number of bytes
+	 * @throws NumberFormatException
+	 *             if the size is invalid
+	 */
+	static long parseSize(String size) {
+		final String s = size.trim().toLowerCase();
+		long factor = 1;
+		int end = s.length();
+		if (s.endsWith("k")) //$NON-NLS-1$
+			factor = 1024L;
+		else if (s.endsWith("m")) //$NON-NLS-1$
+			factor = 1024L * 1024L;
+		else if (s.endsWith("g")) //$NON-NLS-1$
+			factor = 1024L * 1024L * 1024L;
+		if (factor > 1)
+			end--;
+		return Long.parseLong(s.substring(0, end).trim()) * factor;
+	}
+
+	static long sizeOf(File file) {
+		if (!file.isDirectory() || FileUtil.isLink(file))
+			return file.length();
+		long size = 0;
+		final File[] children = file.listFiles();
+		if (children != null) {
+			for (int i = 0; i < children.length; i++) {
+				size += sizeOf(children[i]);
+			}
+		}
+		return size;
+	}
+
+	private static long lastUsed(File clone) {
+		final File gitDir = new File(clone, Constants.DOT_GIT);
+		if (!gitDir.isDirectory())
+			// an export cache entry
+			return clone.lastModified();
+		final File marker = new File(gitDir, LAST_USED);
+		return marker.isFile() ? marker.lastModified() : gitDir.lastModified();
+	}
+
+	private File dir;
+
+	private String maxSize;
+
+	private String inUse;
+
+	private File exportCache;
+
+	/**
+	 * Sets the fetch cache.
+	 *
+	 * @param dir
+	 *            the fetch cache directory
+	 */
+	public void setDir(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Sets the size budget.
+	 *
+	 * @param maxSize
+	 *            the size in bytes, optionally followed by a unit
+	 */
+	public void setMaxSize(String maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Sets the local clones used by the current build.
+	 *
+	 * @param inUse
+	 *            comma-separated list of local clones
+	 */
+	public void setInUse(String inUse) {
+		this.inUse = inUse;
+	}
+
+	/**
+	 * Sets the export cache whose entries are evicted together with the
+	 * clones.
+	 *
+	 * @param exportCache
+	 *            the export cache directory
+	 */
+	public void setExportCache(File exportCache) {
+		this.exportCache = exportCache;
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		if (dir == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "dir"), getLocation()); //$NON-NLS-1$
+		if (maxSize == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "maxSize"), //$NON-NLS-1$
+					getLocation());
+		final long budget;
+		try {
+			budget = parseSize(maxSize);
+		} catch (final NumberFormatException e) {
+			throw new BuildException(NLS.bind(TaskMessages.error_invalidSize,
+					maxSize), e, getLocation());
+		}
+		if (!dir.isDirectory())
+			return;
+
+		try {
+			final Set<File> used = markUsed();
+			evict(budget, used);
+		} catch (final IOException e) {
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_gitOperationFailed, dir, e.getMessage()),
+					e, getLocation());
+		}
+	}
+
+	private Set<File> markUsed() throws IOException {
+		final Set<File> used = new HashSet<File>();
+		if (inUse == null)
+			return used;
+		final StringTokenizer tokenizer = new StringTokenizer(inUse, ","); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			final String path = tokenizer.nextToken().trim();
+			if (path.length() == 0)
+				continue;
+			final File clone = new File(path).getCanonicalFile();
+			used.add(clone);
+			final File gitDir = new File(clone, Constants.DOT_GIT);
+			if (gitDir.isDirectory()) {
+				final File marker = new File(gitDir, LAST_USED);
+				new FileOutputStream(marker).close();
+				marker.setLastModified(System.currentTimeMillis());
+			}
+		}
+		return used;
+	}
+
+	private void evict(long budget, Set<File> used) throws IOException {
+		final File[] children = dir.listFiles();
+		if (children == null)
+			return;
+
+		// clones and entries used by any fetch script of the running build stay
+		final long buildStart = ManagementFactory.getRuntimeMXBean()
+				.getStartTime();
+		final Map<File, Long> sizes = new HashMap<File, Long>();
+		final List<File> candidates = new ArrayList<File>();
+		long total = 0;
+		for (int i = 0; i < children.length; i++) {
+			final File clone = children[i].getCanonicalFile();
+			if (!GitRepositories.exists(clone))
+				continue;
+			final long size = sizeOf(clone);
+			total += size;
+			sizes.put(clone, Long.valueOf(size));
+			if (!used.contains(clone) && lastUsed(clone) < buildStart)
+				candidates.add(clone);
+		}
+		final ExportCache cache = exportCache != null ? new ExportCache(
+				exportCache) : null;
+		final Set<File> entries = new HashSet<File>();
+		if (cache != null) {
+			entries.addAll(cache.getEntries());
+			for (final File entry : entries) {
+				final long size = sizeOf(entry);
+				total += size;
+				sizes.put(entry, Long.valueOf(size));
+				if (lastUsed(entry) < buildStart)
+					candidates.add(entry);
+			}
+		}
+		if (total <= budget)
+			return;
+
+		Collections.sort(candidates, new Comparator<File>() {
+			public int compare(File c1, File c2) {
+				final long l1 = lastUsed(c1);
+				final long l2 = lastUsed(c2);
+				return l1 < l2 ? -1 : l1 == l2 ? 0 : 1;
+			}
+		});
+
+		for (final File candidate : candidates) {
+			if (total <= budget)
+				break;
+			if (entries.contains(candidate)) {
+				cache.evict(candidate);
+			} else {
+				// skip clones currently used by another build
+				final RepositoryLock lock = RepositoryLock.get(candidate);
+				if (!lock.tryAcquire())
+					continue;
+				try {
+					GitRepositories.close(candidate);
+					FileUtil.delete(candidate);
+				} finally {
+					lock.release(false);
+				}
+			}
+			final Long size = sizes.get(candidate);
+			total -= size.longValue();
+			log(NLS.bind(TaskMessages.info_evict, candidate, size));
+		}
+		if (total > budget)
+			log(NLS.bind(TaskMessages.info_cacheFull, dir, Long.valueOf(total)),
+					Project.MSG_WARN);
+	}
+}
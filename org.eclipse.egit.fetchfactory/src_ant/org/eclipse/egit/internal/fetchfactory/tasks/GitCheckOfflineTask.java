@@ -0,0 +1,74 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.IOException;
+import java.util.StringTokenizer;
+
+import org.apache.tools.ant.BuildException;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Fails the build unless all specified revisions are available in the local
+ * clone (<code>egit.offline</code>).
+ * <p>
+ * Used instead of fetching in strict offline mode, so that a missing revision
+ * is reported immediately instead of after trying to reach the remote.
+ * Revisions are resolved like by {@link GitCheckoutTask}, i.e. tags, remote
+ * branches and commits are accepted.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>revisions</code> - comma-separated list of tags, branches or
+ * commits (mandatory)</li>
+ * </ul>
+ * </p>
+ */
+public class GitCheckOfflineTask extends AbstractGitTask {
+
+	private String revisions;
+
+	/**
+	 * Sets the revisions to check.
+	 *
+	 * @param revisions
+	 *            comma-separated list of tags, branches or commits
+	 */
+	public void setRevisions(String revisions) {
+		this.revisions = revisions;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		if (revisions == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "revisions"), //$NON-NLS-1$
+					getLocation());
+
+		final Repository repository = hasRepository() ? getRepository()
+				: null;
+		final StringTokenizer tokenizer = new StringTokenizer(revisions, ","); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			final String revision = tokenizer.nextToken().trim();
+			if (revision.length() == 0)
+				continue;
+			final ObjectId id = repository != null ? repository
+					.resolve(resolveRefName(repository, revision)) : null;
+			if (id == null || !repository.hasObject(id))
+				throw new BuildException(NLS.bind(TaskMessages.error_offline,
+						revision, getLocalRepo()), getLocation());
+		}
+	}
+}
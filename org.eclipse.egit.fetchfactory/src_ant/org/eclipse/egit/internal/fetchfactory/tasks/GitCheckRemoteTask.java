@@ -0,0 +1,166 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Ref;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.FetchConnection;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Sets a property if the refs advertised by the remote repository for the
+ * specified tags and branches match the local clone
+ * (<code>egit.checkremote</code>).
+ * <p>
+ * Only the ref advertisement is requested from the remote, which is much
+ * cheaper than a fetch. A tag matches if the local tag points to the same
+ * object, a branch if the remote tracking branch does. Nothing is set if the
+ * local clone does not exist, any ref differs or the remote cannot be
+ * contacted within the timeout; the clone is then updated as usual. The check
+ * is skipped if the property is already set.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>tags</code> - comma-separated list of tags or branches
+ * (mandatory)</li>
+ * <li><code>property</code> - the property to set if the clone is up to date
+ * (mandatory)</li>
+ * <li><code>timeout</code> - the time in seconds to wait for the ref
+ * advertisement (default is 10)</li>
+ * </ul>
+ * </p>
+ */
+public class GitCheckRemoteTask extends AbstractGitTask {
+
+	private String tags;
+
+	private String property;
+
+	private int timeout = 10;
+
+	/**
+	 * Sets the tags or branches to check.
+	 *
+	 * @param tags
+	 *            comma-separated list of tags or branches
+	 */
+	public void setTags(String tags) {
+		this.tags = tags;
+	}
+
+	/**
+	 * Sets the property to set if the clone is up to date.
+	 *
+	 * @param property
+	 *            the property name
+	 */
+	public void setProperty(String property) {
+		this.property = property;
+	}
+
+	/**
+	 * Sets the time to wait for the ref advertisement.
+	 *
+	 * @param timeout
+	 *            the timeout in seconds
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		if (tags == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "tags"), getLocation()); //$NON-NLS-1$
+		if (property == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "property"), //$NON-NLS-1$
+					getLocation());
+		if (getProject().getProperty(property) != null || !hasRepository())
+			return;
+
+		final Repository repository = getRepository();
+		final Map<String, Ref> remoteRefs;
+		try {
+			remoteRefs = getRemoteRefs(repository);
+		} catch (final IOException e) {
+			// e.g. unreachable or an unsupported protocol, fetch as usual
+			log(NLS.bind(TaskMessages.info_remoteUnavailable, getLocalRepo(),
+					e.getMessage()), Project.MSG_WARN);
+			return;
+		} catch (final URISyntaxException e) {
+			log(NLS.bind(TaskMessages.info_remoteUnavailable, getLocalRepo(),
+					e.getMessage()), Project.MSG_WARN);
+			return;
+		}
+
+		final StringTokenizer tokenizer = new StringTokenizer(tags, ","); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			final String tag = tokenizer.nextToken().trim();
+			if (tag.length() == 0)
+				continue;
+			if (!isUpToDate(repository, remoteRefs, tag))
+				return;
+		}
+		log(NLS.bind(TaskMessages.info_remoteUpToDate, getLocalRepo(), tags),
+				Project.MSG_VERBOSE);
+		getProject().setNewProperty(property, "true"); //$NON-NLS-1$
+	}
+
+	private Map<String, Ref> getRemoteRefs(Repository repository)
+			throws IOException, URISyntaxException {
+		final Transport transport = Transport.open(repository, REMOTE);
+		try {
+			transport.setTimeout(timeout);
+			final FetchConnection connection = transport.openFetch();
+			try {
+				return connection.getRefsMap();
+			} finally {
+				connection.close();
+			}
+		} finally {
+			transport.close();
+		}
+	}
+
+	private boolean isUpToDate(Repository repository,
+			Map<String, Ref> remoteRefs, String tag) throws IOException {
+		final Ref remoteTag = remoteRefs.get(Constants.R_TAGS + tag);
+		if (remoteTag != null)
+			return isSame(remoteTag, repository.getRef(Constants.R_TAGS + tag));
+		final Ref remoteBranch = remoteRefs.get(Constants.R_HEADS + tag);
+		if (remoteBranch != null)
+			return isSame(remoteBranch, repository.getRef(Constants.R_REMOTES
+					+ REMOTE + "/" + tag)); //$NON-NLS-1$
+
+		// neither tag nor branch, e.g. a commit id
+		return ObjectId.isId(tag)
+				&& repository.hasObject(ObjectId.fromString(tag));
+	}
+
+	private static boolean isSame(Ref remote, Ref local) {
+		return local != null && local.getObjectId() != null
+				&& local.getObjectId().equals(remote.getObjectId());
+	}
+}
@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Sets a property if the stamp of an element in the build location matches
+ * the map file entry (<code>egit.checkstamp</code>).
+ * <p>
+ * A stamp of a Git tag matches as long as it was written for the same map
+ * file entry because tags are assumed to never move. Stamps of branches only
+ * match if the branch still resolves to the same tree (or blob) at the path in
+ * the local clone, unless <code>tagsOnly</code> is set.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (optional)</li>
+ * <li><code>repo</code> - the repository location of the map file entry
+ * (mandatory)</li>
+ * <li><code>tag</code> - the tag of the map file entry (mandatory)</li>
+ * <li><code>revision</code> - the revision to retrieve, e.g. the commit the
+ * tag is locked to (optional, default is the tag)</li>
+ * <li><code>path</code> - the path of the map file entry (optional, default
+ * is the repository root)</li>
+ * <li><code>file</code> - the stamp file (mandatory)</li>
+ * <li><code>property</code> - the property to set if the stamp matches
+ * (mandatory)</li>
+ * <li><code>tagsOnly</code> - whether only stamps of Git tags can match, e.g.
+ * because the local clone has not been updated yet (default
+ * <code>false</code>)</li>
+ * </ul>
+ * </p>
+ */
+public class GitCheckStampTask extends AbstractStampTask {
+
+	private String property;
+
+	private boolean tagsOnly;
+
+	/**
+	 * Sets the property to set if the stamp matches.
+	 *
+	 * @param property
+	 *            the property name
+	 */
+	public void setProperty(String property) {
+		this.property = property;
+	}
+
+	/**
+	 * Sets whether only stamps of Git tags can match.
+	 *
+	 * @param tagsOnly
+	 *            <code>true</code> to ignore stamps of branches
+	 */
+	public void setTagsOnly(boolean tagsOnly) {
+		this.tagsOnly = tagsOnly;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		if (property == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "property"), //$NON-NLS-1$
+					getLocation());
+		if (isUpToDate()) {
+			log(NLS.bind(TaskMessages.info_upToDate, getFile(), getTag()),
+					Project.MSG_VERBOSE);
+			getProject().setNewProperty(property, "true"); //$NON-NLS-1$
+		}
+	}
+
+	private boolean isUpToDate() throws IOException {
+		final ElementStamp stamp = ElementStamp.read(getFile());
+		if (stamp == null || !stamp.isFor(getRepo(), getTag(), getPath()))
+			return false;
+		if (stamp.isTag())
+			return true;
+		if (tagsOnly || !hasRepository())
+			return false;
+
+		final Repository repository = getRepository();
+		final RevCommit commit = resolveCommit(repository, getRevision());
+		if (commit == null)
+			return false;
+		final ObjectId object = resolveObject(repository, commit, getPath());
+		return object != null && object.name().equals(stamp.getObject());
+	}
+}
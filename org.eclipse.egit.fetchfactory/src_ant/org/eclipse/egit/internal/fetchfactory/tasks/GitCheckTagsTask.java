@@ -0,0 +1,91 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.IOException;
+import java.util.StringTokenizer;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Sets a property if all specified tags are available as Git tags in the
+ * local clone (<code>egit.checktags</code>).
+ * <p>
+ * Tags are assumed to never move, so a local clone containing all tags of the
+ * map file entries does not need to be updated. Branches and other revisions
+ * never match. Works for clones created by the native backend as well.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>tags</code> - comma-separated list of tags (mandatory)</li>
+ * <li><code>property</code> - the property to set if all tags are available
+ * (mandatory)</li>
+ * </ul>
+ * </p>
+ */
+public class GitCheckTagsTask extends AbstractGitTask {
+
+	private String tags;
+
+	private String property;
+
+	/**
+	 * Sets the tags to check.
+	 *
+	 * @param tags
+	 *            comma-separated list of tags
+	 */
+	public void setTags(String tags) {
+		this.tags = tags;
+	}
+
+	/**
+	 * Sets the property to set if all tags are available.
+	 *
+	 * @param property
+	 *            the property name
+	 */
+	public void setProperty(String property) {
+		this.property = property;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		if (tags == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "tags"), getLocation()); //$NON-NLS-1$
+		if (property == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "property"), //$NON-NLS-1$
+					getLocation());
+		if (!hasRepository())
+			return;
+
+		final Repository repository = getRepository();
+		final StringTokenizer tokenizer = new StringTokenizer(tags, ","); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			final String tag = tokenizer.nextToken().trim();
+			if (tag.length() == 0)
+				continue;
+			if (repository.getRef(Constants.R_TAGS + tag) == null)
+				return;
+		}
+		log(NLS.bind(TaskMessages.info_tagsAvailable, getLocalRepo(), tags),
+				Project.MSG_VERBOSE);
+		getProject().setNewProperty(property, "true"); //$NON-NLS-1$
+	}
+}
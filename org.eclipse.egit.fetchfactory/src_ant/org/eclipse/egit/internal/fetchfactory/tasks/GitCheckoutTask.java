@@ -0,0 +1,96 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.dircache.DirCacheCheckout;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.RefUpdate;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Forcibly checks out a tag or branch in a local clone, leaving a detached
+ * <code>HEAD</code> (<code>egit.checkout</code>).
+ * <p>
+ * If the clone has no index, the work tree is cleared and written completely.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>tag</code> - the tag or branch to check out (mandatory)</li>
+ * </ul>
+ * </p>
+ */
+public class GitCheckoutTask extends AbstractGitTask {
+
+	private String tag;
+
+	/**
+	 * Sets the tag or branch to check out.
+	 *
+	 * @param tag
+	 *            the tag
+	 */
+	public void setTag(String tag) {
+		this.tag = tag;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		if (tag == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "tag"), getLocation()); //$NON-NLS-1$
+		final Repository repository = getRepository();
+		final RevCommit commit = resolveCommit(repository, tag);
+		if (commit == null)
+			throw new BuildException(NLS.bind(TaskMessages.error_refNotFound,
+					tag, getLocalRepo()), getLocation());
+
+		log(NLS.bind(TaskMessages.info_checkout, getLocalRepo(), tag));
+		if (!repository.getIndexFile().exists())
+			clearWorkTree(repository);
+		final ObjectId headTree = repository.resolve(Constants.HEAD
+				+ "^{tree}"); //$NON-NLS-1$
+		final DirCache dirCache = repository.lockDirCache();
+		final DirCacheCheckout checkout = new DirCacheCheckout(repository,
+				headTree, dirCache, commit.getTree());
+		checkout.setFailOnConflict(false);
+		checkout.checkout();
+
+		final RefUpdate update = repository.updateRef(Constants.HEAD, true);
+		update.setNewObjectId(commit);
+		update.forceUpdate();
+	}
+
+	/**
+	 * Deletes the content of the work tree. Without an index, e.g. after
+	 * <code>egit.repair</code> removed a corrupt one, the files in the work
+	 * tree are untracked and would be taken for conflicts instead of being
+	 * overwritten.
+	 */
+	private static void clearWorkTree(Repository repository) {
+		final File[] children = repository.getWorkTree().listFiles();
+		if (children == null)
+			return;
+		for (int i = 0; i < children.length; i++) {
+			if (!children[i].equals(repository.getDirectory()))
+				FileUtil.delete(children[i]);
+		}
+	}
+}
@@ -0,0 +1,188 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.DirectoryScanner;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.util.FileUtils;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Copies a directory tree using several threads (<code>egit.copy</code>).
+ * <p>
+ * The files are selected like by Ant's <code>copy</code> task with a
+ * <code>fileset</code>, i.e. with the default excludes, and
+ * <code>.git</code> metadata is skipped as well. Like with
+ * <code>copy</code>, a file is only copied if the destination does not exist
+ * or is older, and empty directories are created. The content is transferred
+ * with {@link FileChannel#transferTo}, which lets the operating system copy
+ * without passing the data through the JVM where supported.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>dir</code> - the directory to copy (mandatory)</li>
+ * <li><code>todir</code> - the destination directory (mandatory)</li>
+ * <li><code>threads</code> - the number of files to copy concurrently
+ * (default is the number of processors)</li>
+ * </ul>
+ * </p>
+ */
+public class GitCopyTask extends Task {
+
+	private static final String[] EXCLUDES = { "**/" + Constants.DOT_GIT, //$NON-NLS-1$
+			"**/" + Constants.DOT_GIT + "/**" }; //$NON-NLS-1$ //$NON-NLS-2$
+
+	private File dir;
+
+	private File todir;
+
+	private int threads = Runtime.getRuntime().availableProcessors();
+
+	/**
+	 * Sets the directory to copy.
+	 *
+	 * @param dir
+	 *            the source directory
+	 */
+	public void setDir(File dir) {
+		this.dir = dir;
+	}
+
+	/**
+	 * Sets the destination directory.
+	 *
+	 * @param todir
+	 *            the destination directory
+	 */
+	public void setTodir(File todir) {
+		this.todir = todir;
+	}
+
+	/**
+	 * Sets the number of files to copy concurrently.
+	 *
+	 * @param threads
+	 *            the number of threads
+	 */
+	public void setThreads(int threads) {
+		this.threads = threads;
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		if (dir == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "dir"), getLocation()); //$NON-NLS-1$
+		if (todir == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "todir"), //$NON-NLS-1$
+					getLocation());
+		if (!dir.isDirectory())
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_directoryNotFound, dir), getLocation());
+
+		final DirectoryScanner scanner = new DirectoryScanner();
+		scanner.setBasedir(dir);
+		scanner.setExcludes(EXCLUDES);
+		scanner.addDefaultExcludes();
+		scanner.scan();
+
+		// create the directories first so that workers never race for them
+		for (final String name : scanner.getIncludedDirectories()) {
+			final File directory = new File(todir, name);
+			if (!directory.isDirectory() && !directory.mkdirs())
+				throw new BuildException(NLS.bind(
+						TaskMessages.error_createDirectory, directory),
+						getLocation());
+		}
+
+		final long granularity = FileUtils.getFileUtils()
+				.getFileTimestampGranularity();
+		final List<String> outdated = new ArrayList<String>();
+		for (final String name : scanner.getIncludedFiles()) {
+			final File target = new File(todir, name);
+			if (!target.exists()
+					|| new File(dir, name).lastModified() > target
+							.lastModified()
+							+ granularity)
+				outdated.add(name);
+		}
+		if (outdated.isEmpty())
+			return;
+
+		log(NLS.bind(TaskMessages.info_copy, new Object[] { dir,
+				Integer.valueOf(outdated.size()), todir }));
+		final ExecutorService executor = Executors.newFixedThreadPool(Math
+				.max(1, Math.min(threads, outdated.size())));
+		try {
+			final List<Future<Object>> results = new ArrayList<Future<Object>>(
+					outdated.size());
+			for (final String name : outdated) {
+				results.add(executor.submit(new Runnable() {
+					public void run() {
+						copy(new File(dir, name), new File(todir, name));
+					}
+				}, null));
+			}
+			for (final Future<Object> result : results) {
+				result.get();
+			}
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof BuildException)
+				throw (BuildException) e.getCause();
+			throw new BuildException(e.getCause(), getLocation());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BuildException(e, getLocation());
+		} finally {
+			executor.shutdownNow();
+		}
+	}
+
+	private void copy(File source, File target) {
+		try {
+			final FileChannel in = new FileInputStream(source).getChannel();
+			try {
+				final FileChannel out = new FileOutputStream(target)
+						.getChannel();
+				try {
+					final long size = in.size();
+					long position = 0;
+					while (position < size)
+						position += in.transferTo(position, size - position,
+								out);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			throw new BuildException(NLS.bind(TaskMessages.error_copy,
+					source, e.getMessage()), e, getLocation());
+		}
+	}
+}
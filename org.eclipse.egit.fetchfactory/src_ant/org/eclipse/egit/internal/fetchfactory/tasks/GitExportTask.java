@@ -0,0 +1,538 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.StringTokenizer;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.util.FileUtils;
+import org.eclipse.jgit.dircache.DirCache;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.FileMode;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.ObjectLoader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.util.RawParseUtils;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Copies the content of a path in a local clone to the build location
+ * (<code>egit.export</code>).
+ * <p>
+ * Only files tracked by Git are copied, <code>.git</code> metadata and build
+ * output left in the local clone are never exported. If a tag is specified
+ * the files are written straight from the object database without checking
+ * out the tag, otherwise the checked out files are copied from the work tree.
+ * Like the Ant <code>copy</code> task, symbolic links are followed: a link is
+ * exported with the content of the file it points to, links to directories or
+ * to files outside of the exported path are skipped.
+ * </p>
+ * <p>
+ * When exporting a tag with a cache directory, each tree (or file) is written
+ * to the {@link ExportCache} once per object id and the destination is
+ * materialized from the cache.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>tag</code> - the tag or branch to export (optional, default is
+ * the checked out content)</li>
+ * <li><code>path</code> - the path within the repository (optional, default
+ * is the repository root)</li>
+ * <li><code>todir</code> - the directory to export the content of the path
+ * to</li>
+ * <li><code>tofile</code> - the file to export the path to, used when the path
+ * denotes a single file</li>
+ * <li><code>files</code> - comma-separated list of files below the path to
+ * export into <code>todir</code> in one go</li>
+ * <li><code>failOnError</code> - whether to fail if the path (or one of the
+ * listed files) does not exist (default <code>true</code>)</li>
+ * <li><code>cache</code> - the export cache directory (optional, only used
+ * together with <code>tag</code>)</li>
+ * <li><code>links</code> - whether to hard-link files from the export cache
+ * instead of copying them (default <code>false</code>)</li>
+ * </ul>
+ * </p>
+ */
+public class GitExportTask extends AbstractGitTask {
+
+	private String tag;
+
+	private String path;
+
+	private File todir;
+
+	private File tofile;
+
+	private boolean failOnError = true;
+
+	private File cache;
+
+	private boolean links;
+
+	private String files;
+
+	/**
+	 * Sets the tag or branch to export without checking it out.
+	 *
+	 * @param tag
+	 *            the tag
+	 */
+	public void setTag(String tag) {
+		this.tag = tag;
+	}
+
+	/**
+	 * Sets the path within the repository.
+	 *
+	 * @param path
+	 *            the path
+	 */
+	public void setPath(String path) {
+		this.path = path;
+	}
+
+	/**
+	 * Sets the directory to export the content of the path to.
+	 *
+	 * @param todir
+	 *            the destination directory
+	 */
+	public void setTodir(File todir) {
+		this.todir = todir;
+	}
+
+	/**
+	 * Sets the file to export a single file path to.
+	 *
+	 * @param tofile
+	 *            the destination file
+	 */
+	public void setTofile(File tofile) {
+		this.tofile = tofile;
+	}
+
+	/**
+	 * Sets whether to fail if a single file does not exist.
+	 *
+	 * @param failOnError
+	 *            <code>false</code> to only log a warning
+	 */
+	public void setFailOnError(boolean failOnError) {
+		this.failOnError = failOnError;
+	}
+
+	/**
+	 * Sets the files to export from the path into the destination directory.
+	 *
+	 * @param files
+	 *            comma-separated list of file names relative to the path
+	 */
+	public void setFiles(String files) {
+		this.files = files;
+	}
+
+	/**
+	 * Sets the export cache directory.
+	 *
+	 * @param cache
+	 *            the cache directory
+	 */
+	public void setCache(File cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * Sets whether files are hard-linked from the export cache.
+	 *
+	 * @param links
+	 *            <code>true</code> to link files where possible
+	 */
+	public void setLinks(boolean links) {
+		this.links = links;
+	}
+
+	/**
+	 * @return the path within the repository without leading or trailing
+	 *         slashes, or an empty string for the repository root
+	 */
+	protected String getPath() {
+		return normalizePath(path);
+	}
+
+	/**
+	 * @return the directory to export to, or <code>null</code> for a single
+	 *         file export
+	 */
+	protected File getTodir() {
+		if (todir == null && tofile == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "todir"), //$NON-NLS-1$
+					getLocation());
+		return todir;
+	}
+
+	/**
+	 * @return the file to export a single file path to
+	 */
+	protected File getTofile() {
+		return tofile;
+	}
+
+	/**
+	 * Handles a path which does not exist.
+	 *
+	 * @param path
+	 *            the path of the file or directory
+	 */
+	protected void fileNotFound(String path) {
+		final String message = NLS.bind(TaskMessages.error_refNotFound,
+				path, getLocalRepo());
+		if (failOnError)
+			throw new BuildException(message, getLocation());
+		log(message, Project.MSG_WARN);
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		if (files != null)
+			exportFiles();
+		else if (tag != null && tag.length() > 0)
+			exportTree();
+		else
+			exportWorkTree();
+	}
+
+	/**
+	 * Exports the listed files below the path into the destination directory.
+	 */
+	private void exportFiles() throws IOException {
+		final File destination = getTodir();
+		if (destination == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "todir"), //$NON-NLS-1$
+					getLocation());
+		final Repository repository = getRepository();
+		final RevCommit commit = tag != null && tag.length() > 0 ? resolveTag(repository)
+				: null;
+		final String base = getPath();
+		int count = 0;
+		final StringTokenizer tokenizer = new StringTokenizer(files, ","); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			final String file = normalizePath(tokenizer.nextToken().trim());
+			if (file.length() == 0)
+				continue;
+			final String p = base.length() == 0 ? file : base + "/" + file; //$NON-NLS-1$
+			final File target = new File(destination, file);
+			final boolean exported = commit != null ? exportBlob(repository,
+					commit, p, target) : exportWorkTreeFile(repository, p,
+					target);
+			if (exported)
+				count++;
+			else
+				fileNotFound(p);
+		}
+		log(NLS.bind(TaskMessages.info_export, new Object[] { getLocalRepo(),
+				base, destination, Integer.valueOf(count) }));
+	}
+
+	private RevCommit resolveTag(Repository repository) throws IOException {
+		final RevCommit commit = resolveCommit(repository, tag);
+		if (commit == null)
+			throw new BuildException(NLS.bind(TaskMessages.error_refNotFound,
+					tag, getLocalRepo()), getLocation());
+		return commit;
+	}
+
+	/**
+	 * Writes a single blob of a commit to the destination file.
+	 *
+	 * @return <code>false</code> if the path does not denote a file
+	 */
+	private boolean exportBlob(Repository repository, RevCommit commit,
+			String p, File file) throws IOException {
+		final TreeWalk walk = resolveLink(repository, commit.getTree(), p);
+		if (walk == null)
+			return false;
+		final ObjectId blobId = walk.getObjectId(0);
+		final FileMode mode = walk.getFileMode(0);
+		walk.release();
+		if (!isFile(mode))
+			return false;
+		if (cache == null) {
+			writeBlob(repository, blobId, mode, file);
+			return true;
+		}
+		final ExportCache exportCache = new ExportCache(cache, links);
+		final File entry = exportCache.getBlob(blobId, mode);
+		if (!entry.isFile()) {
+			final File temp = exportCache.getTemp(entry);
+			writeBlob(repository, blobId, mode, temp);
+			exportCache.commit(temp, entry);
+		}
+		exportCache.materialize(entry, file);
+		return true;
+	}
+
+	/**
+	 * Copies a single checked out file to the destination file.
+	 *
+	 * @return <code>false</code> if the path does not denote a file
+	 */
+	private boolean exportWorkTreeFile(Repository repository, String p,
+			File file) throws IOException {
+		final File source = new File(repository.getWorkTree(), p);
+		// follows links like the Ant copy task
+		if (!source.isFile())
+			return false;
+		FileUtils.getFileUtils().copyFile(source, file);
+		return true;
+	}
+
+	/**
+	 * Writes the blobs below the path at the tag to the destination.
+	 */
+	private void exportTree() throws IOException {
+		final File destination = getTodir();
+		final Repository repository = getRepository();
+		final RevCommit commit = resolveTag(repository);
+		final String p = getPath();
+
+		if (destination == null) {
+			if (!exportBlob(repository, commit, p, getTofile())) {
+				fileNotFound(p);
+				return;
+			}
+			log(NLS.bind(TaskMessages.info_export, new Object[] {
+					getLocalRepo(), p, getTofile(), Integer.valueOf(1) }),
+					Project.MSG_VERBOSE);
+			return;
+		}
+
+		// locate the tree of the path
+		ObjectId treeId = commit.getTree();
+		if (p.length() > 0) {
+			final TreeWalk walk = TreeWalk.forPath(repository, p, treeId);
+			if (walk == null) {
+				treeId = null;
+			} else {
+				try {
+					treeId = walk.getFileMode(0) == FileMode.TREE ? walk
+							.getObjectId(0) : null;
+				} finally {
+					walk.release();
+				}
+			}
+		}
+		if (treeId == null) {
+			fileNotFound(p);
+			return;
+		}
+
+		if (cache == null) {
+			final int count = writeTree(repository, treeId, destination);
+			log(NLS.bind(TaskMessages.info_export, new Object[] {
+					getLocalRepo(), p, destination, Integer.valueOf(count) }));
+			return;
+		}
+
+		final ExportCache exportCache = new ExportCache(cache, links);
+		final File entry = exportCache.getTree(treeId);
+		final boolean cached = entry.isDirectory();
+		if (!cached) {
+			final File temp = exportCache.getTemp(entry);
+			writeTree(repository, treeId, temp);
+			// an empty tree still needs an entry
+			temp.mkdirs();
+			exportCache.commit(temp, entry);
+		}
+		final int count = exportCache.materialize(entry, destination);
+		log(NLS.bind(TaskMessages.info_exportCached, new Object[] {
+				getLocalRepo(), p, destination, Integer.valueOf(count),
+				Boolean.valueOf(cached) }));
+	}
+
+	/**
+	 * Writes all files of a tree to the destination.
+	 *
+	 * @return the number of files written
+	 */
+	private int writeTree(Repository repository, ObjectId treeId,
+			File destination) throws IOException {
+		final TreeWalk walk = new TreeWalk(repository);
+		int count = 0;
+		try {
+			walk.addTree(treeId);
+			walk.setRecursive(true);
+			while (walk.next()) {
+				ObjectId blobId = walk.getObjectId(0);
+				FileMode mode = walk.getFileMode(0);
+				if (mode == FileMode.SYMLINK) {
+					final TreeWalk target = resolveLink(repository, treeId,
+							walk.getPathString());
+					if (target != null) {
+						blobId = target.getObjectId(0);
+						mode = target.getFileMode(0);
+						target.release();
+					}
+					if (!isFile(mode)) {
+						log(NLS.bind(TaskMessages.info_exportLinkSkipped,
+								getLocalRepo(), walk.getPathString()),
+								Project.MSG_VERBOSE);
+						continue;
+					}
+				}
+				if (!isFile(mode))
+					continue;
+				writeBlob(repository, blobId, mode, new File(destination, walk
+						.getPathString()));
+				count++;
+			}
+		} finally {
+			walk.release();
+		}
+		return count;
+	}
+
+	/**
+	 * Looks up a path in a tree, following symbolic links to files of the same
+	 * tree.
+	 *
+	 * @return the walk positioned at the path or at the file the link points
+	 *         to, to be released by the caller, or <code>null</code> if the
+	 *         path does not exist or the link points outside of the tree
+	 */
+	private static TreeWalk resolveLink(Repository repository,
+			ObjectId treeId, String path) throws IOException {
+		String p = path;
+		// like the limit of symbolic links in a path name on Linux
+		for (int i = 0; i < 40; i++) {
+			final TreeWalk walk = TreeWalk.forPath(repository, p, treeId);
+			if (walk == null || walk.getFileMode(0) != FileMode.SYMLINK)
+				return walk;
+			final String link = RawParseUtils.decode(repository.open(
+					walk.getObjectId(0), Constants.OBJ_BLOB).getCachedBytes());
+			walk.release();
+			final int slash = p.lastIndexOf('/');
+			p = resolvePath(slash < 0 ? "" : p.substring(0, slash), link); //$NON-NLS-1$
+			if (p == null)
+				return null;
+		}
+		return null;
+	}
+
+	/**
+	 * Resolves the target of a symbolic link relative to the directory
+	 * containing it.
+	 *
+	 * @return the path of the target, or <code>null</code> if it is absolute
+	 *         or outside of the tree
+	 */
+	private static String resolvePath(String directory, String link) {
+		if (link.startsWith("/")) //$NON-NLS-1$
+			return null;
+		final LinkedList<String> segments = new LinkedList<String>();
+		final StringTokenizer tokenizer = new StringTokenizer(directory + '/'
+				+ link, "/"); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			final String segment = tokenizer.nextToken();
+			if (segment.equals("..")) { //$NON-NLS-1$
+				if (segments.isEmpty())
+					return null;
+				segments.removeLast();
+			} else if (!segment.equals(".")) { //$NON-NLS-1$
+				segments.add(segment);
+			}
+		}
+		if (segments.isEmpty())
+			return null;
+		final StringBuffer resolved = new StringBuffer();
+		for (final String segment : segments) {
+			if (resolved.length() > 0)
+				resolved.append('/');
+			resolved.append(segment);
+		}
+		return resolved.toString();
+	}
+
+	private static boolean isFile(FileMode mode) {
+		return mode == FileMode.REGULAR_FILE
+				|| mode == FileMode.EXECUTABLE_FILE;
+	}
+
+	private static void writeBlob(Repository repository, ObjectId blobId,
+			FileMode mode, File file) throws IOException {
+		final ObjectLoader loader = repository.open(blobId, Constants.OBJ_BLOB);
+		final File parent = file.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException(NLS.bind(TaskMessages.error_createDirectory,
+					parent));
+		final OutputStream out = new BufferedOutputStream(
+				new FileOutputStream(file));
+		try {
+			loader.copyTo(out);
+		} finally {
+			out.close();
+		}
+		if (mode == FileMode.EXECUTABLE_FILE)
+			file.setExecutable(true);
+	}
+
+	/**
+	 * Copies the checked out files below the path to the destination.
+	 */
+	private void exportWorkTree() throws IOException {
+		final File destination = getTodir();
+		final Repository repository = getRepository();
+		final File workTree = repository.getWorkTree();
+		final FileUtils fileUtils = FileUtils.getFileUtils();
+		final String p = getPath();
+
+		if (destination == null) {
+			if (!exportWorkTreeFile(repository, p, getTofile())) {
+				fileNotFound(p);
+				return;
+			}
+			log(NLS.bind(TaskMessages.info_export, new Object[] {
+					getLocalRepo(), p, getTofile(), Integer.valueOf(1) }),
+					Project.MSG_VERBOSE);
+			return;
+		}
+
+		if (!new File(workTree, p).isDirectory()) {
+			fileNotFound(p);
+			return;
+		}
+		final String prefix = p.length() == 0 ? p : p + "/"; //$NON-NLS-1$
+		final DirCache dirCache = repository.readDirCache();
+		int count = 0;
+		for (int i = 0; i < dirCache.getEntryCount(); i++) {
+			final String entryPath = dirCache.getEntry(i).getPathString();
+			if (!entryPath.startsWith(prefix))
+				continue;
+			fileUtils.copyFile(new File(workTree, entryPath), new File(
+					destination, entryPath.substring(prefix.length())));
+			count++;
+		}
+		log(NLS.bind(TaskMessages.info_export, new Object[] { getLocalRepo(),
+				p, destination, Integer.valueOf(count) }));
+	}
+}
@@ -0,0 +1,205 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringTokenizer;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.errors.TransportException;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Clones a Git repository into a local clone or fetches new commits into an
+ * existing clone (<code>egit.fetch</code>).
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>repo</code> - the repository location; mandatory if the local
+ * clone does not exist yet</li>
+ * <li><code>tags</code> - comma-separated list of tags; if specified only
+ * these tags are fetched, falling back to fetching all refs if any of them is
+ * not available as a tag</li>
+ * <li><code>objectPool</code> - bare repository shared by all clones; a new
+ * clone borrows the objects of the pool and all fetched objects are deposited
+ * into the pool</li>
+ * </ul>
+ * </p>
+ */
+public class GitFetchTask extends AbstractGitTask {
+
+	private String repo;
+
+	private String tags;
+
+	private File objectPool;
+
+	/**
+	 * Sets the location of the repository to clone.
+	 *
+	 * @param repo
+	 *            the repository location
+	 */
+	public void setRepo(String repo) {
+		this.repo = repo;
+	}
+
+	/**
+	 * Sets the tags to fetch.
+	 *
+	 * @param tags
+	 *            comma-separated list of tags
+	 */
+	public void setTags(String tags) {
+		this.tags = tags;
+	}
+
+	/**
+	 * Sets the object pool.
+	 *
+	 * @param objectPool
+	 *            the directory of the bare repository used as pool
+	 */
+	public void setObjectPool(File objectPool) {
+		this.objectPool = objectPool;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		final Repository repository;
+		if (GitRepositories.exists(getLocalRepo())) {
+			log(NLS.bind(TaskMessages.info_fetch, getLocalRepo()));
+			repository = getRepository();
+		} else {
+			if (repo == null)
+				throw new BuildException(NLS.bind(
+						TaskMessages.error_missingAttribute, "repo"), //$NON-NLS-1$
+						getLocation());
+			log(NLS.bind(TaskMessages.info_clone, getLocalRepo(), repo));
+			repository = GitRepositories.create(getLocalRepo());
+			configureRemote(repository, repo);
+			if (objectPool != null)
+				borrowObjects(repository);
+		}
+
+		boolean fetched = false;
+		final List<RefSpec> refSpecs = getTagRefSpecs();
+		if (!refSpecs.isEmpty()) {
+			try {
+				fetch(repository, refSpecs, TagOpt.NO_TAGS);
+				fetched = true;
+			} catch (final TransportException e) {
+				log(NLS.bind(TaskMessages.info_fetchFallback, getLocalRepo(),
+						e.getMessage()), Project.MSG_WARN);
+			}
+		}
+
+		// map files usually reference tags which are not necessarily
+		// reachable from any branch
+		if (!fetched)
+			fetch(repository, null, TagOpt.FETCH_TAGS);
+
+		if (objectPool != null)
+			depositObjects(repository);
+	}
+
+	private void borrowObjects(Repository repository) throws IOException {
+		final Repository pool = GitRepositories.openObjectPool(objectPool);
+		final File alternates = new File(repository.getDirectory(),
+				"objects/info/alternates"); //$NON-NLS-1$
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(
+				alternates), "UTF-8"); //$NON-NLS-1$
+		try {
+			writer.write(new File(pool.getDirectory(), "objects") //$NON-NLS-1$
+					.getAbsolutePath());
+			writer.write('\n');
+		} finally {
+			writer.close();
+		}
+	}
+
+	private void depositObjects(Repository repository) throws IOException {
+		final Repository pool = GitRepositories.openObjectPool(objectPool);
+		log(NLS.bind(TaskMessages.info_deposit, getLocalRepo(), objectPool));
+
+		// keep the refs of each clone in its own namespace so that the pool
+		// retains the objects of all of them
+		final String namespace = "refs/pool/" + getLocalRepo().getName() + "/*"; //$NON-NLS-1$ //$NON-NLS-2$
+		final List<RefSpec> refSpecs = new ArrayList<RefSpec>(1);
+		refSpecs.add(new RefSpec().setForceUpdate(true).setSourceDestination(
+				Constants.R_REFS + "*", namespace)); //$NON-NLS-1$
+		final URIish source;
+		try {
+			source = new URIish(repository.getDirectory().getAbsolutePath());
+		} catch (final URISyntaxException e) {
+			throw new BuildException(NLS.bind(TaskMessages.error_invalidRepo,
+					repository.getDirectory()), e, getLocation());
+		}
+		synchronized (pool) {
+			final Transport transport = Transport.open(pool, source);
+			try {
+				transport.setTagOpt(TagOpt.NO_TAGS);
+				transport.fetch(NullProgressMonitor.INSTANCE, refSpecs);
+			} finally {
+				transport.close();
+			}
+		}
+	}
+
+	private List<RefSpec> getTagRefSpecs() {
+		final List<RefSpec> refSpecs = new ArrayList<RefSpec>();
+		if (tags == null)
+			return refSpecs;
+		final StringTokenizer tokenizer = new StringTokenizer(tags, ","); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			final String tag = tokenizer.nextToken().trim();
+			if (tag.length() == 0)
+				continue;
+			final String ref = Constants.R_TAGS + tag;
+			refSpecs.add(new RefSpec().setForceUpdate(true)
+					.setSourceDestination(ref, ref));
+		}
+		return refSpecs;
+	}
+
+	private void fetch(Repository repository, List<RefSpec> refSpecs,
+			TagOpt tagOpt) throws IOException {
+		final Transport transport;
+		try {
+			transport = Transport.open(repository, REMOTE);
+		} catch (final URISyntaxException e) {
+			throw new BuildException(NLS.bind(TaskMessages.error_invalidRepo,
+					repo), e, getLocation());
+		}
+		try {
+			transport.setTagOpt(tagOpt);
+			transport.fetch(NullProgressMonitor.INSTANCE, refSpecs);
+		} finally {
+			transport.close();
+		}
+	}
+}
@@ -0,0 +1,59 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Records the revision a map file entry resolved to in a {@link LockFile}
+ * (<code>egit.lock</code>).
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>repo</code> - the repository location of the map file entry
+ * (mandatory)</li>
+ * <li><code>tag</code> - the tag of the map file entry (mandatory)</li>
+ * <li><code>revision</code> - the revision actually retrieved, e.g. the commit
+ * the tag is already locked to (optional, default is the tag)</li>
+ * <li><code>path</code> - the path of the map file entry (optional, default
+ * is the repository root)</li>
+ * <li><code>file</code> - the lock file (mandatory)</li>
+ * </ul>
+ * </p>
+ */
+public class GitLockTask extends AbstractStampTask {
+
+	@Override
+	protected void doExecute() throws IOException {
+		final Repository repository = getRepository();
+		final RevCommit commit = resolveCommit(repository, getRevision());
+		if (commit == null)
+			throw new BuildException(NLS.bind(TaskMessages.error_refNotFound,
+					getRevision(), getLocalRepo()), getLocation());
+		final ObjectId object = resolveObject(repository, commit, getPath());
+		if (object == null)
+			throw new BuildException(NLS.bind(TaskMessages.error_refNotFound,
+					getPath(), getLocalRepo()), getLocation());
+
+		LockFile.record(getFile(), new LockFile.Entry(getRepo(), getTag(),
+				getPath(), commit.name(), object.name()));
+		log(NLS.bind(TaskMessages.info_lock, new Object[] { getLocalRepo(),
+				getPath(), commit.name() }), Project.MSG_VERBOSE);
+	}
+}
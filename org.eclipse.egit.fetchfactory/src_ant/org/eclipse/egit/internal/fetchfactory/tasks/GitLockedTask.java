@@ -0,0 +1,90 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Looks up the commit a tag of a repository is locked to in a {@link LockFile}
+ * (<code>egit.locked</code>).
+ * <p>
+ * The revision property is set to the locked commit id, or to the tag itself
+ * if the lock file has no entry for it. The available property is only set if
+ * the tag is locked and the local clone already contains the locked commit,
+ * i.e. the repository does not need to be updated for it.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (optional)</li>
+ * <li><code>repo</code> - the repository location of the map file entry
+ * (mandatory)</li>
+ * <li><code>tag</code> - the tag of the map file entry (mandatory)</li>
+ * <li><code>file</code> - the lock file (mandatory)</li>
+ * <li><code>property</code> - the property to set to the revision to retrieve
+ * (mandatory)</li>
+ * <li><code>availableProperty</code> - the property to set if the locked
+ * commit is available in the local clone (optional)</li>
+ * </ul>
+ * </p>
+ */
+public class GitLockedTask extends AbstractStampTask {
+
+	private String property;
+
+	private String availableProperty;
+
+	/**
+	 * Sets the property to set to the revision to retrieve.
+	 *
+	 * @param property
+	 *            the property name
+	 */
+	public void setProperty(String property) {
+		this.property = property;
+	}
+
+	/**
+	 * Sets the property to set if the locked commit is available locally.
+	 *
+	 * @param availableProperty
+	 *            the property name
+	 */
+	public void setAvailableProperty(String availableProperty) {
+		this.availableProperty = availableProperty;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		if (property == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "property"), //$NON-NLS-1$
+					getLocation());
+		final String commit = LockFile.read(getFile()).getCommit(getRepo(),
+				getTag());
+		if (commit == null) {
+			getProject().setNewProperty(property, getTag());
+			return;
+		}
+
+		log(NLS.bind(TaskMessages.info_locked, new Object[] { getRepo(),
+				commit, getTag() }), Project.MSG_VERBOSE);
+		getProject().setNewProperty(property, commit);
+		if (availableProperty != null && hasRepository()
+				&& getRepository().hasObject(ObjectId.fromString(commit)))
+			getProject().setNewProperty(availableProperty, "true"); //$NON-NLS-1$
+	}
+}
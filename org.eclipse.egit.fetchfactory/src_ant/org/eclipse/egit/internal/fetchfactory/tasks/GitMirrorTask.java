@@ -0,0 +1,308 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.TaskContainer;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.lib.StoredConfig;
+import org.eclipse.jgit.storage.file.FileRepository;
+import org.eclipse.jgit.transport.FetchConnection;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Runs its nested tasks with the fastest reachable mirror of a repository,
+ * falling back to the next mirror if they fail (<code>egit.mirrors</code>).
+ * <p>
+ * The candidates are the mirrors in the configured order followed by the
+ * repository location itself. Only the ref advertisement of each candidate is
+ * requested, all candidates concurrently, and the candidates are tried in the
+ * order they responded. Candidates which did not respond within the timeout
+ * are tried last, in the configured order, because the fetch itself may
+ * still succeed, e.g. with credentials only the native Git client has.
+ * </p>
+ * <p>
+ * Before each attempt the property is set to the candidate and the remote of
+ * an existing local clone is pointed to it, so that both a clone and a fetch
+ * use the candidate. If an attempt fails, a local clone created by it is
+ * removed and an existing one is repaired like by <code>egit.repair</code>.
+ * Afterwards the remote is pointed to the repository location again, so that
+ * the clone keeps its identity.
+ * </p>
+ * <p>
+ * Must only run while the clone is locked.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>repo</code> - the repository location (mandatory)</li>
+ * <li><code>mirrors</code> - comma-separated list of mirror locations
+ * (optional)</li>
+ * <li><code>property</code> - the property to set to the location to use
+ * (mandatory)</li>
+ * <li><code>timeout</code> - the time in seconds to wait for the ref
+ * advertisement of a candidate (default is 10)</li>
+ * </ul>
+ * </p>
+ */
+public class GitMirrorTask extends AbstractGitTask implements TaskContainer {
+
+	private final List<Task> tasks = new ArrayList<Task>();
+
+	private String repo;
+
+	private String mirrors;
+
+	private String property;
+
+	private int timeout = 10;
+
+	public void addTask(Task task) {
+		tasks.add(task);
+	}
+
+	/**
+	 * Sets the repository location.
+	 *
+	 * @param repo
+	 *            the repository location
+	 */
+	public void setRepo(String repo) {
+		this.repo = repo;
+	}
+
+	/**
+	 * Sets the mirror locations.
+	 *
+	 * @param mirrors
+	 *            comma-separated list of mirror locations
+	 */
+	public void setMirrors(String mirrors) {
+		this.mirrors = mirrors;
+	}
+
+	/**
+	 * Sets the property to set to the location to use.
+	 *
+	 * @param property
+	 *            the property name
+	 */
+	public void setProperty(String property) {
+		this.property = property;
+	}
+
+	/**
+	 * Sets the time to wait for the ref advertisement of a candidate.
+	 *
+	 * @param timeout
+	 *            the timeout in seconds
+	 */
+	public void setTimeout(int timeout) {
+		this.timeout = timeout;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		if (repo == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "repo"), getLocation()); //$NON-NLS-1$
+		if (property == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "property"), //$NON-NLS-1$
+					getLocation());
+
+		final Set<String> candidates = new LinkedHashSet<String>();
+		if (mirrors != null) {
+			final StringTokenizer tokenizer = new StringTokenizer(mirrors, ","); //$NON-NLS-1$
+			while (tokenizer.hasMoreTokens()) {
+				final String mirror = tokenizer.nextToken().trim();
+				if (mirror.length() > 0)
+					candidates.add(mirror);
+			}
+		}
+		candidates.add(repo);
+
+		final boolean existed = hasRepository();
+		BuildException failure = null;
+		try {
+			for (final String candidate : order(candidates)) {
+				log(NLS.bind(TaskMessages.info_mirror, getLocalRepo(),
+						candidate));
+				getProject().setProperty(property, candidate);
+				if (hasRepository())
+					setRemote(candidate);
+				try {
+					for (final Task task : tasks) {
+						task.perform();
+					}
+					return;
+				} catch (final BuildException e) {
+					failure = e;
+					log(NLS.bind(TaskMessages.info_mirrorFailed, new Object[] {
+							getLocalRepo(), candidate, e.getMessage() }),
+							Project.MSG_WARN);
+					recover(existed);
+				}
+			}
+			throw failure;
+		} finally {
+			if (hasRepository())
+				setRemote(repo);
+		}
+	}
+
+	/**
+	 * Requests the ref advertisement of all candidates concurrently and
+	 * returns them in the order they should be tried.
+	 */
+	private List<String> order(Set<String> candidates) throws IOException {
+		final List<String> ordered = new ArrayList<String>(candidates);
+		if (ordered.size() == 1)
+			return ordered;
+
+		final boolean existing = hasRepository();
+		final Repository repository = existing ? getRepository()
+				: new FileRepository(new File(getLocalRepo(), Constants.DOT_GIT));
+		final Map<String, Long> latencies = new HashMap<String, Long>();
+		final ExecutorService executor = Executors.newFixedThreadPool(ordered
+				.size());
+		try {
+			final Map<String, Future<Long>> results = new HashMap<String, Future<Long>>();
+			for (final String candidate : ordered) {
+				results.put(candidate, executor.submit(new Callable<Long>() {
+					public Long call() throws Exception {
+						return Long.valueOf(probe(repository, candidate));
+					}
+				}));
+			}
+			final long deadline = System.currentTimeMillis() + timeout * 1000L;
+			for (final String candidate : ordered) {
+				try {
+					final Long latency = results.get(candidate).get(
+							Math.max(0, deadline - System.currentTimeMillis()),
+							TimeUnit.MILLISECONDS);
+					latencies.put(candidate, latency);
+					log(NLS.bind(TaskMessages.info_mirrorProbe, new Object[] {
+							getLocalRepo(), candidate, latency }),
+							Project.MSG_VERBOSE);
+				} catch (final ExecutionException e) {
+					log(NLS.bind(TaskMessages.info_mirrorUnreachable,
+							new Object[] { getLocalRepo(), candidate,
+									e.getCause().getMessage() }),
+							Project.MSG_WARN);
+				} catch (final TimeoutException e) {
+					log(NLS.bind(TaskMessages.info_mirrorUnreachable,
+							new Object[] { getLocalRepo(), candidate,
+									"timeout" }), Project.MSG_WARN); //$NON-NLS-1$
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BuildException(e, getLocation());
+		} finally {
+			executor.shutdownNow();
+			if (!existing)
+				repository.close();
+		}
+
+		// stable, so unresponsive candidates keep their order at the end
+		Collections.sort(ordered, new Comparator<String>() {
+			public int compare(String o1, String o2) {
+				final long l1 = latency(latencies, o1);
+				final long l2 = latency(latencies, o2);
+				return l1 < l2 ? -1 : l1 > l2 ? 1 : 0;
+			}
+		});
+		return ordered;
+	}
+
+	private static long latency(Map<String, Long> latencies, String candidate) {
+		final Long latency = latencies.get(candidate);
+		return latency != null ? latency.longValue() : Long.MAX_VALUE;
+	}
+
+	/**
+	 * Requests the ref advertisement of a candidate and returns the time it
+	 * took in milliseconds.
+	 */
+	private long probe(Repository repository, String candidate)
+			throws Exception {
+		final long start = System.currentTimeMillis();
+		final Transport transport = Transport.open(repository, new URIish(
+				candidate));
+		try {
+			transport.setTimeout(timeout);
+			final FetchConnection connection = transport.openFetch();
+			try {
+				connection.getRefsMap();
+			} finally {
+				connection.close();
+			}
+		} finally {
+			transport.close();
+		}
+		return System.currentTimeMillis() - start;
+	}
+
+	/**
+	 * Removes a clone created by a failed attempt, so that the next attempt
+	 * clones again, or repairs an existing clone.
+	 */
+	private void recover(boolean existed) throws IOException {
+		final File localRepo = getLocalRepo();
+		if (!existed) {
+			GitRepositories.close(localRepo);
+			FileUtil.delete(localRepo);
+			if (localRepo.exists())
+				throw new IOException(NLS.bind(TaskMessages.error_deleteFile,
+						localRepo));
+			return;
+		}
+		final GitRepairTask repair = new GitRepairTask();
+		repair.bindToOwner(this);
+		repair.setLocalRepo(localRepo);
+		repair.setRepo(repo);
+		repair.execute();
+	}
+
+	private void setRemote(String url) throws IOException {
+		final StoredConfig config = getRepository().getConfig();
+		if (url.equals(config.getString("remote", REMOTE, "url"))) //$NON-NLS-1$ //$NON-NLS-2$
+			return;
+		config.setString("remote", REMOTE, "url", url); //$NON-NLS-1$ //$NON-NLS-2$
+		config.save();
+	}
+}
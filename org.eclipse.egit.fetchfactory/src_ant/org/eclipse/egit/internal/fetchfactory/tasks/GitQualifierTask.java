@@ -0,0 +1,364 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.StringTokenizer;
+import java.util.TimeZone;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.lib.ObjectReader;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.jgit.revwalk.RevWalk;
+import org.eclipse.jgit.treewalk.TreeWalk;
+import org.eclipse.jgit.treewalk.filter.AndTreeFilter;
+import org.eclipse.jgit.treewalk.filter.PathFilterGroup;
+import org.eclipse.jgit.treewalk.filter.TreeFilter;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Computes version qualifiers from the time of the last commit changing each
+ * element of a tag (<code>egit.qualifiers</code>).
+ * <p>
+ * The history of the tag is walked newest commits first, limited to the
+ * commits changing any of the paths to look up. A path is considered changed
+ * by a commit if it differs from all of its parents, so that merges are
+ * attributed to the commit on the merged branch like by <code>git log</code>.
+ * The walk stops as soon as every path has been seen.
+ * </p>
+ * <p>
+ * The fetch script runs the task once per element, but passes the paths of
+ * all elements of the tag in <code>paths</code>. The first run walks the
+ * history for all of them and the result is kept per clone and commit, so
+ * the following elements of the tag need no further walk. The history of a
+ * commit never changes, so results are kept for the lifetime of the JVM,
+ * bounded to the most recently used commits.
+ * </p>
+ * <p>
+ * The qualifiers are formatted as <code>vYYYYMMDD-HHMM</code> (UTC) and
+ * written to a properties file in the format PDE Build reads for
+ * <code>qualifier=context</code>, i.e. <code>pluginVersions.properties</code>
+ * or <code>featureVersions.properties</code> of the build directory. Existing
+ * entries of an element (keyed by id or by id and version) are replaced, so
+ * the qualifier derived from the map file tag is overridden. Elements whose
+ * path does not exist at the tag keep their entries.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>tag</code> - the tag, branch or commit (mandatory)</li>
+ * <li><code>elements</code> - comma-separated list of
+ * <code>id=path</code> pairs (mandatory)</li>
+ * <li><code>paths</code> - comma-separated list of further paths to look up
+ * in the same walk (optional)</li>
+ * <li><code>file</code> - the properties file to update (mandatory)</li>
+ * </ul>
+ * </p>
+ */
+public class GitQualifierTask extends AbstractGitTask {
+
+	private static final String QUALIFIER_FORMAT = "'v'yyyyMMdd-HHmm"; //$NON-NLS-1$
+
+	private static final String UTC = "UTC"; //$NON-NLS-1$
+
+	/** guards the properties files, which may be shared by parallel targets */
+	private static final Object FILE_LOCK = new Object();
+
+	/** number of commits whose last changes are kept */
+	private static final int MAX_WALKS = 64;
+
+	/**
+	 * The last changes found per clone and commit; a path without entry was
+	 * looked up but does not exist at the commit.
+	 */
+	private static final Map<String, Map<String, Integer>> walks = new LinkedHashMap<String, Map<String, Integer>>(
+			16, 0.75f, true) {
+
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(
+				Map.Entry<String, Map<String, Integer>> eldest) {
+			return size() > MAX_WALKS;
+		}
+	};
+
+	/** the paths looked up per key of {@link #walks} */
+	private static final Map<String, Set<String>> walkedPaths = new HashMap<String, Set<String>>();
+
+	private String tag;
+
+	private String elements;
+
+	private String paths;
+
+	private File file;
+
+	/**
+	 * Sets the tag.
+	 *
+	 * @param tag
+	 *            the tag, branch or commit
+	 */
+	public void setTag(String tag) {
+		this.tag = tag;
+	}
+
+	/**
+	 * Sets the elements.
+	 *
+	 * @param elements
+	 *            comma-separated list of <code>id=path</code> pairs
+	 */
+	public void setElements(String elements) {
+		this.elements = elements;
+	}
+
+	/**
+	 * Sets further paths to look up in the same walk, e.g. those of the other
+	 * elements of the tag.
+	 *
+	 * @param paths
+	 *            comma-separated list of paths
+	 */
+	public void setPaths(String paths) {
+		this.paths = paths;
+	}
+
+	/**
+	 * Sets the properties file.
+	 *
+	 * @param file
+	 *            the properties file to update
+	 */
+	public void setFile(File file) {
+		this.file = file;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		if (tag == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "tag"), getLocation()); //$NON-NLS-1$
+		if (elements == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "elements"), //$NON-NLS-1$
+					getLocation());
+		if (file == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "file"), getLocation()); //$NON-NLS-1$
+
+		// id -> normalized path
+		final Map<String, String> elementPaths = new LinkedHashMap<String, String>();
+		StringTokenizer tokenizer = new StringTokenizer(elements, ","); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			final String element = tokenizer.nextToken().trim();
+			final int separator = element.indexOf('=');
+			if (separator > 0)
+				elementPaths.put(element.substring(0, separator),
+						normalizePath(element.substring(separator + 1)));
+		}
+		if (elementPaths.isEmpty())
+			return;
+		final Set<String> lookups = new HashSet<String>(elementPaths.values());
+		if (paths != null) {
+			tokenizer = new StringTokenizer(paths, ","); //$NON-NLS-1$
+			while (tokenizer.hasMoreTokens())
+				lookups.add(normalizePath(tokenizer.nextToken().trim()));
+		}
+
+		final Repository repository = getRepository();
+		final RevCommit start = resolveCommit(repository, tag);
+		if (start == null)
+			throw new BuildException(NLS.bind(TaskMessages.error_refNotFound,
+					tag, getLocalRepo()), getLocation());
+
+		final Map<String, Integer> times = getLastChanges(repository, start,
+				elementPaths.values(), lookups);
+
+		final DateFormat format = new SimpleDateFormat(QUALIFIER_FORMAT);
+		format.setTimeZone(TimeZone.getTimeZone(UTC));
+		final Map<String, String> qualifiers = new LinkedHashMap<String, String>();
+		for (final Map.Entry<String, String> entry : elementPaths.entrySet()) {
+			final Integer time = times.get(entry.getValue());
+			if (time == null) {
+				log(NLS.bind(TaskMessages.info_noQualifier, entry.getKey(), entry
+						.getValue()), Project.MSG_VERBOSE);
+				continue;
+			}
+			qualifiers.put(entry.getKey(), format.format(new Date(time
+					.longValue() * 1000L)));
+		}
+		writeQualifiers(qualifiers);
+	}
+
+	/**
+	 * Returns the commit time of the last change of each of the needed paths,
+	 * walking the history for all paths to look up unless an earlier walk
+	 * from the same commit already found the needed ones.
+	 */
+	private Map<String, Integer> getLastChanges(Repository repository,
+			RevCommit start, Collection<String> needed, Set<String> lookups)
+			throws IOException {
+		final String key = repository.getDirectory().getCanonicalPath()
+				+ ':' + start.name();
+		synchronized (walks) {
+			final Map<String, Integer> times = walks.get(key);
+			if (times != null && walkedPaths.get(key).containsAll(needed))
+				return times;
+		}
+
+		log(NLS.bind(TaskMessages.info_qualifiers, new Object[] {
+				getLocalRepo(), Integer.valueOf(lookups.size()), tag }));
+		final Map<String, Integer> times = findLastChanges(repository, start,
+				lookups);
+		synchronized (walks) {
+			walks.put(key, times);
+			walkedPaths.put(key, lookups);
+			walkedPaths.keySet().retainAll(walks.keySet());
+		}
+		return times;
+	}
+
+	/**
+	 * Walks the history once and returns the commit time of the last change
+	 * of each path.
+	 */
+	private Map<String, Integer> findLastChanges(Repository repository,
+			RevCommit start, Set<String> paths) throws IOException {
+		final Map<String, Integer> times = new HashMap<String, Integer>();
+		final Set<String> pending = new HashSet<String>(paths);
+		final RevWalk walk = new RevWalk(repository);
+		try {
+			walk.markStart(walk.parseCommit(start));
+			// the root path matches every change, so only filter without it
+			if (!pending.contains("")) //$NON-NLS-1$
+				walk.setTreeFilter(AndTreeFilter.create(PathFilterGroup
+						.createFromStrings(pending), TreeFilter.ANY_DIFF));
+			final ObjectReader reader = walk.getObjectReader();
+			RevCommit commit;
+			while (!pending.isEmpty() && (commit = walk.next()) != null) {
+				for (final String path : findChangedPaths(walk, reader, commit,
+						pending)) {
+					times.put(path, Integer.valueOf(commit.getCommitTime()));
+					pending.remove(path);
+				}
+			}
+		} finally {
+			walk.release();
+		}
+		return times;
+	}
+
+	/**
+	 * Returns the pending paths which differ between a commit and all of its
+	 * (possibly rewritten) parents.
+	 */
+	private List<String> findChangedPaths(RevWalk walk, ObjectReader reader,
+			RevCommit commit, Set<String> pending) throws IOException {
+		final List<String> changed = new ArrayList<String>();
+		final TreeWalk treeWalk = new TreeWalk(reader);
+		treeWalk.setRecursive(true);
+		treeWalk.addTree(commit.getTree());
+		for (final RevCommit parent : commit.getParents()) {
+			walk.parseHeaders(parent);
+			treeWalk.addTree(parent.getTree());
+		}
+		if (pending.contains("")) //$NON-NLS-1$
+			treeWalk.setFilter(TreeFilter.ANY_DIFF);
+		else
+			treeWalk.setFilter(AndTreeFilter.create(PathFilterGroup
+					.createFromStrings(pending), TreeFilter.ANY_DIFF));
+		final int trees = treeWalk.getTreeCount();
+		while (changed.size() < pending.size() && treeWalk.next()) {
+			boolean differsFromAll = true;
+			for (int i = 1; i < trees && differsFromAll; i++) {
+				differsFromAll = !treeWalk.idEqual(0, i)
+						|| treeWalk.getRawMode(0) != treeWalk.getRawMode(i);
+			}
+			if (!differsFromAll)
+				continue;
+			final String entry = treeWalk.getPathString();
+			for (final String path : pending) {
+				if (!changed.contains(path)
+						&& (path.length() == 0 || entry.equals(path) || entry
+								.startsWith(path + '/')))
+					changed.add(path);
+			}
+		}
+		treeWalk.release();
+		return changed;
+	}
+
+	private void writeQualifiers(Map<String, String> qualifiers)
+			throws IOException {
+		if (qualifiers.isEmpty())
+			return;
+		synchronized (FILE_LOCK) {
+			final Properties properties = new Properties();
+			if (file.isFile()) {
+				final InputStream in = new BufferedInputStream(
+						new FileInputStream(file));
+				try {
+					properties.load(in);
+				} finally {
+					in.close();
+				}
+			}
+			for (final Map.Entry<String, String> qualifier : qualifiers
+					.entrySet()) {
+				final String id = qualifier.getKey();
+				boolean replaced = false;
+				for (final String key : properties.stringPropertyNames()) {
+					if (key.equals(id) || key.startsWith(id + ',')) {
+						properties.setProperty(key, qualifier.getValue());
+						replaced = true;
+					}
+				}
+				if (!replaced)
+					properties.setProperty(id, qualifier.getValue());
+			}
+			final File parent = file.getAbsoluteFile().getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory())
+				throw new IOException(NLS.bind(TaskMessages.error_createDirectory,
+						parent));
+			final OutputStream out = new BufferedOutputStream(
+					new FileOutputStream(file));
+			try {
+				properties.store(out, null);
+			} finally {
+				out.close();
+			}
+		}
+	}
+}
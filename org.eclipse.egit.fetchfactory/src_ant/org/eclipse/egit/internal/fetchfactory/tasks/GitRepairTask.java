@@ -0,0 +1,374 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Validates a local clone and repairs what an interrupted clone, fetch or
+ * checkout left behind (<code>egit.repair</code>).
+ * <p>
+ * A directory without Git metadata, e.g. created by a clone which was killed
+ * before it started, is removed so that the clone is started again. In a
+ * clone, stale lock files, temporary and incomplete pack files, a corrupt
+ * index and refs pointing to missing objects are removed, missing metadata
+ * directories and an invalid <code>HEAD</code> are recreated, and a missing
+ * remote is configured again. Everything complete, in particular all packs
+ * already downloaded, is kept, so that the following fetch only transfers
+ * what is missing. A healthy clone is not modified.
+ * </p>
+ * <p>
+ * Must only run while the clone is locked, otherwise the lock files of a
+ * concurrent Git operation would be removed.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>repo</code> - the repository location, used to configure a
+ * missing remote (optional)</li>
+ * </ul>
+ * </p>
+ */
+public class GitRepairTask extends AbstractGitTask {
+
+	private static final String SUFFIX_LOCK = ".lock"; //$NON-NLS-1$
+
+	private static final String SUFFIX_PACK = ".pack"; //$NON-NLS-1$
+
+	private static final String SUFFIX_IDX = ".idx"; //$NON-NLS-1$
+
+	private static final String PREFIX_TMP = "tmp_"; //$NON-NLS-1$
+
+	private static final String PACKED_REFS = "packed-refs"; //$NON-NLS-1$
+
+	private static final String INDEX = "index"; //$NON-NLS-1$
+
+	private static final String OBJECTS = "objects"; //$NON-NLS-1$
+
+	private static final String REF_PREFIX = "ref: "; //$NON-NLS-1$
+
+	private static final byte[] INDEX_SIGNATURE = { 'D', 'I', 'R', 'C' };
+
+	/** the trailing checksum of an index written with index.skipHash */
+	private static final byte[] NO_CHECKSUM = new byte[20];
+
+	private String repo;
+
+	private boolean repaired;
+
+	/**
+	 * Sets the repository location.
+	 *
+	 * @param repo
+	 *            the repository location
+	 */
+	public void setRepo(String repo) {
+		this.repo = repo;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		final File localRepo = getLocalRepo();
+		if (!localRepo.exists())
+			return;
+		if (!GitRepositories.exists(localRepo)) {
+			log(NLS.bind(TaskMessages.info_repairRemove, localRepo),
+					Project.MSG_WARN);
+			GitRepositories.close(localRepo);
+			FileUtil.delete(localRepo);
+			if (localRepo.exists())
+				throw new IOException(NLS.bind(TaskMessages.error_deleteFile,
+						localRepo));
+			return;
+		}
+
+		final File gitDir = new File(localRepo, Constants.DOT_GIT);
+		repaired = false;
+		removeLeftovers(gitDir);
+		removeIncompletePacks(new File(gitDir, OBJECTS + "/pack")); //$NON-NLS-1$
+		checkIndex(new File(gitDir, INDEX));
+		for (final String directory : Arrays.asList(OBJECTS + "/pack", //$NON-NLS-1$
+				OBJECTS + "/info", Constants.R_HEADS, Constants.R_TAGS)) { //$NON-NLS-1$
+			final File file = new File(gitDir, directory);
+			if (!file.isDirectory() && !file.mkdirs())
+				throw new IOException(NLS.bind(
+						TaskMessages.error_createDirectory, file));
+		}
+
+		// the object database is needed to validate the refs, so the shared
+		// repository is reopened once the files are in order
+		GitRepositories.close(localRepo);
+		final Repository repository = getRepository();
+		checkHead(repository, new File(gitDir, Constants.HEAD));
+		checkLooseRefs(repository, new File(gitDir, Constants.R_REFS));
+		checkPackedRefs(repository, new File(gitDir, PACKED_REFS));
+		if (repo != null
+				&& repository.getConfig().getString("remote", REMOTE, "url") == null) { //$NON-NLS-1$ //$NON-NLS-2$
+			log(NLS.bind(TaskMessages.info_repairRemote, localRepo, repo));
+			configureRemote(repository, repo);
+			repaired = true;
+		}
+		if (repaired)
+			GitRepositories.close(localRepo);
+		else
+			log(NLS.bind(TaskMessages.info_repairNone, localRepo),
+					Project.MSG_VERBOSE);
+	}
+
+	/**
+	 * Removes lock files and temporary files of interrupted operations. Loose
+	 * objects are not scanned, Git writes them atomically.
+	 */
+	private void removeLeftovers(File directory) throws IOException {
+		final File[] children = directory.listFiles();
+		if (children == null)
+			return;
+		for (final File child : children) {
+			if (child.isDirectory()) {
+				if (!child.getName().equals(OBJECTS))
+					removeLeftovers(child);
+			} else if (child.getName().endsWith(SUFFIX_LOCK)) {
+				remove(child);
+			}
+		}
+	}
+
+	/**
+	 * Removes temporary packs of interrupted downloads as well as packs
+	 * without index and indexes without pack.
+	 */
+	private void removeIncompletePacks(File packDirectory) throws IOException {
+		final File[] children = packDirectory.listFiles();
+		if (children == null)
+			return;
+		for (final File child : children) {
+			final String name = child.getName();
+			if (name.startsWith(PREFIX_TMP)) {
+				remove(child);
+			} else if (name.endsWith(SUFFIX_PACK)) {
+				if (!new File(packDirectory, name.substring(0, name.length()
+						- SUFFIX_PACK.length())
+						+ SUFFIX_IDX).isFile())
+					remove(child);
+			} else if (name.endsWith(SUFFIX_IDX)) {
+				if (!new File(packDirectory, name.substring(0, name.length()
+						- SUFFIX_IDX.length())
+						+ SUFFIX_PACK).isFile())
+					remove(child);
+			}
+		}
+	}
+
+	/**
+	 * Removes an index which is truncated or does not match its checksum. The
+	 * next checkout writes a new one. An index written with
+	 * <code>index.skipHash</code> has a null checksum and is kept.
+	 */
+	private void checkIndex(File index) throws IOException {
+		if (!index.isFile())
+			return;
+		final MessageDigest digest;
+		try {
+			digest = MessageDigest.getInstance("SHA-1"); //$NON-NLS-1$
+		} catch (final NoSuchAlgorithmException e) {
+			// cannot validate
+			return;
+		}
+		final long length = index.length();
+		boolean valid = length >= INDEX_SIGNATURE.length + 20;
+		if (valid) {
+			final byte[] buffer = new byte[8192];
+			final byte[] checksum = new byte[20];
+			final InputStream in = new FileInputStream(index);
+			try {
+				long remaining = length - checksum.length;
+				int read;
+				boolean first = true;
+				while (remaining > 0
+						&& (read = in.read(buffer, 0, (int) Math.min(
+								buffer.length, remaining))) > 0) {
+					if (first) {
+						first = false;
+						for (int i = 0; i < INDEX_SIGNATURE.length; i++) {
+							if (read <= i || buffer[i] != INDEX_SIGNATURE[i])
+								valid = false;
+						}
+					}
+					digest.update(buffer, 0, read);
+					remaining -= read;
+				}
+				int offset = 0;
+				while (offset < checksum.length
+						&& (read = in.read(checksum, offset, checksum.length
+								- offset)) > 0)
+					offset += read;
+				valid = valid
+						&& remaining == 0
+						&& offset == checksum.length
+						&& (Arrays.equals(checksum, NO_CHECKSUM) || Arrays
+								.equals(checksum, digest.digest()));
+			} finally {
+				in.close();
+			}
+		}
+		if (!valid)
+			remove(index);
+	}
+
+	/**
+	 * Points <code>HEAD</code> to the default branch if it is missing, cannot
+	 * be parsed or refers to a missing commit.
+	 */
+	private void checkHead(Repository repository, File head)
+			throws IOException {
+		final String content = head.isFile() ? readLine(head) : null;
+		if (content != null && content.startsWith(REF_PREFIX))
+			return;
+		if (content != null && ObjectId.isId(content)
+				&& repository.hasObject(ObjectId.fromString(content)))
+			return;
+
+		log(NLS.bind(TaskMessages.info_repairHead, getLocalRepo()));
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(head),
+				"UTF-8"); //$NON-NLS-1$
+		try {
+			writer.write(REF_PREFIX + Constants.R_HEADS + Constants.MASTER
+					+ '\n');
+		} finally {
+			writer.close();
+		}
+		repaired = true;
+	}
+
+	/**
+	 * Removes loose refs which cannot be parsed or refer to missing objects,
+	 * e.g. because the fetch writing the objects was interrupted.
+	 */
+	private void checkLooseRefs(Repository repository, File directory)
+			throws IOException {
+		final File[] children = directory.listFiles();
+		if (children == null)
+			return;
+		for (final File child : children) {
+			if (child.isDirectory()) {
+				checkLooseRefs(repository, child);
+				continue;
+			}
+			final String content = readLine(child);
+			if (content != null && content.startsWith(REF_PREFIX))
+				continue;
+			if (content == null || !ObjectId.isId(content)
+					|| !repository.hasObject(ObjectId.fromString(content)))
+				remove(child);
+		}
+	}
+
+	/**
+	 * Removes the entries of packed refs which refer to missing objects.
+	 */
+	private void checkPackedRefs(Repository repository, File packedRefs)
+			throws IOException {
+		if (!packedRefs.isFile())
+			return;
+		final List<String> lines = new ArrayList<String>();
+		final List<String> removed = new ArrayList<String>();
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(packedRefs), "UTF-8")); //$NON-NLS-1$
+		try {
+			boolean skipPeeled = false;
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.startsWith("^")) { //$NON-NLS-1$
+					// peeled value of the preceding tag
+					if (!skipPeeled)
+						lines.add(line);
+					continue;
+				}
+				skipPeeled = false;
+				final int space = line.indexOf(' ');
+				if (!line.startsWith("#") //$NON-NLS-1$
+						&& (space != Constants.OBJECT_ID_STRING_LENGTH
+								|| !ObjectId.isId(line.substring(0, space)) || !repository
+								.hasObject(ObjectId.fromString(line.substring(
+										0, space))))) {
+					removed.add(line.substring(space + 1));
+					skipPeeled = true;
+					continue;
+				}
+				lines.add(line);
+			}
+		} finally {
+			reader.close();
+		}
+		if (removed.isEmpty())
+			return;
+
+		for (final String ref : removed) {
+			log(NLS.bind(TaskMessages.info_repairFile, getLocalRepo(), ref));
+		}
+		final File temp = new File(packedRefs.getParentFile(), PACKED_REFS
+				+ SUFFIX_LOCK);
+		final OutputStream out = new FileOutputStream(temp);
+		try {
+			final Writer writer = new OutputStreamWriter(out, "UTF-8"); //$NON-NLS-1$
+			for (final String line : lines) {
+				writer.write(line);
+				writer.write('\n');
+			}
+			writer.flush();
+		} finally {
+			out.close();
+		}
+		if (!packedRefs.delete() || !temp.renameTo(packedRefs))
+			throw new IOException(NLS.bind(TaskMessages.error_deleteFile,
+					packedRefs));
+		repaired = true;
+	}
+
+	private void remove(File file) throws IOException {
+		log(NLS.bind(TaskMessages.info_repairFile, getLocalRepo(), file));
+		if (!file.delete())
+			throw new IOException(NLS.bind(TaskMessages.error_deleteFile, file));
+		repaired = true;
+	}
+
+	private static String readLine(File file) throws IOException {
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+		try {
+			final String line = reader.readLine();
+			return line != null ? line.trim() : null;
+		} finally {
+			reader.close();
+		}
+	}
+}
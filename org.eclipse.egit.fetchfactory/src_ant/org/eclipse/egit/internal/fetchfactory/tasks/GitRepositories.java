@@ -0,0 +1,230 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.SubBuildListener;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.storage.file.FileRepository;
+
+/**
+ * Keeps the local clones used by the Git tasks open for the whole build.
+ * <p>
+ * Every task working on the same clone shares one {@link Repository}
+ * instance so that pack files and the ref database are only read once. The
+ * Ant projects the tasks run in are registered; when the last of them has
+ * finished, all repositories are closed, so that a JVM running several
+ * builds, e.g. the Eclipse Ant runner, does not keep them open.
+ * </p>
+ * <p>
+ * Projects started by <code>antcall</code> or <code>ant</code> have no link
+ * to the project starting them but inherit its build listeners. A project
+ * inheriting the listener of a registered project is therefore not
+ * registered again, so the repositories stay open until the outermost
+ * registered project, usually the fetch script (see
+ * {@link GitRepositoriesTask}), has finished instead of being closed and
+ * opened again for every call.
+ * </p>
+ */
+public class GitRepositories {
+
+	/**
+	 * Unregisters a project when its build or sub-build (e.g. an
+	 * <code>antcall</code>) has finished.
+	 */
+	private static class ProjectListener implements SubBuildListener {
+
+		private final Project project;
+
+		ProjectListener(Project project) {
+			this.project = project;
+		}
+
+		public void buildFinished(BuildEvent event) {
+			finished(event);
+		}
+
+		public void subBuildFinished(BuildEvent event) {
+			finished(event);
+		}
+
+		private void finished(BuildEvent event) {
+			// child projects inherit the listener, ignore their events
+			if (event.getProject() != project)
+				return;
+			project.removeBuildListener(this);
+			unregister(project);
+		}
+
+		public void buildStarted(BuildEvent event) {
+			// empty
+		}
+
+		public void subBuildStarted(BuildEvent event) {
+			// empty
+		}
+
+		public void targetStarted(BuildEvent event) {
+			// empty
+		}
+
+		public void targetFinished(BuildEvent event) {
+			// empty
+		}
+
+		public void taskStarted(BuildEvent event) {
+			// empty
+		}
+
+		public void taskFinished(BuildEvent event) {
+			// empty
+		}
+
+		public void messageLogged(BuildEvent event) {
+			// empty
+		}
+	}
+
+	private static final Map<File, Repository> repositories = new HashMap<File, Repository>();
+
+	private static final Set<Project> projects = new HashSet<Project>();
+
+	/**
+	 * Registers a project using the shared repositories. They are kept open
+	 * until the builds of all registered projects have finished. A project
+	 * started from a registered project is not registered itself.
+	 *
+	 * @param project
+	 *            the project a task runs in
+	 */
+	public static synchronized void register(Project project) {
+		// listeners are passed on to projects started from this one
+		for (final Object listener : project.getBuildListeners()) {
+			if (listener instanceof ProjectListener)
+				return;
+		}
+		if (projects.add(project))
+			project.addBuildListener(new ProjectListener(project));
+	}
+
+	private static synchronized void unregister(Project project) {
+		projects.remove(project);
+		if (!projects.isEmpty())
+			return;
+		for (final Repository repository : repositories.values()) {
+			repository.close();
+		}
+		repositories.clear();
+	}
+
+	/**
+	 * Indicates if the specified directory contains a local clone.
+	 *
+	 * @param localRepo
+	 *            the work tree of the clone
+	 * @return <code>true</code> if the clone exists
+	 */
+	public static boolean exists(File localRepo) {
+		return new File(localRepo, Constants.DOT_GIT).isDirectory();
+	}
+
+	/**
+	 * Returns the shared repository for the specified clone.
+	 *
+	 * @param localRepo
+	 *            the work tree of the clone
+	 * @return the repository
+	 * @throws IOException
+	 *             if the repository could not be opened
+	 */
+	public static synchronized Repository open(File localRepo)
+			throws IOException {
+		final File key = localRepo.getCanonicalFile();
+		Repository repository = repositories.get(key);
+		if (repository == null) {
+			repository = new FileRepository(new File(key, Constants.DOT_GIT));
+			repositories.put(key, repository);
+		}
+		return repository;
+	}
+
+	/**
+	 * Creates a new, empty clone and returns the shared repository for it.
+	 *
+	 * @param localRepo
+	 *            the work tree of the clone
+	 * @return the repository
+	 * @throws IOException
+	 *             if the repository could not be created
+	 */
+	public static synchronized Repository create(File localRepo)
+			throws IOException {
+		final File key = localRepo.getCanonicalFile();
+		close(key);
+		final FileRepository repository = new FileRepository(new File(key,
+				Constants.DOT_GIT));
+		repository.create();
+		repositories.put(key, repository);
+		return repository;
+	}
+
+	/**
+	 * Returns the shared bare repository used as object pool, creating it if
+	 * necessary.
+	 *
+	 * @param objectPool
+	 *            the directory of the bare repository
+	 * @return the repository
+	 * @throws IOException
+	 *             if the repository could not be opened or created
+	 */
+	public static synchronized Repository openObjectPool(File objectPool)
+			throws IOException {
+		final File key = objectPool.getCanonicalFile();
+		Repository repository = repositories.get(key);
+		if (repository == null) {
+			final FileRepository pool = new FileRepository(key);
+			if (!pool.getObjectsDirectory().isDirectory())
+				pool.create(true);
+			repository = pool;
+			repositories.put(key, repository);
+		}
+		return repository;
+	}
+
+	/**
+	 * Closes the shared repository for the specified clone, if open.
+	 *
+	 * @param localRepo
+	 *            the work tree of the clone
+	 * @throws IOException
+	 *             if the path could not be resolved
+	 */
+	public static synchronized void close(File localRepo) throws IOException {
+		final Repository repository = repositories.remove(localRepo
+				.getCanonicalFile());
+		if (repository != null)
+			repository.close();
+	}
+
+	private GitRepositories() {
+		// no instances
+	}
+}
@@ -0,0 +1,36 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+
+/**
+ * Keeps the repositories opened by the Git tasks open until the project
+ * running this task has finished (<code>egit.repositories</code>).
+ * <p>
+ * The fetch script runs the task before calling the targets updating and
+ * exporting the local clones, so that the projects <code>antcall</code>
+ * starts for them share the repositories instead of closing them when each
+ * call has finished. Running the task again in the same project, or in a
+ * project started from it, has no effect.
+ * </p>
+ * <p>
+ * The task has no attributes.
+ * </p>
+ */
+public class GitRepositoriesTask extends Task {
+
+	@Override
+	public void execute() throws BuildException {
+		GitRepositories.register(getProject());
+	}
+}
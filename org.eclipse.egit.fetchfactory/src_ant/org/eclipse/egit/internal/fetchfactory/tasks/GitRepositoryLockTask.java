@@ -0,0 +1,106 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.TaskContainer;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Runs the nested tasks while holding the {@link RepositoryLock} of a local
+ * clone (<code>egit.repolock</code>).
+ * <p>
+ * This allows several builds to share one fetch cache: cloning, fetching and
+ * checking out hold the lock exclusively, exports from the object database
+ * may share it.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone, which does not need to exist
+ * yet (mandatory)</li>
+ * <li><code>shared</code> - whether the nested tasks only read the object
+ * database (default <code>false</code>)</li>
+ * </ul>
+ * </p>
+ */
+public class GitRepositoryLockTask extends Task implements TaskContainer {
+
+	private final List<Task> tasks = new ArrayList<Task>();
+
+	private File localRepo;
+
+	private boolean shared;
+
+	/**
+	 * Sets the local clone to lock.
+	 *
+	 * @param localRepo
+	 *            the work tree of the clone
+	 */
+	public void setLocalRepo(File localRepo) {
+		this.localRepo = localRepo;
+	}
+
+	/**
+	 * Sets whether the lock may be shared.
+	 *
+	 * @param shared
+	 *            <code>true</code> if the nested tasks do not modify the clone
+	 */
+	public void setShared(boolean shared) {
+		this.shared = shared;
+	}
+
+	public void addTask(Task task) {
+		tasks.add(task);
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		if (localRepo == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "localRepo"), //$NON-NLS-1$
+					getLocation());
+
+		final RepositoryLock lock;
+		try {
+			lock = RepositoryLock.get(localRepo);
+			lock.acquire(shared, new Runnable() {
+				public void run() {
+					log(NLS.bind(TaskMessages.info_waitForLock, localRepo,
+							lock.getFile()));
+				}
+			});
+		} catch (final IOException e) {
+			throw new BuildException(NLS.bind(TaskMessages.error_lock,
+					localRepo, e.getMessage()), e, getLocation());
+		}
+		try {
+			for (final Task task : tasks) {
+				task.perform();
+			}
+		} finally {
+			try {
+				lock.release(shared);
+			} catch (final IOException e) {
+				log(NLS.bind(TaskMessages.error_lock, localRepo, e
+						.getMessage()));
+			}
+		}
+	}
+}
@@ -0,0 +1,307 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.StringTokenizer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.TaskContainer;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Runs its nested tasks concurrently, the most expensive first
+ * (<code>egit.schedule</code>).
+ * <p>
+ * Like Ant's <code>parallel</code> task with <code>failOnAny</code>, but the
+ * nested tasks are started in the order of their expected duration, taken
+ * from a history file of previous runs, so that the longest task does not
+ * start last and stretch the total time. Tasks without history are assumed to
+ * be the most expensive, e.g. the first clone of a repository, and keep their
+ * order. The history is a properties file mapping keys to milliseconds. It
+ * keeps a decaying maximum of the durations of each successful task: a longer
+ * run replaces the recorded duration, a shorter one, e.g. a run which found
+ * the clone up to date and did not fetch, lowers it by a quarter only. The
+ * history may be shared by several builds and is only updated while holding
+ * a file lock on <code>&lt;history&gt;.lock</code>.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>threadCount</code> - the number of tasks to run concurrently
+ * (default is the number of processors)</li>
+ * <li><code>history</code> - the history file (mandatory)</li>
+ * <li><code>keys</code> - comma-separated list of the history keys of the
+ * nested tasks, in the order of the tasks (mandatory)</li>
+ * </ul>
+ * </p>
+ */
+public class GitScheduleTask extends Task implements TaskContainer {
+
+	private final List<Task> tasks = new ArrayList<Task>();
+
+	private int threadCount = Runtime.getRuntime().availableProcessors();
+
+	private File history;
+
+	private String keys;
+
+	public void addTask(Task task) {
+		tasks.add(task);
+	}
+
+	/**
+	 * Sets the number of tasks to run concurrently.
+	 *
+	 * @param threadCount
+	 *            the number of threads
+	 */
+	public void setThreadCount(int threadCount) {
+		this.threadCount = threadCount;
+	}
+
+	/**
+	 * Sets the history file.
+	 *
+	 * @param history
+	 *            the history file
+	 */
+	public void setHistory(File history) {
+		this.history = history;
+	}
+
+	/**
+	 * Sets the history keys of the nested tasks.
+	 *
+	 * @param keys
+	 *            comma-separated list of keys, one per nested task
+	 */
+	public void setKeys(String keys) {
+		this.keys = keys;
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		if (history == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "history"), //$NON-NLS-1$
+					getLocation());
+		if (keys == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "keys"), getLocation()); //$NON-NLS-1$
+		final List<String> keyList = new ArrayList<String>(tasks.size());
+		final StringTokenizer tokenizer = new StringTokenizer(keys, ","); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			keyList.add(tokenizer.nextToken().trim());
+		}
+		if (keyList.size() != tasks.size())
+			throw new BuildException(NLS.bind(TaskMessages.error_scheduleKeys,
+					Integer.valueOf(keyList.size()), Integer.valueOf(tasks
+							.size())), getLocation());
+		if (tasks.isEmpty())
+			return;
+
+		final Map<String, Long> durations = readHistory();
+		final List<Integer> order = new ArrayList<Integer>(tasks.size());
+		for (int i = 0; i < tasks.size(); i++) {
+			order.add(Integer.valueOf(i));
+		}
+		// stable, so tasks without history keep their order
+		Collections.sort(order, new Comparator<Integer>() {
+			public int compare(Integer o1, Integer o2) {
+				final long d1 = expectedDuration(durations, keyList.get(o1
+						.intValue()));
+				final long d2 = expectedDuration(durations, keyList.get(o2
+						.intValue()));
+				return d1 > d2 ? -1 : d1 < d2 ? 1 : 0;
+			}
+		});
+		for (final Integer index : order) {
+			final String key = keyList.get(index.intValue());
+			if (durations.containsKey(key))
+				log(NLS.bind(TaskMessages.info_schedule, key, durations
+						.get(key)), Project.MSG_VERBOSE);
+			else
+				log(NLS.bind(TaskMessages.info_scheduleUnknown, key),
+						Project.MSG_VERBOSE);
+		}
+
+		final Map<String, Long> measured = new HashMap<String, Long>();
+		final ExecutorService executor = Executors.newFixedThreadPool(Math
+				.max(1, Math.min(threadCount, tasks.size())));
+		try {
+			final List<Future<Object>> results = new ArrayList<Future<Object>>(
+					tasks.size());
+			for (final Integer index : order) {
+				final Task task = tasks.get(index.intValue());
+				final String key = keyList.get(index.intValue());
+				results.add(executor.submit(new Runnable() {
+					public void run() {
+						final long start = System.currentTimeMillis();
+						task.perform();
+						synchronized (measured) {
+							measured.put(key, Long.valueOf(System
+									.currentTimeMillis()
+									- start));
+						}
+					}
+				}, null));
+			}
+			for (final Future<Object> result : results) {
+				result.get();
+			}
+		} catch (final ExecutionException e) {
+			if (e.getCause() instanceof BuildException)
+				throw (BuildException) e.getCause();
+			throw new BuildException(e.getCause(), getLocation());
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new BuildException(e, getLocation());
+		} finally {
+			executor.shutdownNow();
+			writeHistory(measured);
+		}
+	}
+
+	private static long expectedDuration(Map<String, Long> durations,
+			String key) {
+		final Long duration = durations.get(key);
+		return duration != null ? duration.longValue() : Long.MAX_VALUE;
+	}
+
+	private Map<String, Long> readHistory() {
+		final Map<String, Long> durations = new HashMap<String, Long>();
+		final Properties properties = new Properties();
+		if (!history.isFile())
+			return durations;
+		try {
+			final InputStream in = new BufferedInputStream(new FileInputStream(
+					history));
+			try {
+				properties.load(in);
+			} finally {
+				in.close();
+			}
+		} catch (final IOException e) {
+			// no history; all tasks keep their order
+			log(NLS.bind(TaskMessages.error_history, history, e.getMessage()),
+					Project.MSG_WARN);
+			return durations;
+		}
+		for (final String key : properties.stringPropertyNames()) {
+			try {
+				durations.put(key, Long.valueOf(properties.getProperty(key)
+						.trim()));
+			} catch (final NumberFormatException e) {
+				// ignore the entry
+			}
+		}
+		return durations;
+	}
+
+	/**
+	 * Computes the duration to record from the previous one and a measured
+	 * one, a maximum decaying by a quarter per run.
+	 *
+	 * @param previous
+	 *            the recorded duration, or <code>null</code> if none
+	 * @param measured
+	 *            the measured duration
+	 * @return the duration to record
+	 */
+	static long recordedDuration(Long previous, long measured) {
+		if (previous == null)
+			return measured;
+		final long decayed = previous.longValue() - previous.longValue() / 4;
+		return Math.max(decayed, measured);
+	}
+
+	/**
+	 * Records the measured durations in the history. The file is re-read
+	 * while holding the lock so that entries written by other builds in the
+	 * meantime are kept.
+	 */
+	private void writeHistory(Map<String, Long> measured) {
+		synchronized (measured) {
+			if (measured.isEmpty())
+				return;
+			try {
+				final File parent = history.getAbsoluteFile().getParentFile();
+				if (!parent.isDirectory() && !parent.mkdirs()
+						&& !parent.isDirectory())
+					throw new IOException(NLS.bind(
+							TaskMessages.error_createDirectory, parent));
+				final RepositoryLock lock = RepositoryLock.get(history);
+				lock.acquire(false, null);
+				try {
+					final Map<String, Long> durations = readHistory();
+					final Properties properties = new Properties();
+					for (final Map.Entry<String, Long> entry : durations
+							.entrySet()) {
+						properties.setProperty(entry.getKey(), entry.getValue()
+								.toString());
+					}
+					for (final Map.Entry<String, Long> entry : measured
+							.entrySet()) {
+						properties.setProperty(entry.getKey(), String
+								.valueOf(recordedDuration(durations.get(entry
+										.getKey()), entry.getValue()
+										.longValue())));
+					}
+					// write a temporary file first so that a failed write
+					// keeps the previous history
+					final File temp = File.createTempFile(history.getName(),
+							".tmp", parent); //$NON-NLS-1$
+					final OutputStream out = new BufferedOutputStream(
+							new FileOutputStream(temp));
+					try {
+						properties.store(out, null);
+					} finally {
+						out.close();
+					}
+					// renaming over an existing file fails on some platforms
+					if (!temp.renameTo(history)
+							&& (!history.delete() || !temp.renameTo(history))) {
+						temp.delete();
+						throw new IOException(NLS.bind(
+								TaskMessages.error_deleteFile, history));
+					}
+				} finally {
+					lock.release(false);
+				}
+			} catch (final IOException e) {
+				// the history only affects the order of the next build
+				log(NLS.bind(TaskMessages.error_history, history, e
+						.getMessage()), Project.MSG_WARN);
+			}
+		}
+	}
+}
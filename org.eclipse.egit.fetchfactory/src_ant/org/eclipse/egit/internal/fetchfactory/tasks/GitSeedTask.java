@@ -0,0 +1,123 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.jgit.lib.NullProgressMonitor;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.transport.RefSpec;
+import org.eclipse.jgit.transport.TagOpt;
+import org.eclipse.jgit.transport.Transport;
+import org.eclipse.jgit.transport.URIish;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Seeds a local clone from a Git bundle file (<code>egit.seed</code>).
+ * <p>
+ * The local clone is created if it does not exist yet, with the repository
+ * location as its remote, and the refs of the bundle are fetched into it
+ * without any network access: branches become remote branches, tags and
+ * {@link GitBundleTask#R_REVISIONS revisions} keep their names. Nothing
+ * happens if the bundle does not exist.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>repo</code> - the repository location; mandatory if the local
+ * clone does not exist yet</li>
+ * <li><code>bundle</code> - the bundle file (mandatory)</li>
+ * </ul>
+ * </p>
+ */
+public class GitSeedTask extends AbstractGitTask {
+
+	private String repo;
+
+	private File bundle;
+
+	/**
+	 * Sets the repository location.
+	 *
+	 * @param repo
+	 *            the repository location
+	 */
+	public void setRepo(String repo) {
+		this.repo = repo;
+	}
+
+	/**
+	 * Sets the bundle to seed the local clone from.
+	 *
+	 * @param bundle
+	 *            the bundle file
+	 */
+	public void setBundle(File bundle) {
+		this.bundle = bundle;
+	}
+
+	@Override
+	protected void doExecute() throws IOException {
+		if (bundle == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "bundle"), //$NON-NLS-1$
+					getLocation());
+		if (!bundle.isFile()) {
+			log(NLS.bind(TaskMessages.info_noBundle, getLocalRepo(), bundle),
+					Project.MSG_VERBOSE);
+			return;
+		}
+
+		log(NLS.bind(TaskMessages.info_seed, getLocalRepo(), bundle));
+		final Repository repository;
+		if (GitRepositories.exists(getLocalRepo())) {
+			repository = getRepository();
+		} else {
+			if (repo == null)
+				throw new BuildException(NLS.bind(
+						TaskMessages.error_missingAttribute, "repo"), //$NON-NLS-1$
+						getLocation());
+			repository = GitRepositories.create(getLocalRepo());
+			configureRemote(repository, repo);
+		}
+
+		final List<RefSpec> refSpecs = new ArrayList<RefSpec>(3);
+		refSpecs.add(new RefSpec().setForceUpdate(true).setSourceDestination(
+				Constants.R_HEADS + "*", Constants.R_REMOTES + REMOTE + "/*")); //$NON-NLS-1$ //$NON-NLS-2$
+		refSpecs.add(new RefSpec().setForceUpdate(true).setSourceDestination(
+				Constants.R_TAGS + "*", Constants.R_TAGS + "*")); //$NON-NLS-1$ //$NON-NLS-2$
+		refSpecs.add(new RefSpec().setForceUpdate(true).setSourceDestination(
+				GitBundleTask.R_REVISIONS + "*", GitBundleTask.R_REVISIONS //$NON-NLS-1$
+						+ "*")); //$NON-NLS-1$
+		final Transport transport;
+		try {
+			transport = Transport.open(repository, new URIish(bundle
+					.getAbsolutePath()));
+		} catch (final URISyntaxException e) {
+			throw new BuildException(NLS.bind(TaskMessages.error_invalidRepo,
+					bundle), e, getLocation());
+		}
+		try {
+			transport.setTagOpt(TagOpt.NO_TAGS);
+			transport.fetch(NullProgressMonitor.INSTANCE, refSpecs);
+		} finally {
+			transport.close();
+		}
+	}
+}
@@ -0,0 +1,60 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.IOException;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.eclipse.jgit.lib.ObjectId;
+import org.eclipse.jgit.lib.Repository;
+import org.eclipse.jgit.revwalk.RevCommit;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Writes the stamp of an element retrieved into the build location
+ * (<code>egit.stamp</code>).
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>localRepo</code> - the local clone (mandatory)</li>
+ * <li><code>repo</code> - the repository location of the map file entry
+ * (mandatory)</li>
+ * <li><code>tag</code> - the tag of the map file entry (mandatory)</li>
+ * <li><code>revision</code> - the revision actually retrieved, e.g. the commit
+ * the tag is locked to (optional, default is the tag)</li>
+ * <li><code>path</code> - the path of the map file entry (optional, default
+ * is the repository root)</li>
+ * <li><code>file</code> - the stamp file (mandatory)</li>
+ * </ul>
+ * </p>
+ */
+public class GitStampTask extends AbstractStampTask {
+
+	@Override
+	protected void doExecute() throws IOException {
+		final Repository repository = getRepository();
+		final String ref = resolveRefName(repository, getTag());
+		final RevCommit commit = resolveCommit(repository, getRevision());
+		if (commit == null)
+			throw new BuildException(NLS.bind(TaskMessages.error_refNotFound,
+					getRevision(), getLocalRepo()), getLocation());
+		final ObjectId object = resolveObject(repository, commit, getPath());
+		if (object == null)
+			throw new BuildException(NLS.bind(TaskMessages.error_refNotFound,
+					getPath(), getLocalRepo()), getLocation());
+
+		new ElementStamp(getRepo(), getTag(), getPath(), ref, commit.name(),
+				object.name()).write(getFile());
+		log(NLS.bind(TaskMessages.info_stamp, new Object[] { getLocalRepo(),
+				getPath(), commit.name() }), Project.MSG_VERBOSE);
+	}
+}
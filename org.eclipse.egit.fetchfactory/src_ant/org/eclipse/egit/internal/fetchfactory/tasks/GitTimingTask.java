@@ -0,0 +1,336 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.StringTokenizer;
+
+import org.apache.tools.ant.BuildEvent;
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.SubBuildListener;
+import org.apache.tools.ant.Target;
+import org.apache.tools.ant.Task;
+import org.eclipse.jgit.lib.Constants;
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * Records the duration of the steps of a fetch in a {@link TimingReport}
+ * (<code>egit.timing</code>).
+ * <p>
+ * The task installs a build listener which times each execution of the
+ * listed targets, or of the macros replacing them, including those run by
+ * <code>antcall</code> or by nested fetch scripts, and writes the report when the project running the task
+ * finishes. Running the task again in the same project, or in a project
+ * started from it, has no effect. The bytes transferred are measured as the
+ * growth of the <code>.git</code> directory for <code>clone</code> and
+ * <code>fetch</code> steps and of the destination folder for
+ * <code>copy</code> steps.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>file</code> - the JSON report to write (mandatory)</li>
+ * <li><code>steps</code> - comma-separated list of
+ * <code>target=step</code> pairs naming the targets to time (mandatory)</li>
+ * </ul>
+ * </p>
+ */
+public class GitTimingTask extends Task {
+
+	private static final String PROP_LOCAL_REPO = "gitRepoLocalPath"; //$NON-NLS-1$
+
+	private static final String PROP_REPO = "gitRepo"; //$NON-NLS-1$
+
+	private static final String PROP_TAG = "tag"; //$NON-NLS-1$
+
+	private static final String PROP_DESTINATION = "destinationFolder"; //$NON-NLS-1$
+
+	private static final String TASK_WHEN = "egit.when"; //$NON-NLS-1$
+
+	private static final String STEP_CLONE = "clone"; //$NON-NLS-1$
+
+	private static final String STEP_FETCH = "fetch"; //$NON-NLS-1$
+
+	private static final String STEP_COPY = "copy"; //$NON-NLS-1$
+
+	private static class Started {
+
+		final String step;
+
+		final String target;
+
+		final String localRepo;
+
+		final String repo;
+
+		final String tag;
+
+		final String destination;
+
+		final long start = System.currentTimeMillis();
+
+		File measured;
+
+		long size;
+
+		Boolean hit;
+
+		Started(String step, String target, String localRepo, String repo,
+				String tag, String destination, Boolean hit) {
+			this.step = step;
+			this.target = target;
+			this.localRepo = localRepo;
+			this.repo = repo;
+			this.tag = tag;
+			this.destination = destination;
+			if (hit != null)
+				setHit(hit);
+		}
+
+		void setHit(Boolean hit) {
+			this.hit = hit;
+			if (hit.booleanValue())
+				return;
+			if (STEP_CLONE.equals(step) || STEP_FETCH.equals(step))
+				measured = new File(localRepo, Constants.DOT_GIT);
+			else if (STEP_COPY.equals(step) && destination != null)
+				measured = new File(destination);
+			if (measured != null)
+				size = GitCacheTask.sizeOf(measured);
+		}
+
+		TimingReport.Step finish() {
+			final long end = System.currentTimeMillis();
+			final boolean h = hit.booleanValue();
+			final long bytes = measured != null ? Math.max(0,
+					GitCacheTask.sizeOf(measured) - size) : -1;
+			return new TimingReport.Step(step, target, localRepo, repo, tag,
+					destination, h ? end : start, end, bytes, h);
+		}
+	}
+
+	private static class Listener implements SubBuildListener {
+
+		private final Project owner;
+
+		private final TimingReport report;
+
+		private final Map<String, String> steps;
+
+		private final Map<Target, Started> started = new IdentityHashMap<Target, Started>();
+
+		// macros of the macro layout running in the current thread
+		private final ThreadLocal<LinkedList<Started>> macros = new ThreadLocal<LinkedList<Started>>() {
+			@Override
+			protected LinkedList<Started> initialValue() {
+				return new LinkedList<Started>();
+			}
+		};
+
+		private final ThreadLocal<LinkedList<Task>> macroTasks = new ThreadLocal<LinkedList<Task>>() {
+			@Override
+			protected LinkedList<Task> initialValue() {
+				return new LinkedList<Task>();
+			}
+		};
+
+		Listener(Project owner, TimingReport report, Map<String, String> steps) {
+			this.owner = owner;
+			this.report = report;
+			this.steps = steps;
+		}
+
+		public void targetStarted(BuildEvent event) {
+			final Target target = event.getTarget();
+			final String step = steps.get(target.getName());
+			if (step == null)
+				return;
+			final Project project = target.getProject();
+			final String localRepo = project.getProperty(PROP_LOCAL_REPO);
+			if (localRepo == null || !isSet(project, target.getIf()))
+				return;
+
+			// a step whose result is already present is a cache hit
+			final boolean hit = target.getUnless() != null
+					&& isSet(project, target.getUnless());
+			final Started s = new Started(step, target.getName(), localRepo,
+					project.getProperty(PROP_REPO), project
+							.getProperty(PROP_TAG), project
+							.getProperty(PROP_DESTINATION), Boolean
+							.valueOf(hit));
+			synchronized (started) {
+				started.put(target, s);
+			}
+		}
+
+		public void targetFinished(BuildEvent event) {
+			final Target target = event.getTarget();
+			final Started s;
+			synchronized (started) {
+				s = started.remove(target);
+			}
+			if (s != null)
+				report.add(s.finish());
+		}
+
+		public void taskStarted(BuildEvent event) {
+			final Task task = event.getTask();
+			final Project project = task.getProject();
+			final Map<?, ?> attributes = task.getRuntimeConfigurableWrapper()
+					.getAttributeMap();
+			final String step = steps.get(task.getTaskName());
+			if (step == null) {
+				// the first egit.when of a macro decides if it is a hit
+				final LinkedList<Started> running = macros.get();
+				if (!running.isEmpty() && running.getFirst().hit == null
+						&& TASK_WHEN.equals(task.getTaskName())) {
+					final Boolean hit = evaluate(project, attributes);
+					if (hit != null)
+						running.getFirst().setHit(hit);
+				}
+				return;
+			}
+
+			final String localRepo = getAttribute(project, attributes,
+					PROP_LOCAL_REPO);
+			if (localRepo == null)
+				return;
+			macros.get().addFirst(
+					new Started(step, task.getTaskName(), localRepo,
+							getAttribute(project, attributes, PROP_REPO),
+							getAttribute(project, attributes, PROP_TAG),
+							getAttribute(project, attributes,
+									PROP_DESTINATION), null));
+			macroTasks.get().addFirst(task);
+		}
+
+		public void taskFinished(BuildEvent event) {
+			final LinkedList<Task> tasks = macroTasks.get();
+			if (!tasks.isEmpty() && event.getTask() == tasks.getFirst()) {
+				tasks.removeFirst();
+				final Started s = macros.get().removeFirst();
+				if (s.hit != null)
+					report.add(s.finish());
+			}
+		}
+
+		public void buildFinished(BuildEvent event) {
+			if (event.getProject() == owner)
+				write();
+		}
+
+		public void subBuildFinished(BuildEvent event) {
+			if (event.getProject() == owner)
+				write();
+		}
+
+		public void buildStarted(BuildEvent event) {
+			// nothing to do
+		}
+
+		public void subBuildStarted(BuildEvent event) {
+			// nothing to do
+		}
+
+		public void messageLogged(BuildEvent event) {
+			// nothing to do
+		}
+
+		private String getAttribute(Project project, Map<?, ?> attributes,
+				String name) {
+			final Object value = attributes.get(name);
+			if (value == null || value.toString().length() == 0)
+				return null;
+			return project.replaceProperties(value.toString());
+		}
+
+		private Boolean evaluate(Project project, Map<?, ?> attributes) {
+			final Boolean run = GitWhenTask.evaluate(project, getAttribute(
+					project, attributes, "if"), getAttribute(project, //$NON-NLS-1$
+					attributes, "unless"), getAttribute(project, attributes, //$NON-NLS-1$
+					"unlessAvailable")); //$NON-NLS-1$
+			return run != null ? Boolean.valueOf(!run.booleanValue()) : null;
+		}
+
+		private boolean isSet(Project project, String condition) {
+			if (condition == null || condition.length() == 0)
+				return true;
+			return project.getProperty(project.replaceProperties(condition)) != null;
+		}
+
+		private void write() {
+			try {
+				report.write();
+			} catch (final IOException e) {
+				owner.log(NLS.bind(TaskMessages.error_timingReport, report
+						.getFile(), e.getMessage()), Project.MSG_WARN);
+			}
+		}
+	}
+
+	private File file;
+
+	private String steps;
+
+	/**
+	 * Sets the report file.
+	 *
+	 * @param file
+	 *            the JSON file to write
+	 */
+	public void setFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Sets the targets to time.
+	 *
+	 * @param steps
+	 *            comma-separated list of <code>target=step</code> pairs
+	 */
+	public void setSteps(String steps) {
+		this.steps = steps;
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		if (file == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "file"), getLocation()); //$NON-NLS-1$
+		if (steps == null)
+			throw new BuildException(NLS.bind(
+					TaskMessages.error_missingAttribute, "steps"), //$NON-NLS-1$
+					getLocation());
+
+		// listeners are passed on to projects started from this one
+		for (final Object listener : getProject().getBuildListeners()) {
+			if (listener instanceof Listener)
+				return;
+		}
+
+		final Map<String, String> targets = new HashMap<String, String>();
+		final StringTokenizer tokenizer = new StringTokenizer(steps, ","); //$NON-NLS-1$
+		while (tokenizer.hasMoreTokens()) {
+			final String pair = tokenizer.nextToken().trim();
+			final int index = pair.indexOf('=');
+			if (index > 0)
+				targets.put(pair.substring(0, index), pair.substring(index + 1));
+		}
+		getProject().addBuildListener(
+				new Listener(getProject(), new TimingReport(file), targets));
+	}
+}
@@ -0,0 +1,118 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.tools.ant.BuildException;
+import org.apache.tools.ant.Project;
+import org.apache.tools.ant.Task;
+import org.apache.tools.ant.TaskContainer;
+
+/**
+ * Runs the nested tasks only if the conditions hold (<code>egit.when</code>).
+ * <p>
+ * The conditions follow the <code>if</code> and <code>unless</code>
+ * attributes of targets, so that macros can replace the targets invoked by
+ * <code>antcall</code> without copying the project for each call. Empty
+ * conditions are ignored.
+ * </p>
+ * <p>
+ * Attributes:
+ * <ul>
+ * <li><code>if</code> - property which must be set (optional)</li>
+ * <li><code>unless</code> - property which must not be set (optional)</li>
+ * <li><code>unlessAvailable</code> - file or directory which must not exist
+ * (optional)</li>
+ * </ul>
+ * </p>
+ */
+public class GitWhenTask extends Task implements TaskContainer {
+
+	private final List<Task> tasks = new ArrayList<Task>();
+
+	private String ifCondition;
+
+	private String unlessCondition;
+
+	private String unlessAvailable;
+
+	/**
+	 * Sets the property which must be set.
+	 *
+	 * @param property
+	 *            the property name
+	 */
+	public void setIf(String property) {
+		ifCondition = property;
+	}
+
+	/**
+	 * Sets the property which must not be set.
+	 *
+	 * @param property
+	 *            the property name
+	 */
+	public void setUnless(String property) {
+		unlessCondition = property;
+	}
+
+	/**
+	 * Sets the file which must not exist.
+	 *
+	 * @param file
+	 *            the file or directory
+	 */
+	public void setUnlessAvailable(String file) {
+		unlessAvailable = file;
+	}
+
+	public void addTask(Task task) {
+		tasks.add(task);
+	}
+
+	@Override
+	public void execute() throws BuildException {
+		if (!Boolean.TRUE.equals(evaluate(getProject(), ifCondition,
+				unlessCondition, unlessAvailable)))
+			return;
+		for (final Task task : tasks) {
+			task.perform();
+		}
+	}
+
+	/**
+	 * Evaluates the conditions.
+	 *
+	 * @return <code>null</code> if the <code>if</code> condition does not
+	 *         hold, i.e. the nested tasks do not apply at all,
+	 *         <code>Boolean.FALSE</code> if they are skipped because their
+	 *         result is already present and <code>Boolean.TRUE</code> if they
+	 *         run
+	 */
+	static Boolean evaluate(Project project, String ifCondition,
+			String unlessCondition, String unlessAvailable) {
+		if (!isEmpty(ifCondition) && project.getProperty(ifCondition) == null)
+			return null;
+		if (!isEmpty(unlessCondition)
+				&& project.getProperty(unlessCondition) != null)
+			return Boolean.FALSE;
+		if (!isEmpty(unlessAvailable) && new File(unlessAvailable).exists())
+			return Boolean.FALSE;
+		return Boolean.TRUE;
+	}
+
+	private static boolean isEmpty(String value) {
+		return value == null || value.length() == 0;
+	}
+}
@@ -0,0 +1,208 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * A file mapping map file entries to the revisions they resolved to.
+ * <p>
+ * The file contains one line per map file entry with the tab-separated
+ * repository location, tag, path, commit id and tree (or blob) id. Lines are
+ * sorted so that lock files of different builds can be compared easily.
+ * </p>
+ */
+public class LockFile {
+
+	/**
+	 * A map file entry and its resolved revision.
+	 */
+	public static class Entry {
+
+		private final String repo;
+
+		private final String tag;
+
+		private final String path;
+
+		private final String commit;
+
+		private final String object;
+
+		/**
+		 * Creates a new entry.
+		 *
+		 * @param repo
+		 *            the repository location
+		 * @param tag
+		 *            the tag
+		 * @param path
+		 *            the normalized path
+		 * @param commit
+		 *            the id of the commit
+		 * @param object
+		 *            the id of the tree or blob at the path
+		 */
+		public Entry(String repo, String tag, String path, String commit,
+				String object) {
+			this.repo = repo;
+			this.tag = tag;
+			this.path = path;
+			this.commit = commit;
+			this.object = object;
+		}
+
+		/**
+		 * @return the id of the commit
+		 */
+		public String getCommit() {
+			return commit;
+		}
+
+		/**
+		 * @return the id of the tree or blob at the path
+		 */
+		public String getObject() {
+			return object;
+		}
+
+		String getKey() {
+			return key(repo, tag, path);
+		}
+	}
+
+	private static final char SEPARATOR = '\t';
+
+	private static final String HEADER = "# repo\ttag\tpath\tcommit\tobject"; //$NON-NLS-1$
+
+	private static String key(String repo, String tag, String path) {
+		return repo + SEPARATOR + tag + SEPARATOR + path;
+	}
+
+	/**
+	 * Reads a lock file.
+	 *
+	 * @param file
+	 *            the lock file
+	 * @return the lock file, empty if the file does not exist
+	 * @throws IOException
+	 *             if the file could not be read
+	 */
+	public static LockFile read(File file) throws IOException {
+		final LockFile lockFile = new LockFile(file);
+		if (!file.isFile())
+			return lockFile;
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(file), "UTF-8")); //$NON-NLS-1$
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				if (line.length() == 0 || line.charAt(0) == '#')
+					continue;
+				final String[] fields = line.split(String.valueOf(SEPARATOR),
+						-1);
+				if (fields.length != 5)
+					throw new IOException(NLS.bind(
+							TaskMessages.error_invalidLockFile, file, line));
+				lockFile.put(new Entry(fields[0], fields[1], fields[2],
+						fields[3], fields[4]));
+			}
+		} finally {
+			reader.close();
+		}
+		return lockFile;
+	}
+
+	/**
+	 * Adds or replaces an entry in a lock file.
+	 * <p>
+	 * Updates are serialized so that tasks running in parallel do not lose
+	 * entries.
+	 * </p>
+	 *
+	 * @param file
+	 *            the lock file
+	 * @param entry
+	 *            the entry
+	 * @throws IOException
+	 *             if the file could not be updated
+	 */
+	public static synchronized void record(File file, Entry entry)
+			throws IOException {
+		final LockFile lockFile = read(file);
+		lockFile.put(entry);
+		lockFile.write();
+	}
+
+	private final File file;
+
+	private final Map<String, Entry> entries = new TreeMap<String, Entry>();
+
+	private LockFile(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * Returns the commit a tag of a repository is locked to.
+	 *
+	 * @param repo
+	 *            the repository location
+	 * @param tag
+	 *            the tag
+	 * @return the commit id or <code>null</code> if the tag is not locked
+	 */
+	public String getCommit(String repo, String tag) {
+		final String prefix = key(repo, tag, ""); //$NON-NLS-1$
+		for (final Map.Entry<String, Entry> entry : entries.entrySet()) {
+			if (entry.getKey().startsWith(prefix))
+				return entry.getValue().getCommit();
+		}
+		return null;
+	}
+
+	private void put(Entry entry) {
+		entries.put(entry.getKey(), entry);
+	}
+
+	private void write() throws IOException {
+		final File parent = file.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException(NLS.bind(TaskMessages.error_createDirectory,
+					parent));
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(
+				file), "UTF-8"); //$NON-NLS-1$
+		try {
+			writer.write(HEADER);
+			writer.write('\n');
+			for (final Entry entry : entries.values()) {
+				writer.write(entry.getKey());
+				writer.write(SEPARATOR);
+				writer.write(entry.getCommit());
+				writer.write(SEPARATOR);
+				writer.write(entry.getObject());
+				writer.write('\n');
+			}
+		} finally {
+			writer.close();
+		}
+	}
+}
@@ -0,0 +1,198 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * A lock on a local clone shared by all builds using the same fetch cache.
+ * <p>
+ * The lock is a file lock on <code>&lt;clone&gt;.lock</code> next to the
+ * clone, combined with a read-write lock for the threads of the running build
+ * because file locks are held by the whole JVM. Operations modifying the clone
+ * or its work tree hold the lock exclusively; exports from the object database
+ * only share it. Other files shared by the builds, such as the fetch history
+ * of {@link GitScheduleTask}, are locked the same way.
+ * </p>
+ */
+public class RepositoryLock {
+
+	private static final Map<File, RepositoryLock> locks = new HashMap<File, RepositoryLock>();
+
+	/**
+	 * Returns the lock for the specified clone.
+	 *
+	 * @param localRepo
+	 *            the work tree of the clone
+	 * @return the lock
+	 * @throws IOException
+	 *             if the path could not be resolved
+	 */
+	public static synchronized RepositoryLock get(File localRepo)
+			throws IOException {
+		final File clone = localRepo.getCanonicalFile();
+		RepositoryLock lock = locks.get(clone);
+		if (lock == null) {
+			lock = new RepositoryLock(new File(clone.getParentFile(), clone
+					.getName()
+					+ ".lock")); //$NON-NLS-1$
+			locks.put(clone, lock);
+		}
+		return lock;
+	}
+
+	private final File file;
+
+	private final ReentrantReadWriteLock threadLock = new ReentrantReadWriteLock();
+
+	private RandomAccessFile channelFile;
+
+	private FileLock fileLock;
+
+	private int holders;
+
+	private RepositoryLock(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the lock file
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Acquires the lock, waiting for other threads and builds to release it.
+	 *
+	 * @param shared
+	 *            <code>true</code> to share the lock with other readers
+	 * @param waiting
+	 *            called once if the lock is held by another build, may be
+	 *            <code>null</code>
+	 * @throws IOException
+	 *             if the file lock could not be acquired
+	 */
+	public void acquire(boolean shared, Runnable waiting) throws IOException {
+		final Lock lock = getThreadLock(shared);
+		lock.lock();
+		try {
+			synchronized (this) {
+				if (holders == 0) {
+					final FileChannel channel = open();
+					fileLock = channel.tryLock(0, Long.MAX_VALUE, shared);
+					if (fileLock == null) {
+						if (waiting != null)
+							waiting.run();
+						fileLock = channel.lock(0, Long.MAX_VALUE, shared);
+					}
+				}
+				holders++;
+			}
+		} catch (final IOException e) {
+			close();
+			lock.unlock();
+			throw e;
+		}
+	}
+
+	/**
+	 * Acquires the lock exclusively if nobody holds it.
+	 *
+	 * @return <code>true</code> if the lock was acquired
+	 * @throws IOException
+	 *             if the file lock could not be acquired
+	 */
+	public boolean tryAcquire() throws IOException {
+		final Lock lock = getThreadLock(false);
+		if (!lock.tryLock())
+			return false;
+		try {
+			synchronized (this) {
+				if (holders == 0) {
+					fileLock = open().tryLock();
+					if (fileLock == null) {
+						close();
+						lock.unlock();
+						return false;
+					}
+				}
+				holders++;
+			}
+		} catch (final IOException e) {
+			close();
+			lock.unlock();
+			throw e;
+		}
+		return true;
+	}
+
+	/**
+	 * Releases the lock.
+	 *
+	 * @param shared
+	 *            <code>true</code> if the lock was acquired shared
+	 * @throws IOException
+	 *             if the file lock could not be released
+	 */
+	public void release(boolean shared) throws IOException {
+		try {
+			synchronized (this) {
+				if (--holders == 0) {
+					try {
+						fileLock.release();
+					} finally {
+						fileLock = null;
+						close();
+					}
+				}
+			}
+		} finally {
+			getThreadLock(shared).unlock();
+		}
+	}
+
+	private Lock getThreadLock(boolean shared) {
+		return shared ? threadLock.readLock() : threadLock.writeLock();
+	}
+
+	private synchronized FileChannel open() throws IOException {
+		if (channelFile == null) {
+			final File parent = file.getParentFile();
+			if (!parent.isDirectory() && !parent.mkdirs())
+				throw new IOException(NLS.bind(
+						TaskMessages.error_createDirectory, parent));
+			channelFile = new RandomAccessFile(file, "rw"); //$NON-NLS-1$
+		}
+		return channelFile.getChannel();
+	}
+
+	private synchronized void close() {
+		if (channelFile == null || holders > 0)
+			return;
+		try {
+			channelFile.close();
+		} catch (final IOException e) {
+			// the lock is released with the channel anyway
+		}
+		channelFile = null;
+	}
+}
@@ -0,0 +1,126 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import org.eclipse.osgi.util.NLS;
+
+public class TaskMessages extends NLS {
+	private static final String BUNDLE_NAME = "org.eclipse.egit.internal.fetchfactory.tasks.messages";//$NON-NLS-1$
+
+	public static String error_missingAttribute;
+
+	public static String error_repositoryNotFound;
+
+	public static String error_refNotFound;
+
+	public static String error_invalidRepo;
+
+	public static String error_gitOperationFailed;
+
+	public static String error_createDirectory;
+
+	public static String error_cacheEntry;
+
+	public static String error_deleteFile;
+
+	public static String error_invalidLockFile;
+
+	public static String error_invalidSize;
+
+	public static String error_lock;
+
+	public static String error_timingReport;
+
+	public static String error_offline;
+
+	public static String error_directoryNotFound;
+
+	public static String error_copy;
+
+	public static String error_history;
+
+	public static String error_scheduleKeys;
+
+	public static String info_clone;
+
+	public static String info_fetch;
+
+	public static String info_fetchFallback;
+
+	public static String info_checkout;
+
+	public static String info_deposit;
+
+	public static String info_export;
+
+	public static String info_exportCached;
+
+	public static String info_exportLinkSkipped;
+
+	public static String info_stamp;
+
+	public static String info_upToDate;
+
+	public static String info_lock;
+
+	public static String info_locked;
+
+	public static String info_tagsAvailable;
+
+	public static String info_remoteUpToDate;
+
+	public static String info_remoteUnavailable;
+
+	public static String info_evict;
+
+	public static String info_cacheFull;
+
+	public static String info_waitForLock;
+
+	public static String info_seed;
+
+	public static String info_noBundle;
+
+	public static String info_bundle;
+
+	public static String info_copy;
+
+	public static String info_qualifiers;
+
+	public static String info_noQualifier;
+
+	public static String info_schedule;
+
+	public static String info_scheduleUnknown;
+
+	public static String info_repairRemove;
+
+	public static String info_repairFile;
+
+	public static String info_repairHead;
+
+	public static String info_repairRemote;
+
+	public static String info_repairNone;
+
+	public static String info_mirrorProbe;
+
+	public static String info_mirrorUnreachable;
+
+	public static String info_mirror;
+
+	public static String info_mirrorFailed;
+
+	static {
+		// load message values from bundle file
+		NLS.initializeMessages(BUNDLE_NAME, TaskMessages.class);
+	}
+}
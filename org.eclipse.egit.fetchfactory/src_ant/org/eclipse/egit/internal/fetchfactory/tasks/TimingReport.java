@@ -0,0 +1,288 @@
+/*******************************************************************************
+ * Copyright (c) 2010 AGETO Service GmbH and others.
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ *
+ * Contributors:
+ *     Gunnar Wagenknecht - initial API and implementation
+ *******************************************************************************/
+package org.eclipse.egit.internal.fetchfactory.tasks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.osgi.util.NLS;
+
+/**
+ * The durations of the steps of a fetch, written as a JSON report.
+ * <p>
+ * The report lists the total duration and bytes transferred per local clone
+ * and per retrieved element, both sorted by duration, followed by each step
+ * in the order it finished. A step skipped because its result was already
+ * present counts as a cache hit.
+ * </p>
+ */
+public class TimingReport {
+
+	/**
+	 * A step of the fetch, i.e. an execution of one of the common targets.
+	 */
+	public static class Step {
+
+		private final String name;
+
+		private final String target;
+
+		private final String localRepo;
+
+		private final String repo;
+
+		private final String tag;
+
+		private final String destination;
+
+		private final long start;
+
+		private final long end;
+
+		private final long bytes;
+
+		private final boolean hit;
+
+		/**
+		 * Creates a new step.
+		 *
+		 * @param name
+		 *            the kind of step, e.g. <code>clone</code>
+		 * @param target
+		 *            the target executed
+		 * @param localRepo
+		 *            the local clone
+		 * @param repo
+		 *            the repository location, may be <code>null</code>
+		 * @param tag
+		 *            the tag, may be <code>null</code>
+		 * @param destination
+		 *            the element retrieved, may be <code>null</code>
+		 * @param start
+		 *            the start time in milliseconds
+		 * @param end
+		 *            the end time in milliseconds
+		 * @param bytes
+		 *            the bytes transferred, <code>-1</code> if unknown
+		 * @param hit
+		 *            <code>true</code> if the step was skipped because its
+		 *            result was already present
+		 */
+		public Step(String name, String target, String localRepo, String repo,
+				String tag, String destination, long start, long end,
+				long bytes, boolean hit) {
+			this.name = name;
+			this.target = target;
+			this.localRepo = localRepo;
+			this.repo = repo;
+			this.tag = tag;
+			this.destination = destination;
+			this.start = start;
+			this.end = end;
+			this.bytes = bytes;
+			this.hit = hit;
+		}
+
+		long getMillis() {
+			return end - start;
+		}
+	}
+
+	private static class Total {
+
+		final String key;
+
+		String repo;
+
+		long millis;
+
+		long bytes;
+
+		int steps;
+
+		int hits;
+
+		Total(String key) {
+			this.key = key;
+		}
+
+		void add(Step step) {
+			if (step.repo != null)
+				repo = step.repo;
+			millis += step.getMillis();
+			if (step.bytes > 0)
+				bytes += step.bytes;
+			steps++;
+			if (step.hit)
+				hits++;
+		}
+	}
+
+	private static final Comparator<Total> BY_MILLIS = new Comparator<Total>() {
+		public int compare(Total t1, Total t2) {
+			return t1.millis > t2.millis ? -1 : t1.millis == t2.millis ? 0
+					: 1;
+		}
+	};
+
+	private final File file;
+
+	private final long start = System.currentTimeMillis();
+
+	private final List<Step> steps = new ArrayList<Step>();
+
+	/**
+	 * Creates a new, empty report.
+	 *
+	 * @param file
+	 *            the file to write the report to
+	 */
+	public TimingReport(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the file the report is written to
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	/**
+	 * Adds a step.
+	 *
+	 * @param step
+	 *            the step
+	 */
+	public synchronized void add(Step step) {
+		steps.add(step);
+	}
+
+	/**
+	 * Writes the report, replacing any previous content of the file.
+	 *
+	 * @throws IOException
+	 *             if the file could not be written
+	 */
+	public synchronized void write() throws IOException {
+		final Map<String, Total> repositories = new LinkedHashMap<String, Total>();
+		final Map<String, Total> elements = new LinkedHashMap<String, Total>();
+		for (final Step step : steps) {
+			total(repositories, step.localRepo).add(step);
+			if (step.destination != null)
+				total(elements, step.destination).add(step);
+		}
+
+		final File parent = file.getParentFile();
+		if (parent != null && !parent.isDirectory() && !parent.mkdirs())
+			throw new IOException(NLS.bind(TaskMessages.error_createDirectory,
+					parent));
+		final Writer writer = new OutputStreamWriter(new FileOutputStream(
+				file), "UTF-8"); //$NON-NLS-1$
+		try {
+			writer.write("{\n  \"start\": "); //$NON-NLS-1$
+			writer.write(String.valueOf(start));
+			writer.write(",\n  \"millis\": "); //$NON-NLS-1$
+			writer.write(String.valueOf(System.currentTimeMillis() - start));
+			writer.write(",\n  \"repositories\": ["); //$NON-NLS-1$
+			writeTotals(writer, repositories, "localRepo"); //$NON-NLS-1$
+			writer.write("],\n  \"elements\": ["); //$NON-NLS-1$
+			writeTotals(writer, elements, "destination"); //$NON-NLS-1$
+			writer.write("],\n  \"steps\": ["); //$NON-NLS-1$
+			for (int i = 0; i < steps.size(); i++) {
+				final Step step = steps.get(i);
+				writer.write(i == 0 ? "\n    {" : ",\n    {"); //$NON-NLS-1$ //$NON-NLS-2$
+				writeField(writer, "step", step.name, true); //$NON-NLS-1$
+				writeField(writer, "target", step.target, false); //$NON-NLS-1$
+				writeField(writer, "localRepo", step.localRepo, false); //$NON-NLS-1$
+				writeField(writer, "repo", step.repo, false); //$NON-NLS-1$
+				writeField(writer, "tag", step.tag, false); //$NON-NLS-1$
+				writeField(writer, "destination", step.destination, false); //$NON-NLS-1$
+				writeField(writer, "start", step.start); //$NON-NLS-1$
+				writeField(writer, "end", step.end); //$NON-NLS-1$
+				writeField(writer, "millis", step.getMillis()); //$NON-NLS-1$
+				if (step.bytes >= 0)
+					writeField(writer, "bytes", step.bytes); //$NON-NLS-1$
+				writeField(writer, "cache", step.hit ? "hit" : "miss", false); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+				writer.write('}');
+			}
+			writer.write(steps.isEmpty() ? "]\n}\n" : "\n  ]\n}\n"); //$NON-NLS-1$ //$NON-NLS-2$
+		} finally {
+			writer.close();
+		}
+	}
+
+	private Total total(Map<String, Total> totals, String key) {
+		Total total = totals.get(key);
+		if (total == null) {
+			total = new Total(key);
+			totals.put(key, total);
+		}
+		return total;
+	}
+
+	private void writeTotals(Writer writer, Map<String, Total> totals,
+			String keyName) throws IOException {
+		final List<Total> sorted = new ArrayList<Total>(totals.values());
+		Collections.sort(sorted, BY_MILLIS);
+		for (int i = 0; i < sorted.size(); i++) {
+			final Total total = sorted.get(i);
+			writer.write(i == 0 ? "\n    {" : ",\n    {"); //$NON-NLS-1$ //$NON-NLS-2$
+			writeField(writer, keyName, total.key, true);
+			writeField(writer, "repo", total.repo, false); //$NON-NLS-1$
+			writeField(writer, "millis", total.millis); //$NON-NLS-1$
+			writeField(writer, "bytes", total.bytes); //$NON-NLS-1$
+			writeField(writer, "steps", total.steps); //$NON-NLS-1$
+			writeField(writer, "hits", total.hits); //$NON-NLS-1$
+			writer.write('}');
+		}
+		if (!sorted.isEmpty())
+			writer.write("\n  "); //$NON-NLS-1$
+	}
+
+	private void writeField(Writer writer, String name, long value)
+			throws IOException {
+		writer.write(", \""); //$NON-NLS-1$
+		writer.write(name);
+		writer.write("\": "); //$NON-NLS-1$
+		writer.write(String.valueOf(value));
+	}
+
+	private void writeField(Writer writer, String name, String value,
+			boolean first) throws IOException {
+		if (value == null)
+			return;
+		writer.write(first ? "\"" : ", \""); //$NON-NLS-1$ //$NON-NLS-2$
+		writer.write(name);
+		writer.write("\": \""); //$NON-NLS-1$
+		for (int i = 0; i < value.length(); i++) {
+			final char c = value.charAt(i);
+			if (c == '"' || c == '\\') {
+				writer.write('\\');
+				writer.write(c);
+			} else if (c < ' ') {
+				writer.write(String.format("\\u%04x", Integer.valueOf(c))); //$NON-NLS-1$
+			} else {
+				writer.write(c);
+			}
+		}
+		writer.write('"');
+	}
+}